@@ -68,6 +68,9 @@ if (!file(hytaleAssetsZip).exists()) {
 dependencies {
     implementation(files(hytaleServerJar))
     implementation("com.google.guava:guava:33.4.6-jre")
+
+    testImplementation("org.junit.jupiter:junit-jupiter:5.11.4")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 
 abstract class ProcessManifestTask : DefaultTask() {
@@ -223,6 +226,10 @@ tasks {
         enabled = false
     }
 
+    test {
+        useJUnitPlatform()
+    }
+
     val processManifest by registering(ProcessManifestTask::class) {
         group = "hytale"
         description = "Processes manifest.json from generated/ and copies to resources/"
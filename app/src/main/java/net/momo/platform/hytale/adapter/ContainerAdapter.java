@@ -1,13 +1,22 @@
 package net.momo.platform.hytale.adapter;
 
+import net.momo.silo.storage.ItemIds;
+
 import javax.annotation.Nullable;
 import java.util.List;
 
 /** Adapter interface for container operations. */
 public interface ContainerAdapter {
 
-    /** Container slot representation. */
-    record Slot(short index, @Nullable String itemId, int quantity) {
+    /**
+     * Container slot representation. {@code handle} is the item's {@link ItemIds} handle, resolved
+     * once when the slot is read, or {@link ItemIds#NONE} if the ID was never interned.
+     */
+    record Slot(short index, @Nullable String itemId, int handle, int quantity) {
+        public Slot(short index, @Nullable String itemId, int quantity) {
+            this(index, itemId, ItemIds.find(itemId), quantity);
+        }
+
         public boolean isEmpty() {
             return itemId == null || quantity <= 0;
         }
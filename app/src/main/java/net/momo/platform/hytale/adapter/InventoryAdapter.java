@@ -21,6 +21,9 @@ public interface InventoryAdapter {
     /** Gives an item to the player. Returns true if successful. */
     boolean giveItem(String itemId, int quantity);
 
+    /** Gives as much of an item as fits. Returns the quantity that did not fit. */
+    int addItem(String itemId, int quantity);
+
     /** Gives an item with NBT data to the player. Returns true if successful. */
     boolean giveItemWithNbt(String itemId, int quantity, Map<String, Object> nbt);
 }
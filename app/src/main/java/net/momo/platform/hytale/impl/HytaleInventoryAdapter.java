@@ -82,6 +82,24 @@ public final class HytaleInventoryAdapter implements InventoryAdapter {
         return giveItemWithNbt(itemId, quantity, null);
     }
 
+    @Override
+    public int addItem(String itemId, int quantity) {
+        if (itemId == null || quantity <= 0) {
+            return quantity;
+        }
+
+        try {
+            var transaction = inventory.getHotbar().addItemStack(new ItemStack(itemId, quantity));
+            if (transaction.succeeded()) {
+                ItemStack remainder = transaction.getRemainder();
+                return remainder != null ? remainder.getQuantity() : 0;
+            }
+        } catch (Exception e) {
+            logger.at(Level.WARNING).log("Failed to give item %s x%d: %s", itemId, quantity, e.getMessage());
+        }
+        return quantity;
+    }
+
     @Override
     public boolean giveItemWithNbt(String itemId, int quantity, Map<String, Object> nbtData) {
         try {
@@ -1,5 +1,9 @@
 package net.momo.silo.core;
 
+import net.momo.silo.persistence.Compression;
+import net.momo.silo.persistence.SaveFormat;
+import net.momo.silo.storage.StorageBackend;
+
 /** Single source of truth for mod identity. Change these values to rebrand the mod. */
 public final class ModConfig {
 
@@ -36,6 +40,38 @@ public final class ModConfig {
     /** Name for the storage itself. Default: "Storage" */
     public static final String STORAGE_NAME = "Storage";
 
+    // ==================== Storage ====================
+
+    /** Where storages keep their quantities. OFF_HEAP needs native memory access at runtime. */
+    public static final StorageBackend STORAGE_BACKEND = StorageBackend.HEAP;
+
+    // ==================== Persistence ====================
+
+    /**
+     * Format of the base save. An existing save in another format is converted on start, so BINARY
+     * or SHARDED can be opted into on an existing server; JSON stays readable by hand. SHARDED keeps
+     * backup generations of its index only, so {@code /vsrestore} is unavailable under it.
+     */
+    public static final SaveFormat SAVE_FORMAT = SaveFormat.JSON;
+
+    /**
+     * Compression of save files; GZIP is opt-in and trades save time for disk. Files load however
+     * they were written, so this can change freely.
+     */
+    public static final Compression SAVE_COMPRESSION = Compression.NONE;
+
+    /** Backup generations kept of the save file, each made by a hard link rather than a copy. */
+    public static final int BACKUP_GENERATIONS = 5;
+
+    /** Hours a backup generation is kept before pruning; the newest is always kept. */
+    public static final long BACKUP_RETENTION_HOURS = 24;
+
+    /** Read each storage on first use instead of at start, and unload idle ones. Opt-in; sharded format only. */
+    public static final boolean LAZY_STORAGE_LOADING = false;
+
+    /** Minutes a saved storage may go without a lookup before it is unloaded. */
+    public static final long STORAGE_IDLE_MINUTES = 15;
+
     // ==================== Utility Methods ====================
 
     /** Creates a namespaced key (e.g., "voidstorage:Anomaly_Core"). */
@@ -7,7 +7,7 @@ import com.hypixel.hytale.server.core.universe.world.World;
 import net.momo.platform.hytale.adapter.WorldAdapter;
 import net.momo.platform.hytale.impl.HytaleWorldAdapter;
 import net.momo.silo.interceptor.InterceptorRegistry;
-
+import net.momo.silo.storage.DepositBuffer;
 import net.momo.silo.util.ObjectPool;
 
 import java.util.Map;
@@ -95,6 +95,10 @@ public final class MechanicRunner {
             return;
         }
 
+        boolean combine = mechanic.combinesDeposits();
+        if (combine) {
+            DepositBuffer.open();
+        }
         try {
             for (World world : Universe.get().getWorlds().values()) {
                 WorldAdapter adapter = new HytaleWorldAdapter(world);
@@ -106,7 +110,13 @@ public final class MechanicRunner {
                 }
             }
         } finally {
-            isRunning.set(false);
+            try {
+                if (combine) {
+                    DepositBuffer.flush();
+                }
+            } finally {
+                isRunning.set(false);
+            }
         }
     }
 
@@ -27,6 +27,14 @@ public interface TickMechanic {
         return true;
     }
 
+    /**
+     * Whether storage deposits committed during a tick are write-combined and applied when the
+     * tick ends. Per-item quantities then lag until the tick finishes; totals do not.
+     */
+    default boolean combinesDeposits() {
+        return false;
+    }
+
     /** Initial delay before first tick in milliseconds. Default is intervalMs(). */
     default long initialDelayMs() {
         return intervalMs();
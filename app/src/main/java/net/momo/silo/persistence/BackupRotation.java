@@ -0,0 +1,228 @@
+package net.momo.silo.persistence;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Rotating backup generations of a save file, kept as {@code <file>.backup.<n>} with the newest
+ * highest. The file being replaced becomes the next generation through a hard link, or a rename
+ * where links are unsupported, so a generation costs no copy. Generations past the configured
+ * count or age are pruned after each rotation, always keeping the newest. A {@code <file>.backup}
+ * left by older versions counts as generation 0.
+ *
+ * <p>A restore picked while running is only scheduled, in {@code <file>.restore}, and applied at
+ * the next load, since every save until then would overwrite it. Generations of an index whose
+ * contents live elsewhere only serve recovery from a corrupt index and cannot be restored.
+ */
+public final class BackupRotation {
+
+    private static final HytaleLogger logger = HytaleLogger.forEnclosingClass();
+    private static final Duration NO_LIMIT = ChronoUnit.FOREVER.getDuration();
+
+    private final Path dataFile;
+    private final String prefix;
+    private final Path legacyFile;
+    private final Path restoreFile;
+    private volatile int generations = 1;
+    private volatile Duration maxAge = NO_LIMIT;
+    private volatile boolean indexOnly;
+
+    BackupRotation(Path dataFile) {
+        this.dataFile = dataFile;
+        this.prefix = dataFile.getFileName() + ".backup.";
+        this.legacyFile = dataFile.resolveSibling(dataFile.getFileName() + ".backup");
+        this.restoreFile = dataFile.resolveSibling(dataFile.getFileName() + ".restore");
+    }
+
+    /** Keeps up to {@code generations} backups, dropping any older than {@code maxAge} but the newest. */
+    void retain(int generations, Duration maxAge) {
+        if (generations < 1) {
+            throw new IllegalArgumentException("At least one backup generation is required");
+        }
+        this.generations = generations;
+        this.maxAge = maxAge;
+    }
+
+    /** Marks the file as an index whose contents live in other files, which makes its generations unrestorable. */
+    void markIndexOnly() {
+        indexOnly = true;
+    }
+
+    /**
+     * True if generations hold only an index whose storages are saved in separate files. Restoring
+     * one would pair old structure with current contents, so {@link #scheduleRestore} refuses.
+     */
+    public boolean isIndexOnly() {
+        return indexOnly;
+    }
+
+    /** Every generation on disk, newest first. */
+    public List<Generation> generations() throws IOException {
+        List<Generation> found = new ArrayList<>();
+        Path directory = dataFile.toAbsolutePath().getParent();
+        if (!Files.isDirectory(directory)) {
+            return found;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path file : files) {
+                long number = parseNumber(file.getFileName().toString().substring(prefix.length()));
+                if (number > 0) {
+                    found.add(generation(number, file));
+                }
+            }
+        }
+        if (Files.exists(legacyFile)) {
+            found.add(generation(0, legacyFile));
+        }
+        found.sort(Comparator.comparingLong(Generation::number).reversed());
+        return found;
+    }
+
+    /**
+     * Turns the current file into the newest generation, just before a finished temporary file is
+     * moved over it. With the rename fallback the file is briefly missing, which load recovers from.
+     */
+    void rotate() throws IOException {
+        if (!Files.exists(dataFile)) {
+            return;
+        }
+        List<Generation> existing = generations();
+        long number = existing.isEmpty() ? 1 : existing.get(0).number() + 1;
+        Path target = dataFile.resolveSibling(prefix + number);
+        try {
+            Files.createLink(target, dataFile);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.move(dataFile, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+        existing.add(0, generation(number, target));
+        prune(existing);
+    }
+
+    private void prune(List<Generation> newestFirst) throws IOException {
+        long pinned = scheduledRestore();
+        Instant now = Instant.now();
+        for (int i = 1; i < newestFirst.size(); i++) {
+            Generation generation = newestFirst.get(i);
+            boolean expired = i >= generations || Duration.between(generation.written(), now).compareTo(maxAge) > 0;
+            if (expired && generation.number() != pinned) {
+                Files.deleteIfExists(generation.file());
+            }
+        }
+    }
+
+    /**
+     * Replaces the data file with the newest generation that passes {@code check}, for a file that
+     * is corrupt or missing. Returns false if no generation does.
+     */
+    boolean recover(FileCheck check) throws IOException {
+        for (Generation generation : generations()) {
+            boolean valid;
+            try {
+                valid = check.test(generation.file());
+            } catch (IOException e) {
+                valid = false;
+            }
+            if (valid) {
+                restore(generation);
+                logger.at(Level.INFO).log("Restored %s from backup generation %d", dataFile, generation.number());
+                return true;
+            }
+            logger.at(Level.WARNING).log("Backup generation %d of %s is unreadable, trying an older one",
+                generation.number(), dataFile);
+        }
+        return false;
+    }
+
+    /**
+     * Schedules a generation to replace the data file at the next load, and keeps it from being
+     * pruned until then. Returns false if there is no such generation.
+     */
+    public boolean scheduleRestore(long number) throws IOException {
+        if (indexOnly) {
+            throw new IllegalStateException("Backups of " + dataFile.getFileName() + " hold only the index and cannot be restored");
+        }
+        for (Generation generation : generations()) {
+            if (generation.number() == number) {
+                Files.writeString(restoreFile, Long.toString(number));
+                logger.at(Level.INFO).log("Scheduled restore of %s from backup generation %d", dataFile, number);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Generation a scheduled restore names, or -1. */
+    public long scheduledRestore() throws IOException {
+        if (!Files.exists(restoreFile)) {
+            return -1;
+        }
+        long number = parseNumber(Files.readString(restoreFile).trim());
+        return number >= 0 ? number : -1;
+    }
+
+    /** Applies a scheduled restore, if any. Returns true if the data file was replaced. */
+    boolean applyScheduledRestore() throws IOException {
+        long number = scheduledRestore();
+        if (number < 0) {
+            Files.deleteIfExists(restoreFile);
+            return false;
+        }
+        for (Generation generation : generations()) {
+            if (generation.number() == number) {
+                restore(generation);
+                Files.delete(restoreFile);
+                logger.at(Level.INFO).log("Restored %s from backup generation %d as scheduled", dataFile, number);
+                return true;
+            }
+        }
+        Files.delete(restoreFile);
+        logger.at(Level.WARNING).log("Scheduled backup generation %d of %s no longer exists", number, dataFile);
+        return false;
+    }
+
+    /** Links a generation over the data file, copying where links are unsupported; the generation stays. */
+    private void restore(Generation generation) throws IOException {
+        Path tempFile = dataFile.resolveSibling(dataFile.getFileName() + ".tmp");
+        Files.deleteIfExists(tempFile);
+        try {
+            Files.createLink(tempFile, generation.file());
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.copy(generation.file(), tempFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        SaveFiles.replace(tempFile, dataFile, null);
+    }
+
+    private static Generation generation(long number, Path file) throws IOException {
+        return new Generation(number, file, Files.getLastModifiedTime(file).toInstant(), Files.size(file));
+    }
+
+    private static long parseNumber(String text) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Tells whether a file holds a loadable save; an exception counts as no. */
+    @FunctionalInterface
+    interface FileCheck {
+        boolean test(Path file) throws IOException;
+    }
+
+    /** One backup: its number, file, when its contents were written and its size on disk. */
+    public record Generation(long number, Path file, Instant written, long bytes) {}
+}
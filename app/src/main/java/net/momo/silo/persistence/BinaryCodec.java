@@ -0,0 +1,13 @@
+package net.momo.silo.persistence;
+
+import java.io.IOException;
+
+/** Binary serialization contract for a type, the compact counterpart of {@link Codec}. */
+public interface BinaryCodec<T> {
+
+    /** Writes the value. Item IDs should go through {@link BinaryOutput#writeItemId} to share the file dictionary. */
+    void write(T value, BinaryOutput out) throws IOException;
+
+    /** Reads a value written by {@link #write}. */
+    T read(BinaryInput in) throws IOException;
+}
@@ -0,0 +1,94 @@
+package net.momo.silo.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Framing shared by binary save files: magic, then format version, journal segment and item-ID
+ * dictionary, then the body, closed by a CRC32 of everything before it.
+ */
+final class BinaryFile {
+
+    private static final int MAGIC = 0x53494C4F;
+    private static final int CURRENT_VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private BinaryFile() {}
+
+    /**
+     * Replaces a file atomically through a temporary sibling, streaming the framing and body into
+     * it behind a running CRC rather than assembling the file in memory first. Rotates the old file
+     * into {@code backups} if given. Returns the bytes the file takes on disk.
+     */
+    static long write(Path file, BinaryOutput body, long journalSegment, Compression compression,
+            BackupRotation backups) throws IOException {
+        BinaryOutput header = new BinaryOutput();
+        header.writeVarInt(CURRENT_VERSION);
+        header.writeVarLong(journalSegment);
+        List<String> dictionary = body.dictionary();
+        header.writeVarInt(dictionary.size());
+        for (String itemId : dictionary) {
+            header.writeString(itemId);
+        }
+
+        Files.createDirectories(file.getParent());
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(compression.wrap(Files.newOutputStream(tempFile)), BUFFER_SIZE)) {
+            CheckedOutputStream checked = new CheckedOutputStream(out, new CRC32());
+            DataOutputStream data = new DataOutputStream(checked);
+            data.writeInt(MAGIC);
+            header.writeTo(data);
+            body.writeTo(data);
+            new DataOutputStream(out).writeInt((int) checked.getChecksum().getValue());
+        }
+        long bytes = Files.size(tempFile);
+        SaveFiles.replace(tempFile, file, backups);
+        return bytes;
+    }
+
+    /** Verifies a whole file and returns its body, with item IDs resolving through its dictionary. */
+    static Contents decode(byte[] data) throws IOException {
+        if (data.length < 2 * Integer.BYTES || ByteBuffer.wrap(data).getInt() != MAGIC) {
+            throw new IOException("Not a binary save file");
+        }
+        int bodyEnd = data.length - Integer.BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, bodyEnd);
+        if ((int) crc.getValue() != ByteBuffer.wrap(data, bodyEnd, Integer.BYTES).getInt()) {
+            throw new IOException("Checksum mismatch");
+        }
+
+        List<String> dictionary = new ArrayList<>();
+        BinaryInput in = new BinaryInput(data, Integer.BYTES, bodyEnd, dictionary);
+        int version = in.readVarInt();
+        if (version > CURRENT_VERSION) {
+            throw new IOException("Save format version " + version + " is newer than supported " + CURRENT_VERSION);
+        }
+        long segment = in.readVarLong();
+        int entries = in.readVarInt();
+        for (int i = 0; i < entries; i++) {
+            dictionary.add(in.readString());
+        }
+        return new Contents(segment, in);
+    }
+
+    /**
+     * Reads a file written by {@link #write}, compressed or not. The whole file is read into memory,
+     * since its checksum is verified before any of the body is decoded.
+     */
+    static Contents read(Path file) throws IOException {
+        return decode(Compression.readAll(file));
+    }
+
+    /** A verified file: the journal segment its header names and a reader over its body. */
+    record Contents(long journalSegment, BinaryInput body) {}
+}
@@ -0,0 +1,145 @@
+package net.momo.silo.persistence;
+
+import net.momo.silo.storage.ItemIds;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+/** Reader for data written by {@link BinaryOutput}. Item IDs resolve through the file dictionary. */
+public final class BinaryInput {
+
+    private final byte[] data;
+    private final int limit;
+    private final List<String> dictionary;
+    // Handle + 1 per dictionary entry once resolved, shared with slices
+    private int[] handles;
+    private int position;
+
+    BinaryInput(byte[] data, int offset, int limit, List<String> dictionary) {
+        this(data, offset, limit, dictionary, null);
+    }
+
+    private BinaryInput(byte[] data, int offset, int limit, List<String> dictionary, int[] handles) {
+        this.data = data;
+        this.position = offset;
+        this.limit = limit;
+        this.dictionary = dictionary;
+        this.handles = handles;
+    }
+
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    public int readVarInt() throws IOException {
+        long value = readVarLong();
+        if (value >>> 32 != 0) {
+            throw new IOException("Varint out of int range");
+        }
+        return (int) value;
+    }
+
+    public long readSignedVarLong() throws IOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public int readSignedVarInt() throws IOException {
+        return (int) readSignedVarLong();
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public String readString() throws IOException {
+        int length = readVarInt();
+        require(length);
+        String value = new String(data, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    public String readItemId() throws IOException {
+        int index = readVarInt();
+        if (index >= dictionary.size()) {
+            throw new IOException("Item dictionary index " + index + " out of range");
+        }
+        return dictionary.get(index);
+    }
+
+    /** Reads an item ID as its {@link ItemIds} handle, interning each dictionary entry once per file. */
+    public int readItemHandle() throws IOException {
+        int index = readVarInt();
+        if (index >= dictionary.size()) {
+            throw new IOException("Item dictionary index " + index + " out of range");
+        }
+        int[] resolved = handles();
+        int handle = resolved[index];
+        if (handle == 0) {
+            handle = ItemIds.intern(dictionary.get(index)) + 1;
+            resolved[index] = handle;
+        }
+        return handle - 1;
+    }
+
+    public UUID readUuid() throws IOException {
+        return new UUID(readFixedLong(), readFixedLong());
+    }
+
+    public BigInteger readBigInteger() throws IOException {
+        int length = readVarInt();
+        require(length);
+        BigInteger value = new BigInteger(data, position, length);
+        position += length;
+        return value;
+    }
+
+    /** A reader over the next {@code length} bytes, which this reader skips. */
+    BinaryInput slice(int length) throws IOException {
+        require(length);
+        BinaryInput slice = new BinaryInput(data, position, position + length, dictionary, handles());
+        position += length;
+        return slice;
+    }
+
+    /** The dictionary is complete by the time the body is read, so the cache is sized then. */
+    private int[] handles() {
+        if (handles == null) {
+            handles = new int[dictionary.size()];
+        }
+        return handles;
+    }
+
+    private long readFixedLong() throws IOException {
+        require(Long.BYTES);
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = (value << 8) | (data[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    private int readByte() throws IOException {
+        require(1);
+        return data[position++] & 0xFF;
+    }
+
+    private void require(int length) throws IOException {
+        if (length < 0 || limit - position < length) {
+            throw new EOFException("Truncated binary data");
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package net.momo.silo.persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Growable binary writer for {@link BinaryCodec}s. Integers are LEB128 varints (zigzag for signed
+ * values), so small quantities and coordinates take one or two bytes. Item IDs are written as an
+ * index into a dictionary that the file stores once.
+ */
+public final class BinaryOutput {
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final Map<String, Integer> dictionary;
+    private final List<String> entries;
+
+    BinaryOutput() {
+        this(new HashMap<>(), new ArrayList<>());
+    }
+
+    private BinaryOutput(Map<String, Integer> dictionary, List<String> entries) {
+        this.dictionary = dictionary;
+        this.entries = entries;
+    }
+
+    /** A writer for a nested section that shares this writer's dictionary. */
+    BinaryOutput section() {
+        return new BinaryOutput(dictionary, entries);
+    }
+
+    /** Unsigned varint. */
+    public void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            bytes.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes.write((int) value);
+    }
+
+    public void writeVarInt(int value) {
+        writeVarLong(value & 0xFFFF_FFFFL);
+    }
+
+    /** Zigzag varint, for values that may be negative. */
+    public void writeSignedVarLong(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public void writeSignedVarInt(int value) {
+        writeSignedVarLong(value);
+    }
+
+    public void writeBoolean(boolean value) {
+        bytes.write(value ? 1 : 0);
+    }
+
+    public void writeString(String value) {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(utf8.length);
+        bytes.writeBytes(utf8);
+    }
+
+    /** Writes an item ID as its index in the file dictionary, adding it on first use. */
+    public void writeItemId(String itemId) {
+        Integer index = dictionary.get(itemId);
+        if (index == null) {
+            index = entries.size();
+            dictionary.put(itemId, index);
+            entries.add(itemId);
+        }
+        writeVarInt(index);
+    }
+
+    public void writeUuid(UUID id) {
+        writeFixedLong(id.getMostSignificantBits());
+        writeFixedLong(id.getLeastSignificantBits());
+    }
+
+    public void writeBigInteger(BigInteger value) {
+        byte[] magnitude = value.toByteArray();
+        writeVarInt(magnitude.length);
+        bytes.writeBytes(magnitude);
+    }
+
+    /** Appends a finished {@link #section()} without an intermediate copy. */
+    void append(BinaryOutput section) {
+        try {
+            section.bytes.writeTo(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    int size() {
+        return bytes.size();
+    }
+
+    List<String> dictionary() {
+        return entries;
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        bytes.writeTo(out);
+    }
+
+    private void writeFixedLong(long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            bytes.write((int) (value >>> shift));
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package net.momo.silo.persistence;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Compact binary file persistence with rotating backups and atomic writes, the counterpart of
+ * {@link JsonPersistence} for {@link BinaryCodec}s.
+ *
+ * <p>Layout: magic, format version and journal segment, the item-ID dictionary, then one section
+ * per binding ({@code key, count, count x (length, element)}), closed by a CRC32 of everything
+ * before it. Elements are length-prefixed so one that fails to decode is skipped, as in JSON. The
+ * whole file may be wrapped in a {@link Compression}.
+ */
+public final class BinaryPersistence implements SnapshotPersistence {
+
+    private static final HytaleLogger logger = HytaleLogger.forEnclosingClass();
+
+    private final Path dataFile;
+    private final BackupRotation backups;
+    private final Compression compression;
+    private final Map<String, Binding<?>> bindings = new LinkedHashMap<>();
+    private final SaveMetrics metrics = new SaveMetrics();
+
+    /** Compresses if the file name says so, e.g. {@code data.bin.gz}. */
+    public BinaryPersistence(Path dataDirectory, String filename) {
+        this(dataDirectory, filename, Compression.forFile(filename));
+    }
+
+    public BinaryPersistence(Path dataDirectory, String filename, Compression compression) {
+        this.dataFile = dataDirectory.resolve(filename);
+        this.backups = new BackupRotation(dataFile);
+        this.compression = compression;
+    }
+
+    /** Keeps up to {@code generations} backups, pruning older than {@code maxAge} (default: one, any age). */
+    public BinaryPersistence retainBackups(int generations, Duration maxAge) {
+        backups.retain(generations, maxAge);
+        return this;
+    }
+
+    /** Binds a collection for persistence. Without a modification count it is always considered dirty. */
+    public <T> BinaryPersistence bind(String key, BinaryCodec<T> codec,
+            Supplier<Iterable<T>> getter, Consumer<T> loader) {
+        return bind(key, codec, getter, loader, null);
+    }
+
+    /** Binds a collection whose {@code modCount} changes whenever its saved form would. */
+    public <T> BinaryPersistence bind(String key, BinaryCodec<T> codec,
+            Supplier<Iterable<T>> getter, Consumer<T> loader, LongSupplier modCount) {
+        bindings.put(key, new Binding<>(codec, getter, loader, modCount));
+        return this;
+    }
+
+    @Override
+    public SaveMetrics metrics() {
+        return metrics;
+    }
+
+    @Override
+    public Path dataFile() {
+        return dataFile;
+    }
+
+    @Override
+    public BackupRotation backups() {
+        return backups;
+    }
+
+    /** True if any binding changed since the last save or load. */
+    public boolean isDirty() {
+        for (Binding<?> binding : bindings.values()) {
+            if (binding.isDirty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void load() throws IOException {
+        loadSnapshot();
+    }
+
+    /** Loads the file, falling back to the newest backup generation that verifies. */
+    @Override
+    public long loadSnapshot() throws IOException {
+        backups.applyScheduledRestore();
+        if (!Files.exists(dataFile) && !backups.recover(BinaryPersistence::isReadable)) {
+            logger.at(Level.INFO).log("No data file found at %s, starting fresh", dataFile);
+            return 0;
+        }
+
+        try {
+            long segment = read(dataFile);
+            logger.at(Level.INFO).log("Loaded data from %s", dataFile);
+            return segment;
+        } catch (IOException e) {
+            logger.at(Level.SEVERE).withCause(e).log("Corrupt data in %s, attempting backup restore", dataFile);
+            if (!backups.recover(BinaryPersistence::isReadable)) {
+                throw new IOException("Failed to load data and no valid backup available", e);
+            }
+            return read(dataFile);
+        }
+    }
+
+    /** Decodes and verifies a file without applying it. */
+    private static boolean isReadable(Path file) throws IOException {
+        BinaryFile.read(file);
+        return true;
+    }
+
+    @Override
+    public synchronized void save() throws IOException {
+        long[] modCounts = modCounts();
+        write(body -> {
+            for (Map.Entry<String, Binding<?>> entry : bindings.entrySet()) {
+                body.writeString(entry.getKey());
+                entry.getValue().save(body);
+            }
+        }, modCounts, 0);
+    }
+
+    @Override
+    public synchronized boolean saveIfDirty() throws IOException {
+        if (!isDirty()) {
+            metrics.recordSkip();
+            return false;
+        }
+        save();
+        return true;
+    }
+
+    /**
+     * Copies every binding's elements now and encodes them when written. Counts are read before
+     * copying, so a change racing the capture leaves its binding dirty.
+     */
+    @Override
+    public Capture capture() {
+        long[] modCounts = modCounts();
+        List<Body> parts = new ArrayList<>(bindings.size());
+        for (Binding<?> binding : bindings.values()) {
+            parts.add(binding.capture());
+        }
+        return journalSegment -> write(body -> {
+            int index = 0;
+            for (String key : bindings.keySet()) {
+                body.writeString(key);
+                parts.get(index++).write(body);
+            }
+        }, modCounts, journalSegment);
+    }
+
+    private long[] modCounts() {
+        long[] modCounts = new long[bindings.size()];
+        int index = 0;
+        for (Binding<?> binding : bindings.values()) {
+            modCounts[index++] = binding.modCount();
+        }
+        return modCounts;
+    }
+
+    private synchronized void write(Body sections, long[] modCounts, long journalSegment) throws IOException {
+        long start = System.nanoTime();
+        BinaryOutput body = new BinaryOutput();
+        body.writeVarInt(bindings.size());
+        sections.write(body);
+
+        long bytes = BinaryFile.write(dataFile, body, journalSegment, compression, backups);
+
+        int index = 0;
+        for (Binding<?> binding : bindings.values()) {
+            binding.markSaved(modCounts[index++]);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        metrics.recordSave(elapsed, bytes);
+        logger.at(Level.INFO).log("Saved data to %s (%d bytes in %d ms)", dataFile, bytes, elapsed / 1_000_000);
+    }
+
+    /** Verifies and loads a whole file. Returns the journal segment it names. */
+    private long read(Path file) throws IOException {
+        BinaryFile.Contents contents = BinaryFile.read(file);
+        BinaryInput in = contents.body();
+        int sections = in.readVarInt();
+        for (int i = 0; i < sections; i++) {
+            String key = in.readString();
+            Binding<?> binding = bindings.get(key);
+            int count = in.readVarInt();
+            for (int j = 0; j < count; j++) {
+                BinaryInput element = in.slice(in.readVarInt());
+                if (binding != null) {
+                    binding.load(element);
+                }
+            }
+        }
+        // What was just loaded matches the file, so it isn't worth writing back
+        for (Binding<?> binding : bindings.values()) {
+            binding.markSaved(binding.modCount());
+        }
+        return contents.journalSegment();
+    }
+
+    /** Writes the sections of a file body. */
+    @FunctionalInterface
+    private interface Body {
+        void write(BinaryOutput out);
+    }
+
+    private static final class Binding<T> {
+        private final BinaryCodec<T> codec;
+        private final Supplier<Iterable<T>> getter;
+        private final Consumer<T> loader;
+        private final LongSupplier modCount;
+        private volatile long savedModCount;
+        private volatile boolean saved;
+
+        Binding(BinaryCodec<T> codec, Supplier<Iterable<T>> getter, Consumer<T> loader, LongSupplier modCount) {
+            this.codec = codec;
+            this.getter = getter;
+            this.loader = loader;
+            this.modCount = modCount;
+        }
+
+        long modCount() {
+            return modCount != null ? modCount.getAsLong() : 0;
+        }
+
+        boolean isDirty() {
+            return modCount == null || !saved || modCount.getAsLong() != savedModCount;
+        }
+
+        void markSaved(long count) {
+            savedModCount = count;
+            saved = true;
+        }
+
+        void load(BinaryInput element) {
+            try {
+                loader.accept(codec.read(element));
+            } catch (Exception e) {
+                logger.at(Level.WARNING).withCause(e).log("Failed to deserialize element");
+            }
+        }
+
+        void save(BinaryOutput out) {
+            save(out, getter.get());
+        }
+
+        /** Copies the current elements; they are encoded when the returned body is written. */
+        Body capture() {
+            List<T> values = new ArrayList<>();
+            for (T value : getter.get()) {
+                values.add(value);
+            }
+            return out -> save(out, values);
+        }
+
+        private void save(BinaryOutput out, Iterable<T> values) {
+            List<BinaryOutput> elements = new ArrayList<>();
+            for (T value : values) {
+                BinaryOutput element = out.section();
+                try {
+                    codec.write(value, element);
+                    elements.add(element);
+                } catch (Exception e) {
+                    logger.at(Level.WARNING).withCause(e).log("Failed to serialize element");
+                }
+            }
+            out.writeVarInt(elements.size());
+            for (BinaryOutput element : elements) {
+                out.writeVarInt(element.size());
+                out.append(element);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package net.momo.silo.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression of save files on disk, applied as a stream around the file. Reads recognise GZIP by
+ * its magic number rather than trusting the setting, so switching it needs no conversion: a file
+ * loads whichever way it was written and the next save rewrites it the new way.
+ */
+public enum Compression {
+    NONE(""),
+    GZIP(".gz");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int GZIP_MAGIC_0 = 0x1f;
+    private static final int GZIP_MAGIC_1 = 0x8b;
+
+    private final String extension;
+
+    Compression(String extension) {
+        this.extension = extension;
+    }
+
+    /** Compression implied by a file name, e.g. {@code network_storage.json.gz}; {@link #NONE} otherwise. */
+    public static Compression forFile(String fileName) {
+        return fileName.endsWith(GZIP.extension) ? GZIP : NONE;
+    }
+
+    /** Wraps a file's output stream; closing the result finishes the compressed stream. */
+    OutputStream wrap(OutputStream out) throws IOException {
+        return this == GZIP ? new GZIPOutputStream(out, BUFFER_SIZE) : out;
+    }
+
+    /** Opens a file for reading, decompressing it if it starts with the GZIP magic number. */
+    static InputStream open(Path file) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+        try {
+            in.mark(2);
+            boolean gzip = in.read() == GZIP_MAGIC_0 && in.read() == GZIP_MAGIC_1;
+            in.reset();
+            return gzip ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /** Reads a whole file, decompressed. */
+    static byte[] readAll(Path file) throws IOException {
+        try (InputStream in = open(file)) {
+            return in.readAllBytes();
+        }
+    }
+}
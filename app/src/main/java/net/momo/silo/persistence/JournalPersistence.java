@@ -0,0 +1,611 @@
+package net.momo.silo.persistence;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import net.momo.silo.storage.ChangeFeed;
+import net.momo.silo.storage.ItemIds;
+import net.momo.silo.storage.Storage;
+import net.momo.silo.storage.StorageRegistry;
+import net.momo.silo.storage.StorageSnapshot;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * Journaled persistence: a base document written by a {@link SnapshotPersistence}, plus append-only
+ * segments recording each changed item's quantity. A committer follows every storage's
+ * {@link ChangeFeed} and writes what changed once per group-commit window with a single fsync, so
+ * durability costs track activity rather than stored items. Compaction folds the journal into a
+ * fresh base and starts the next segment; load reads the base and replays the segments after it.
+ * The caller of a compaction only pays for capturing the base: encoding and writing it run on a
+ * dedicated save thread, one write at a time, with newer captures replacing one still queued.
+ *
+ * <p>Records carry quantities rather than deltas, so replaying one over a base that already holds
+ * it is harmless. Anchors, transfers and other structure change rarely and are not journaled; a
+ * change to {@code structureModCount} triggers a compaction instead.
+ */
+public final class JournalPersistence implements PersistenceProvider {
+
+    private static final HytaleLogger logger = HytaleLogger.forEnclosingClass();
+    private static final long GROUP_COMMIT_MS = 200;
+    private static final long COMPACT_BYTES = 64L << 20;
+    // Backoff between committer retries of a failed base write, doubling up to the maximum
+    private static final long RETRY_INITIAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long RETRY_MAX_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final int MAX_RECORD_BYTES = 1 << 28;
+
+    // Record types: SET and RESET are (storage, count, count x (handle, quantity)); DEFINE is (handle, itemId)
+    private static final byte SET = 1;
+    private static final byte RESET = 2;
+    private static final byte DEFINE = 3;
+
+    private final SnapshotPersistence base;
+    private final StorageRegistry storages;
+    private final LongSupplier structureModCount;
+    private final Path directory;
+    private final String segmentPrefix;
+    private final SaveMetrics metrics;
+
+    // Guarded by this
+    private final Map<UUID, Tracked> tracked = new HashMap<>();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    // Item handles whose DEFINE is already in the current segment
+    private final BitSet defined = new BitSet();
+    private FileChannel channel;
+    private long segment;
+    private long segmentBytes;
+    private long compactedStructure;
+    // Set after a failed base write: the committer holds off retrying until retryAt
+    private long retryDelay;
+    private long retryAt;
+    // Last segment folded into the base now on disk; kept until the next base is, so its backup still replays
+    private volatile long coveredSegment = -1;
+
+    private final AtomicReference<PendingWrite> pendingWrite = new AtomicReference<>();
+    private volatile IOException writeFailure;
+    private ScheduledExecutorService executor;
+    private ExecutorService saver;
+
+    public JournalPersistence(SnapshotPersistence base, StorageRegistry storages, LongSupplier structureModCount) {
+        this.base = base;
+        this.storages = storages;
+        this.structureModCount = structureModCount;
+        this.directory = base.dataFile().toAbsolutePath().getParent();
+        this.segmentPrefix = base.dataFile().getFileName() + ".journal.";
+        this.metrics = base.metrics();
+    }
+
+    /** Loads the base and replays its journal. A scheduled backup restore drops the journal: it postdates the backup. */
+    @Override
+    public synchronized void load() throws IOException {
+        boolean restored = base.backups().applyScheduledRestore();
+        long first = base.loadSnapshot();
+
+        long next = first;
+        for (long number : listSegments()) {
+            if (restored) {
+                // Newer than the restored backup
+                Files.deleteIfExists(segmentPath(number));
+                continue;
+            }
+            if (number < first) {
+                // Folded into the base; kept for its backup until the next base is written
+                continue;
+            }
+            int records = replay(segmentPath(number));
+            logger.at(Level.INFO).log("Replayed %d journal records from segment %d", records, number);
+            next = number + 1;
+        }
+
+        // Never append after a tail that may be torn; start a fresh segment
+        coveredSegment = first - 1;
+        openSegment(next);
+        storages.forEach((id, storage) -> tracked.put(id, new Tracked(id, storage)));
+        compactedStructure = structureModCount.getAsLong();
+        startCommitter();
+    }
+
+    /** Folds the journal into a new base now and waits until it is written. */
+    @Override
+    public void save() throws IOException {
+        compact();
+        awaitWrites();
+    }
+
+    /**
+     * Compacts if anything was journaled or restructured since the last compaction. Returns once
+     * the base is captured; it is encoded and written on the save thread.
+     */
+    @Override
+    public boolean saveIfDirty() throws IOException {
+        commit();
+        synchronized (this) {
+            if (segmentBytes == 0 && structureModCount.getAsLong() == compactedStructure) {
+                metrics.recordSkip();
+                return false;
+            }
+        }
+        compact();
+        return true;
+    }
+
+    /**
+     * Stops the committer and commits what is pending. Compacts only if structure changed, since
+     * that is not in the journal; otherwise folding is left to a later compaction. Waits for the
+     * base write in flight.
+     */
+    @Override
+    public void close() throws IOException {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        boolean restructured;
+        synchronized (this) {
+            restructured = channel != null && structureModCount.getAsLong() != compactedStructure;
+        }
+        if (restructured) {
+            compact();
+        }
+        synchronized (this) {
+            commit();
+            for (Tracked entry : tracked.values()) {
+                entry.subscription.close();
+            }
+            tracked.clear();
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+        if (saver != null) {
+            saver.shutdown();
+            try {
+                saver.awaitTermination(60, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public SaveMetrics metrics() {
+        return metrics;
+    }
+
+    @Override
+    public BackupRotation backups() {
+        return base.backups();
+    }
+
+    /** Bytes appended to the current segment since the last compaction. */
+    public synchronized long journalBytes() {
+        return segmentBytes;
+    }
+
+    /**
+     * Writes every change polled since the last commit and forces it to disk. Returns true if
+     * anything was written.
+     */
+    synchronized boolean commit() throws IOException {
+        if (channel == null) {
+            return false;
+        }
+        syncTracked();
+        for (Tracked entry : tracked.values()) {
+            entry.subscription.poll(entry);
+            if (entry.reset) {
+                writeReset(entry);
+            } else if (entry.size > 0) {
+                writeSets(entry);
+            }
+            entry.clearTouched();
+        }
+        if (pending.size() == 0) {
+            return false;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        segmentBytes += pending.size();
+        pending.reset();
+        return true;
+    }
+
+    /**
+     * Snapshot phase: commits, captures the base and switches to a new segment while holding the
+     * journal, then queues the capture for the save thread. Changes after the switch land in the
+     * new segment, which the new base names as its replay start. Encoding may see storage contents
+     * newer than the switch; replaying quantities over them is harmless.
+     */
+    private void compact() throws IOException {
+        long start = System.nanoTime();
+        synchronized (this) {
+            commit();
+            long structure = structureModCount.getAsLong();
+            PendingWrite write;
+            if (retryDelay > 0 && segmentBytes == 0) {
+                // Retrying a failed write with nothing journaled since; the open segment still follows its base
+                write = new PendingWrite(base.capture(), segment - 1);
+            } else {
+                write = new PendingWrite(base.capture(), segment);
+                openSegment(segment + 1);
+            }
+            compactedStructure = structure;
+            // At most one write runs; a capture still waiting behind it is replaced by this newer one
+            if (pendingWrite.getAndSet(write) == null) {
+                saver.execute(this::writePending);
+            }
+        }
+        metrics.recordSnapshot(System.nanoTime() - start);
+    }
+
+    /**
+     * Write phase, on the save thread: writes the newest capture, then drops the segments the
+     * previous base covered. Those are only safe to go once this base is on disk, and the
+     * previous base lives on as a backup that still needs the segments after it.
+     */
+    private void writePending() {
+        PendingWrite write = pendingWrite.getAndSet(null);
+        if (write == null) {
+            return;
+        }
+        try {
+            write.capture().write(write.lastSegment() + 1);
+            long previous = coveredSegment;
+            for (long number : listSegments()) {
+                if (number <= previous) {
+                    Files.deleteIfExists(segmentPath(number));
+                }
+            }
+            coveredSegment = write.lastSegment();
+            writeFailure = null;
+            synchronized (this) {
+                retryDelay = 0;
+            }
+        } catch (Exception e) {
+            writeFailure = e instanceof IOException io ? io : new IOException(e);
+            long delay;
+            synchronized (this) {
+                // Structure is only in the base, so retry from the committer, backing off while it keeps failing
+                compactedStructure = -1;
+                delay = retryDelay == 0 ? RETRY_INITIAL_NANOS : Math.min(retryDelay * 2, RETRY_MAX_NANOS);
+                retryDelay = delay;
+                retryAt = System.nanoTime() + delay;
+            }
+            logger.at(Level.SEVERE).withCause(e).log("Failed to write base snapshot, keeping its journal segments; retrying in %d s",
+                TimeUnit.NANOSECONDS.toSeconds(delay));
+        }
+    }
+
+    /** Waits for every queued base write; throws if the last one failed. */
+    private void awaitWrites() throws IOException {
+        try {
+            saver.submit(() -> {}).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        IOException failure = writeFailure;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void startCommitter() {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "silo-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        saver = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "silo-save");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::commitTick, GROUP_COMMIT_MS, GROUP_COMMIT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void commitTick() {
+        try {
+            commit();
+            boolean due;
+            synchronized (this) {
+                due = (segmentBytes >= COMPACT_BYTES || structureModCount.getAsLong() != compactedStructure)
+                    && (retryDelay == 0 || System.nanoTime() - retryAt >= 0);
+            }
+            if (due) {
+                compact();
+            }
+        } catch (Exception e) {
+            logger.at(Level.SEVERE).withCause(e).log("Journal commit failed");
+        }
+    }
+
+    /** Follows storages added to the registry since the last commit and drops removed ones. */
+    private void syncTracked() {
+        Iterator<Tracked> iterator = tracked.values().iterator();
+        while (iterator.hasNext()) {
+            Tracked entry = iterator.next();
+            if (storages.getIfLoaded(entry.id).orElse(null) != entry.storage) {
+                entry.subscription.close();
+                iterator.remove();
+            }
+        }
+        storages.forEach((id, storage) -> {
+            if (!tracked.containsKey(id)) {
+                // Changes before the subscription were not seen, so start from a full copy
+                Tracked entry = new Tracked(id, storage);
+                entry.reset = true;
+                tracked.put(id, entry);
+            }
+        });
+    }
+
+    private void writeSets(Tracked entry) throws IOException {
+        for (int i = 0; i < entry.size; i++) {
+            define(entry.touched[i]);
+        }
+        recordOut.writeByte(SET);
+        writeId(entry.id);
+        recordOut.writeInt(entry.size);
+        for (int i = 0; i < entry.size; i++) {
+            int handle = entry.touched[i];
+            recordOut.writeInt(handle);
+            // Read after polling, so any later change shows up in the next commit
+            recordOut.writeLong(entry.storage.getQuantity(handle));
+        }
+        frame();
+    }
+
+    private void writeReset(Tracked entry) throws IOException {
+        StorageSnapshot snapshot = entry.storage.snapshot();
+        for (int i = 0; i < snapshot.size(); i++) {
+            define(snapshot.handle(i));
+        }
+        recordOut.writeByte(RESET);
+        writeId(entry.id);
+        recordOut.writeInt(snapshot.size());
+        for (int i = 0; i < snapshot.size(); i++) {
+            recordOut.writeInt(snapshot.handle(i));
+            recordOut.writeLong(snapshot.quantity(i));
+        }
+        frame();
+    }
+
+    private void define(int handle) throws IOException {
+        if (defined.get(handle)) {
+            return;
+        }
+        defined.set(handle);
+        recordOut.writeByte(DEFINE);
+        recordOut.writeInt(handle);
+        recordOut.writeUTF(ItemIds.name(handle));
+        frame();
+    }
+
+    private void writeId(UUID id) throws IOException {
+        recordOut.writeLong(id.getMostSignificantBits());
+        recordOut.writeLong(id.getLeastSignificantBits());
+    }
+
+    /** Moves the record being built into the pending batch as {@code length, crc32, payload}. */
+    private void frame() throws IOException {
+        recordOut.flush();
+        crc.reset();
+        crc.update(record.toByteArray());
+        DataOutputStream out = new DataOutputStream(pending);
+        out.writeInt(record.size());
+        out.writeInt((int) crc.getValue());
+        record.writeTo(pending);
+        record.reset();
+    }
+
+    private void openSegment(long number) throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        Files.createDirectories(directory);
+        channel = FileChannel.open(segmentPath(number),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        // Records forced into the segment are only durable once its directory entry is
+        SaveFiles.forceDirectory(directory);
+        segment = number;
+        segmentBytes = 0;
+        defined.clear();
+    }
+
+    /** Applies one segment. A torn or corrupt tail ends the replay of that segment. */
+    private int replay(Path file) throws IOException {
+        Map<Integer, Integer> handles = new HashMap<>();
+        int records = 0;
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(file));
+             DataInputStream in = new DataInputStream(stream)) {
+            CRC32 check = new CRC32();
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    int expected = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_BYTES) {
+                        logger.at(Level.WARNING).log("Journal %s ends in a corrupt record", file.getFileName());
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    check.reset();
+                    check.update(payload);
+                    if ((int) check.getValue() != expected) {
+                        logger.at(Level.WARNING).log("Journal %s ends in a corrupt record", file.getFileName());
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                if (!apply(new DataInputStream(new ByteArrayInputStream(payload)), handles)) {
+                    logger.at(Level.WARNING).log("Journal %s has a record naming an undefined item, stopping its replay",
+                        file.getFileName());
+                    break;
+                }
+                records++;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Applies one verified record. Reads every entry before applying any, and returns false without
+     * applying if the record is malformed or names a handle no DEFINE record introduced.
+     */
+    private boolean apply(DataInputStream in, Map<Integer, Integer> handles) throws IOException {
+        byte type = in.readByte();
+        if (type == DEFINE) {
+            int handle = in.readInt();
+            handles.put(handle, ItemIds.intern(in.readUTF()));
+            return true;
+        }
+
+        UUID id = new UUID(in.readLong(), in.readLong());
+        int count = in.readInt();
+        if (count < 0 || count > in.available() / (Integer.BYTES + Long.BYTES)) {
+            return false;
+        }
+        int[] itemHandles = new int[count];
+        long[] quantities = new long[count];
+        for (int i = 0; i < count; i++) {
+            Integer handle = handles.get(in.readInt());
+            if (handle == null) {
+                return false;
+            }
+            itemHandles[i] = handle;
+            quantities[i] = in.readLong();
+        }
+        Storage storage = storages.get(id).orElse(null);
+        if (storage == null) {
+            return true;
+        }
+        if (type == RESET) {
+            storage.clear();
+            storage.restore(itemHandles, quantities, count);
+            return true;
+        }
+        for (int i = 0; i < count; i++) {
+            int handle = itemHandles[i];
+            long target = quantities[i];
+            long current = storage.getQuantity(handle);
+            if (target > current) {
+                storage.tryDeposit(handle, target - current);
+            } else if (target < current) {
+                storage.tryWithdraw(handle, current - target);
+            }
+        }
+        return true;
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return numbers;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, segmentPrefix + "*")) {
+            for (Path file : files) {
+                String suffix = file.getFileName().toString().substring(segmentPrefix.length());
+                try {
+                    numbers.add(Long.parseLong(suffix));
+                } catch (NumberFormatException e) {
+                    logger.at(Level.WARNING).log("Ignoring unexpected journal file %s", file.getFileName());
+                }
+            }
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(segmentPrefix + number);
+    }
+
+    /** A captured base waiting for the save thread, and the last segment it folds in. */
+    private record PendingWrite(SnapshotPersistence.Capture capture, long lastSegment) {}
+
+    /** A followed storage and the items it touched since the last commit. */
+    private static final class Tracked implements ChangeFeed.ChangeListener {
+        final UUID id;
+        final Storage storage;
+        final ChangeFeed.Subscription subscription;
+        private final BitSet seen = new BitSet();
+        int[] touched = new int[16];
+        int size;
+        boolean reset;
+
+        Tracked(UUID id, Storage storage) {
+            this.id = id;
+            this.storage = storage;
+            this.subscription = storage.changes().subscribe();
+        }
+
+        @Override
+        public void onChange(int handle, long delta, long newQuantity) {
+            if (seen.get(handle)) {
+                return;
+            }
+            seen.set(handle);
+            if (size == touched.length) {
+                touched = Arrays.copyOf(touched, size * 2);
+            }
+            touched[size++] = handle;
+        }
+
+        @Override
+        public void onResync() {
+            reset = true;
+        }
+
+        void clearTouched() {
+            for (int i = 0; i < size; i++) {
+                seen.clear(touched[i]);
+            }
+            size = 0;
+            reset = false;
+        }
+    }
+}
@@ -2,31 +2,44 @@ package net.momo.silo.persistence;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
 import com.hypixel.hytale.logger.HytaleLogger;
 
+import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
+import java.util.function.LongSupplier;
 import java.util.function.Supplier;
 import java.util.logging.Level;
+import java.util.zip.ZipException;
 
-/** JSON file persistence with backup and atomic writes. */
-public final class JsonPersistence implements PersistenceProvider {
+/**
+ * JSON file persistence with rotating backups and atomic writes. Bindings may supply a modification count;
+ * {@link #saveIfDirty()} skips the write when none moved since the last save or load. Files are
+ * streamed element by element, so only one element's tree is held at a time, and through the
+ * file's {@link Compression} when it has one.
+ */
+public final class JsonPersistence implements SnapshotPersistence {
 
     private static final HytaleLogger logger = HytaleLogger.forEnclosingClass();
     private static final int CURRENT_VERSION = 1;
+    private static final String SEGMENT_PROPERTY = "journalSegment";
 
     private static final Gson GSON = new GsonBuilder()
         .setPrettyPrinting()
@@ -34,110 +47,250 @@ public final class JsonPersistence implements PersistenceProvider {
         .create();
 
     private final Path dataFile;
-    private final Path backupFile;
+    private final BackupRotation backups;
+    private final Compression compression;
     private final Map<String, CollectionBinding<?>> bindings = new LinkedHashMap<>();
+    private final SaveMetrics metrics = new SaveMetrics();
 
+    /** Compresses if the file name says so, e.g. {@code data.json.gz}. */
     public JsonPersistence(Path dataDirectory, String filename) {
+        this(dataDirectory, filename, Compression.forFile(filename));
+    }
+
+    public JsonPersistence(Path dataDirectory, String filename, Compression compression) {
         this.dataFile = dataDirectory.resolve(filename);
-        this.backupFile = dataDirectory.resolve(filename + ".backup");
+        this.backups = new BackupRotation(dataFile);
+        this.compression = compression;
+    }
+
+    /** Keeps up to {@code generations} backups, pruning older than {@code maxAge} (default: one, any age). */
+    public JsonPersistence retainBackups(int generations, Duration maxAge) {
+        backups.retain(generations, maxAge);
+        return this;
     }
 
-    /** Binds a collection for persistence. */
+    /** Binds a collection for persistence. Without a modification count it is always considered dirty. */
     public <T> JsonPersistence bind(String key, Codec<T> codec, 
             Supplier<Iterable<T>> getter, Consumer<T> loader) {
-        bindings.put(key, new CollectionBinding<>(codec, getter, loader));
+        return bind(key, codec, getter, loader, null);
+    }
+
+    /** Binds a collection whose {@code modCount} changes whenever its saved form would. */
+    public <T> JsonPersistence bind(String key, Codec<T> codec,
+            Supplier<Iterable<T>> getter, Consumer<T> loader, LongSupplier modCount) {
+        bindings.put(key, new CollectionBinding<>(codec, getter, loader, modCount));
         return this;
     }
 
+    @Override
+    public SaveMetrics metrics() {
+        return metrics;
+    }
+
+    /** True if any binding changed since the last save or load. */
+    public boolean isDirty() {
+        for (CollectionBinding<?> binding : bindings.values()) {
+            if (binding.isDirty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized boolean saveIfDirty() throws IOException {
+        if (!isDirty()) {
+            metrics.recordSkip();
+            return false;
+        }
+        save();
+        return true;
+    }
+
     @Override
     public void load() throws IOException {
-        if (!Files.exists(dataFile)) {
+        loadSnapshot();
+    }
+
+    /**
+     * Streams the file into the bindings one element at a time. Syntax is checked in a first
+     * streaming pass, so a torn file falls back to the newest sound backup before anything is applied.
+     */
+    @Override
+    public long loadSnapshot() throws IOException {
+        backups.applyScheduledRestore();
+        if (!Files.exists(dataFile) && !backups.recover(JsonPersistence::isWellFormed)) {
             logger.at(Level.INFO).log("No data file found at %s, starting fresh", dataFile);
-            return;
+            return 0;
         }
 
-        try {
-            String json = Files.readString(dataFile, StandardCharsets.UTF_8);
-            JsonObject root = JsonParser.parseString(json).getAsJsonObject();
-
-            for (Map.Entry<String, CollectionBinding<?>> entry : bindings.entrySet()) {
-                String key = entry.getKey();
-                CollectionBinding<?> binding = entry.getValue();
+        if (!isWellFormed(dataFile)) {
+            logger.at(Level.SEVERE).log("Invalid JSON in %s, attempting backup restore", dataFile);
+            if (!backups.recover(JsonPersistence::isWellFormed)) {
+                throw new IOException("Failed to load data and no valid backup available");
+            }
+        }
 
-                if (root.has(key)) {
-                    JsonArray array = root.getAsJsonArray(key);
-                    binding.load(array);
+        long segment = 0;
+        try (JsonReader reader = reader(dataFile)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                CollectionBinding<?> binding = bindings.get(key);
+                if (binding != null && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    binding.load(reader);
+                } else if (key.equals(SEGMENT_PROPERTY)) {
+                    segment = reader.nextLong();
+                } else {
+                    reader.skipValue();
                 }
             }
+            reader.endObject();
+        }
 
-            logger.at(Level.INFO).log("Loaded data from %s", dataFile);
+        // What was just loaded matches the file, so it isn't worth writing back
+        for (CollectionBinding<?> binding : bindings.values()) {
+            binding.markSaved(binding.modCount());
+        }
+        logger.at(Level.INFO).log("Loaded data from %s", dataFile);
+        return segment;
+    }
 
-        } catch (JsonSyntaxException e) {
-            logger.at(Level.SEVERE).log("Invalid JSON in %s, attempting backup restore", dataFile);
-            if (restoreFromBackup()) {
-                load();
-            } else {
-                throw new IOException("Failed to load data and no backup available", e);
+    /** Streams each binding straight from its getter to the file, one element tree at a time. */
+    @Override
+    public synchronized void save() throws IOException {
+        long[] modCounts = modCounts();
+        write(writer -> {
+            for (Map.Entry<String, CollectionBinding<?>> entry : bindings.entrySet()) {
+                writer.name(entry.getKey());
+                entry.getValue().save(writer);
             }
-        }
+        }, modCounts);
     }
 
+    /**
+     * Copies every binding's elements now and encodes them when written. Counts are read before
+     * copying, so a change racing the capture leaves its binding dirty.
+     */
     @Override
-    public void save() throws IOException {
-        JsonObject root = new JsonObject();
-        root.addProperty("version", CURRENT_VERSION);
+    public Capture capture() {
+        long[] modCounts = modCounts();
+        List<Body> parts = new ArrayList<>(bindings.size());
+        for (CollectionBinding<?> binding : bindings.values()) {
+            parts.add(binding.capture());
+        }
+        return journalSegment -> write(writer -> {
+            int index = 0;
+            for (String key : bindings.keySet()) {
+                writer.name(key);
+                parts.get(index++).write(writer);
+            }
+            writer.name(SEGMENT_PROPERTY).value(journalSegment);
+        }, modCounts);
+    }
 
-        for (Map.Entry<String, CollectionBinding<?>> entry : bindings.entrySet()) {
-            String key = entry.getKey();
-            CollectionBinding<?> binding = entry.getValue();
-            root.add(key, binding.save());
+    private long[] modCounts() {
+        long[] modCounts = new long[bindings.size()];
+        int index = 0;
+        for (CollectionBinding<?> binding : bindings.values()) {
+            modCounts[index++] = binding.modCount();
         }
+        return modCounts;
+    }
 
+    /** Writes a document atomically, turning the previous file into a backup, and marks its bindings saved. */
+    private synchronized void write(Body body, long[] modCounts) throws IOException {
+        long start = System.nanoTime();
         Files.createDirectories(dataFile.getParent());
 
-        if (Files.exists(dataFile)) {
-            Files.copy(dataFile, backupFile, StandardCopyOption.REPLACE_EXISTING);
+        Path tempFile = dataFile.resolveSibling(dataFile.getFileName() + ".tmp");
+        try (JsonWriter writer = GSON.newJsonWriter(new BufferedWriter(new OutputStreamWriter(
+                compression.wrap(Files.newOutputStream(tempFile)), StandardCharsets.UTF_8)))) {
+            writer.beginObject();
+            writer.name("version").value(CURRENT_VERSION);
+            body.write(writer);
+            writer.endObject();
         }
+        long bytes = Files.size(tempFile);
 
-        Path tempFile = dataFile.resolveSibling(dataFile.getFileName() + ".tmp");
-        String json = GSON.toJson(root);
-        Files.writeString(tempFile, json, StandardCharsets.UTF_8);
+        SaveFiles.replace(tempFile, dataFile, backups);
 
-        Files.move(tempFile, dataFile,
-            StandardCopyOption.REPLACE_EXISTING,
-            StandardCopyOption.ATOMIC_MOVE);
+        int index = 0;
+        for (CollectionBinding<?> binding : bindings.values()) {
+            binding.markSaved(modCounts[index++]);
+        }
 
-        logger.at(Level.INFO).log("Saved data to %s", dataFile);
+        long elapsed = System.nanoTime() - start;
+        metrics.recordSave(elapsed, bytes);
+        logger.at(Level.INFO).log("Saved data to %s (%d bytes in %d ms)", dataFile, bytes, elapsed / 1_000_000);
     }
 
-    private boolean restoreFromBackup() {
-        if (!Files.exists(backupFile)) {
-            return false;
-        }
+    @Override
+    public Path dataFile() {
+        return dataFile;
+    }
+
+    @Override
+    public BackupRotation backups() {
+        return backups;
+    }
 
-        try {
-            Files.copy(backupFile, dataFile, StandardCopyOption.REPLACE_EXISTING);
-            logger.at(Level.INFO).log("Restored from backup %s", backupFile);
-            return true;
-        } catch (IOException e) {
-            logger.at(Level.SEVERE).withCause(e).log("Failed to restore from backup");
+    /** Skims the whole file without building anything; false if it is torn or not JSON. */
+    private static boolean isWellFormed(Path file) throws IOException {
+        try (JsonReader reader = reader(file)) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return false;
+            }
+            reader.skipValue();
+            return reader.peek() == JsonToken.END_DOCUMENT;
+        } catch (MalformedJsonException | EOFException | ZipException | IllegalStateException e) {
             return false;
         }
     }
 
+    /** Reads a file as written, compressed or not. */
+    private static JsonReader reader(Path file) throws IOException {
+        return new JsonReader(new InputStreamReader(Compression.open(file), StandardCharsets.UTF_8));
+    }
+
+    /** Writes the bindings between the document's version and its closing brace. */
+    @FunctionalInterface
+    private interface Body {
+        void write(JsonWriter writer) throws IOException;
+    }
+
     private static final class CollectionBinding<T> {
         private final Codec<T> codec;
         private final Supplier<Iterable<T>> getter;
         private final Consumer<T> loader;
+        private final LongSupplier modCount;
+        private volatile long savedModCount;
+        private volatile boolean saved;
 
-        CollectionBinding(Codec<T> codec, Supplier<Iterable<T>> getter, Consumer<T> loader) {
+        CollectionBinding(Codec<T> codec, Supplier<Iterable<T>> getter, Consumer<T> loader, LongSupplier modCount) {
             this.codec = codec;
             this.getter = getter;
             this.loader = loader;
+            this.modCount = modCount;
+        }
+
+        long modCount() {
+            return modCount != null ? modCount.getAsLong() : 0;
+        }
+
+        boolean isDirty() {
+            return modCount == null || !saved || modCount.getAsLong() != savedModCount;
+        }
+
+        void markSaved(long count) {
+            savedModCount = count;
+            saved = true;
         }
 
-        void load(JsonArray array) {
-            for (JsonElement element : array) {
+        void load(JsonReader reader) throws IOException {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                JsonElement element = JsonParser.parseReader(reader);
                 try {
                     T value = codec.deserialize(element);
                     loader.accept(value);
@@ -145,18 +298,35 @@ public final class JsonPersistence implements PersistenceProvider {
                     logger.at(Level.WARNING).withCause(e).log("Failed to deserialize element");
                 }
             }
+            reader.endArray();
+        }
+
+        void save(JsonWriter writer) throws IOException {
+            save(writer, getter.get());
         }
 
-        JsonArray save() {
-            JsonArray array = new JsonArray();
+        /** Copies the current elements; they are encoded when the returned body is written. */
+        Body capture() {
+            List<T> values = new ArrayList<>();
             for (T value : getter.get()) {
+                values.add(value);
+            }
+            return writer -> save(writer, values);
+        }
+
+        private void save(JsonWriter writer, Iterable<T> values) throws IOException {
+            writer.beginArray();
+            for (T value : values) {
+                JsonElement element;
                 try {
-                    array.add(codec.serialize(value));
+                    element = codec.serialize(value);
                 } catch (Exception e) {
                     logger.at(Level.WARNING).withCause(e).log("Failed to serialize element");
+                    continue;
                 }
+                GSON.toJson(element, writer);
             }
-            return array;
+            writer.endArray();
         }
     }
 }
@@ -10,4 +10,21 @@ public interface PersistenceProvider {
 
     /** Saves all data from registries to storage. */
     void save() throws IOException;
+
+    /** Saves only if something changed since the last save or load. Returns true if it wrote. */
+    default boolean saveIfDirty() throws IOException {
+        save();
+        return true;
+    }
+
+    /** Makes everything durable and releases background resources. Called once at shutdown. */
+    default void close() throws IOException {
+        saveIfDirty();
+    }
+
+    /** Cost counters of full saves. */
+    SaveMetrics metrics();
+
+    /** Backup generations of the main save file. */
+    BackupRotation backups();
 }
@@ -0,0 +1,46 @@
+package net.momo.silo.persistence;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Durable replacement of save files. A finished temporary file is forced to disk before it is
+ * moved over the target and the directory is forced after, so a crash leaves either the old file
+ * or the complete new one, never a renamed file whose contents are still only in the page cache.
+ */
+final class SaveFiles {
+
+    private SaveFiles() {}
+
+    /** Moves a finished temporary file over {@code target}, rotating the old one into {@code backups} if given. */
+    static void replace(Path tempFile, Path target, BackupRotation backups) throws IOException {
+        force(tempFile);
+        if (backups != null) {
+            backups.rotate();
+        }
+        Files.move(tempFile, target,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(target.toAbsolutePath().getParent());
+    }
+
+    /** Flushes a file's contents and metadata to disk. */
+    static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /** Flushes a directory's entries, making renames and new files in it durable. */
+    static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Some platforms cannot open a directory; renames there are as durable as the file system makes them
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package net.momo.silo.persistence;
+
+import java.nio.file.Path;
+
+/** On-disk format of the base save. Chosen by {@link net.momo.silo.core.ModConfig#SAVE_FORMAT}. */
+public enum SaveFormat {
+    JSON(".json"),
+    BINARY(".bin"),
+    /** A directory holding an index plus one file per network; see {@link ShardedPersistence}. */
+    SHARDED("");
+
+    private final String extension;
+
+    SaveFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /** Save file (or directory) name for a base name, e.g. {@code network_storage.bin}. */
+    public String fileName(String baseName) {
+        return baseName + extension;
+    }
+
+    /** File whose presence means a save in this format exists under {@code directory}. */
+    public Path dataFile(Path directory, String baseName) {
+        Path path = directory.resolve(fileName(baseName));
+        return this == SHARDED ? ShardedPersistence.indexFile(path) : path;
+    }
+}
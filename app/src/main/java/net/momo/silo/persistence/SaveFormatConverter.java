@@ -0,0 +1,36 @@
+package net.momo.silo.persistence;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Level;
+
+/** Carries saved data over when the configured save format changes. */
+public final class SaveFormatConverter {
+
+    private static final HytaleLogger logger = HytaleLogger.forEnclosingClass();
+
+    private SaveFormatConverter() {}
+
+    /**
+     * Loads {@code from} and saves it through {@code to} when only {@code from}'s file exists.
+     * Leaves both loaded, so the caller skips its own load when this returns true. The old file
+     * is kept; once the new one exists it is never imported again.
+     */
+    public static boolean importIfMissing(PersistenceProvider from, Path fromFile,
+            PersistenceProvider to, Path toFile) throws IOException {
+        if (Files.exists(toFile) || !Files.exists(fromFile)) {
+            return false;
+        }
+        long start = System.nanoTime();
+        from.load();
+        from.close();
+        to.load();
+        to.save();
+        logger.at(Level.INFO).log("Converted %s to %s (%d -> %d bytes in %d ms)", fromFile.getFileName(), toFile.getFileName(),
+            Files.size(fromFile), Files.size(toFile), (System.nanoTime() - start) / 1_000_000);
+        return true;
+    }
+}
@@ -0,0 +1,76 @@
+package net.momo.silo.persistence;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Save cost counters for tuning the autosave interval against I/O. Thread-safe. */
+public final class SaveMetrics {
+
+    private final LongAdder saves = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder totalBytes = new LongAdder();
+    private final AtomicLong lastNanos = new AtomicLong();
+    private final AtomicLong lastBytes = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLong lastSnapshotNanos = new AtomicLong();
+    private final AtomicLong maxSnapshotNanos = new AtomicLong();
+
+    void recordSave(long nanos, long bytes) {
+        saves.increment();
+        totalNanos.add(nanos);
+        totalBytes.add(bytes);
+        lastNanos.set(nanos);
+        lastBytes.set(bytes);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    void recordSnapshot(long nanos) {
+        lastSnapshotNanos.set(nanos);
+        maxSnapshotNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    void recordSkip() {
+        skipped.increment();
+    }
+
+    /** Saves that wrote a file. */
+    public long saveCount() {
+        return saves.sum();
+    }
+
+    /** Saves skipped because nothing changed since the last one. */
+    public long skippedCount() {
+        return skipped.sum();
+    }
+
+    public long lastDurationMs() {
+        return lastNanos.get() / 1_000_000;
+    }
+
+    public long maxDurationMs() {
+        return maxNanos.get() / 1_000_000;
+    }
+
+    public double avgDurationMs() {
+        long count = saves.sum();
+        return count == 0 ? 0.0 : (double) totalNanos.sum() / count / 1_000_000;
+    }
+
+    public long lastBytesWritten() {
+        return lastBytes.get();
+    }
+
+    public long totalBytesWritten() {
+        return totalBytes.sum();
+    }
+
+    /** Time the saving thread spent capturing state before the write moved to the background. */
+    public double lastSnapshotMs() {
+        return lastSnapshotNanos.get() / 1_000_000.0;
+    }
+
+    public double maxSnapshotMs() {
+        return maxSnapshotNanos.get() / 1_000_000.0;
+    }
+}
@@ -0,0 +1,172 @@
+package net.momo.silo.persistence;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import net.momo.silo.storage.StorageRegistry;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Sharded binary persistence: each storage of a bound registry gets its own file, next to a small
+ * {@link BinaryPersistence} index listing the storages and holding every other binding. A save
+ * rewrites only shards whose storage moved, each with an atomic move, so its cost follows what
+ * changed. Load registers storages dormant from the index and reads their shards on first use, or
+ * up front in parallel unless lazy; lazily loaded registries also page idle storages back out.
+ *
+ * <p>Layout: {@code <directory>/index.bin} and {@code <directory>/<key>/<id>.bin}.
+ */
+public final class ShardedPersistence implements SnapshotPersistence {
+
+    private static final HytaleLogger logger = HytaleLogger.forEnclosingClass();
+    private static final String INDEX_FILE = "index.bin";
+
+    private final Path directory;
+    private final BinaryPersistence index;
+    private final Compression compression;
+    private StorageShards shards;
+    private final Object captureLock = new Object();
+    private final SaveMetrics metrics = new SaveMetrics();
+
+    public ShardedPersistence(Path directory) {
+        this(directory, Compression.NONE);
+    }
+
+    /** Applies {@code compression} to the index and every shard; file names stay the same. */
+    public ShardedPersistence(Path directory, Compression compression) {
+        this.directory = directory;
+        this.index = new BinaryPersistence(directory, INDEX_FILE, compression);
+        this.compression = compression;
+        index.backups().markIndexOnly();
+    }
+
+    /** Index file of a sharded save in {@code directory}. */
+    public static Path indexFile(Path directory) {
+        return directory.resolve(INDEX_FILE);
+    }
+
+    /**
+     * Keeps up to {@code generations} backups of the index, pruning older than {@code maxAge}. Shards
+     * keep a single backup each, so index generations only recover a corrupt index and are never
+     * restored on request: an older index would bring back its structure over current contents.
+     */
+    public ShardedPersistence retainBackups(int generations, Duration maxAge) {
+        index.retainBackups(generations, maxAge);
+        return this;
+    }
+
+    /** Binds a small collection kept whole in the index. */
+    public <T> ShardedPersistence bind(String key, BinaryCodec<T> codec,
+            Supplier<Iterable<T>> getter, Consumer<T> loader, LongSupplier modCount) {
+        index.bind(key, codec, getter, loader, modCount);
+        return this;
+    }
+
+    /**
+     * Binds every storage of a registry, one shard each. Lazy loading leaves each storage dormant
+     * until it is first looked up, and makes this the registry's pager for evicting idle ones.
+     */
+    public ShardedPersistence bindStorages(String key, StorageRegistry registry, boolean lazy) {
+        if (shards != null) {
+            throw new IllegalStateException("Storages are already bound");
+        }
+        shards = new StorageShards(directory.resolve(key), registry, lazy, compression);
+        index.bind(key, StorageShards.LISTING_CODEC, shards::capturedListings, shards::listed, registry::modCount);
+        if (lazy) {
+            registry.setPager(shards);
+        }
+        return this;
+    }
+
+    @Override
+    public SaveMetrics metrics() {
+        return metrics;
+    }
+
+    @Override
+    public Path dataFile() {
+        return index.dataFile();
+    }
+
+    @Override
+    public BackupRotation backups() {
+        return index.backups();
+    }
+
+    /** True if the index or any storage changed since the last save or load. */
+    public boolean isDirty() {
+        return index.isDirty();
+    }
+
+    @Override
+    public void load() throws IOException {
+        loadSnapshot();
+    }
+
+    @Override
+    public long loadSnapshot() throws IOException {
+        long segment = index.loadSnapshot();
+        if (shards != null) {
+            long start = System.nanoTime();
+            int count = shards.loadListed();
+            if (count > 0) {
+                logger.at(Level.INFO).log("Registered %d storage shards from %s in %d ms",
+                    count, directory, (System.nanoTime() - start) / 1_000_000);
+            }
+        }
+        return segment;
+    }
+
+    @Override
+    public void save() throws IOException {
+        capture().write(0);
+    }
+
+    @Override
+    public synchronized boolean saveIfDirty() throws IOException {
+        if (!isDirty()) {
+            metrics.recordSkip();
+            return false;
+        }
+        save();
+        return true;
+    }
+
+    /** Lists the storages and copies the index bindings; the index lists exactly the storages listed. */
+    @Override
+    public Capture capture() {
+        StorageShards.Pending pending;
+        Capture indexCapture;
+        synchronized (captureLock) {
+            pending = shards != null ? shards.capture() : null;
+            indexCapture = index.capture();
+        }
+        return journalSegment -> write(pending, indexCapture, journalSegment);
+    }
+
+    /** Shards go first so the index never lists one that is not on disk; files it dropped go last. */
+    private synchronized void write(StorageShards.Pending pending, Capture indexCapture,
+            long journalSegment) throws IOException {
+        long start = System.nanoTime();
+        long bytes = 0;
+        int written = 0;
+        if (pending != null) {
+            bytes += pending.writeShards();
+            written = pending.written;
+        }
+        indexCapture.write(journalSegment);
+        bytes += index.metrics().lastBytesWritten();
+        if (pending != null) {
+            pending.finish();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        metrics.recordSave(elapsed, bytes);
+        logger.at(Level.INFO).log("Saved %d changed shards to %s (%d bytes in %d ms)",
+            written, directory, bytes, elapsed / 1_000_000);
+    }
+}
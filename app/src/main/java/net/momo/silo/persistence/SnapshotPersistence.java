@@ -0,0 +1,26 @@
+package net.momo.silo.persistence;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/** Whole-file persistence that {@link JournalPersistence} can use as its base snapshot. */
+public interface SnapshotPersistence extends PersistenceProvider {
+
+    /** Loads every binding and returns the journal segment the file names as its replay start, or 0. */
+    long loadSnapshot() throws IOException;
+
+    /**
+     * Copies every binding's elements now; encoding and I/O wait for {@link Capture#write}, which may
+     * run on another thread while changes continue. Elements must therefore be immutable, and
+     * whatever else a codec reads, such as live storage contents, may be newer than the copy.
+     */
+    Capture capture();
+
+    /** File the snapshot is written to. */
+    Path dataFile();
+
+    /** A copied snapshot not yet encoded or on disk. */
+    interface Capture {
+        void write(long journalSegment) throws IOException;
+    }
+}
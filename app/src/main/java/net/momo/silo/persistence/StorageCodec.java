@@ -0,0 +1,133 @@
+package net.momo.silo.persistence;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import net.momo.silo.storage.ItemIds;
+import net.momo.silo.storage.Storage;
+import net.momo.silo.storage.StorageBackend;
+import net.momo.silo.storage.StorageRegistry;
+import net.momo.silo.storage.StorageSnapshot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Codec for a registry's storages as a section of their own, keyed by storage ID, so records
+ * that reference a storage never carry its items. Contents are copied when entries are captured
+ * and read back through {@link Storage#restore}.
+ */
+public final class StorageCodec implements Codec<StorageCodec.Entry>, BinaryCodec<StorageCodec.Entry> {
+
+    private final StorageBackend backend;
+
+    public StorageCodec(StorageBackend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * A copy of every storage in a registry, for binding as a collection; dormant ones are loaded
+     * to be copied. A capture holding these encodes the contents as of this call, however late.
+     */
+    public static Iterable<Entry> entries(StorageRegistry registry) {
+        List<StorageRegistry.StorageState> states = registry.states();
+        List<Entry> entries = new ArrayList<>(states.size());
+        for (StorageRegistry.StorageState state : states) {
+            Storage storage = state.loaded() ? state.storage() : registry.get(state.id()).orElse(null);
+            if (storage != null) {
+                entries.add(Entry.captured(state.id(), storage));
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public JsonElement serialize(Entry entry) {
+        StorageSnapshot snapshot = entry.contents();
+        JsonObject json = new JsonObject();
+        json.addProperty("id", entry.id().toString());
+        json.addProperty("capacity", entry.capacity());
+        json.addProperty("maxItemTypes", entry.maxItemTypes());
+        json.addProperty("totalItems", snapshot.totalItems());
+        JsonObject items = new JsonObject();
+        for (int i = 0; i < snapshot.size(); i++) {
+            items.addProperty(snapshot.itemId(i), snapshot.quantity(i));
+        }
+        json.add("items", items);
+        return json;
+    }
+
+    @Override
+    public Entry deserialize(JsonElement element) {
+        JsonObject json = element.getAsJsonObject();
+        UUID id = UUID.fromString(json.get("id").getAsString());
+        Storage storage = backend.create(json.get("capacity").getAsLong(), json.get("maxItemTypes").getAsInt());
+
+        JsonObject items = json.getAsJsonObject("items");
+        int count = items.size();
+        int[] handles = new int[count];
+        long[] quantities = new long[count];
+        int i = 0;
+        for (Map.Entry<String, JsonElement> item : items.entrySet()) {
+            handles[i] = ItemIds.intern(item.getKey());
+            quantities[i] = item.getValue().getAsLong();
+            i++;
+        }
+        storage.restore(handles, quantities, count);
+        return Entry.loaded(id, storage);
+    }
+
+    @Override
+    public void write(Entry entry, BinaryOutput out) {
+        out.writeUuid(entry.id());
+        out.writeVarLong(entry.capacity());
+        out.writeVarInt(entry.maxItemTypes());
+        writeItems(entry.contents(), out);
+    }
+
+    @Override
+    public Entry read(BinaryInput in) throws IOException {
+        UUID id = in.readUuid();
+        Storage storage = backend.create(in.readVarLong(), in.readVarInt());
+        readItems(in, storage);
+        return Entry.loaded(id, storage);
+    }
+
+    /** Writes a storage's items as {@code count, count x (itemId, quantity)}. */
+    static void writeItems(StorageSnapshot snapshot, BinaryOutput out) {
+        out.writeVarInt(snapshot.size());
+        for (int i = 0; i < snapshot.size(); i++) {
+            out.writeItemId(snapshot.itemId(i));
+            out.writeVarLong(snapshot.quantity(i));
+        }
+    }
+
+    /** Reads items written by {@link #writeItems} into an empty storage in one bulk pass. */
+    static void readItems(BinaryInput in, Storage storage) throws IOException {
+        int count = in.readVarInt();
+        int[] handles = new int[count];
+        long[] quantities = new long[count];
+        for (int i = 0; i < count; i++) {
+            handles[i] = in.readItemHandle();
+            quantities[i] = in.readVarLong();
+        }
+        storage.restore(handles, quantities, count);
+    }
+
+    /**
+     * A storage's ID and limits, with either the copy of its contents taken for saving or, once
+     * read back, the restored storage. Saved entries never reach the live storage.
+     */
+    public record Entry(UUID id, long capacity, int maxItemTypes, StorageSnapshot contents, Storage storage) {
+
+        static Entry captured(UUID id, Storage storage) {
+            return new Entry(id, storage.capacity(), storage.maxItemTypes(), storage.snapshot(), null);
+        }
+
+        static Entry loaded(UUID id, Storage storage) {
+            return new Entry(id, storage.capacity(), storage.maxItemTypes(), null, storage);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package net.momo.silo.persistence;
+
+import com.hypixel.hytale.logger.HytaleLogger;
+import net.momo.silo.storage.Storage;
+import net.momo.silo.storage.StoragePager;
+import net.momo.silo.storage.StorageRegistry;
+import net.momo.silo.storage.StorageRegistry.StorageState;
+import net.momo.silo.storage.StorageSnapshot;
+import net.momo.silo.storage.StorageSource;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Every storage in a registry as its own shard file, listed in the index with the totals the
+ * registry needs to hold it dormant. Shards are read when a storage is first looked up, or all at
+ * load unless lazy. Doubles as the registry's pager: a storage is durable once its shard was
+ * written at its current version.
+ */
+final class StorageShards implements StoragePager {
+
+    private static final HytaleLogger logger = HytaleLogger.forEnclosingClass();
+    private static final String SHARD_EXTENSION = ".bin";
+    // Forces a rewrite of a shard that had to be recovered from its backup
+    private static final long STALE = Long.MIN_VALUE;
+
+    static final BinaryCodec<Listing> LISTING_CODEC = new BinaryCodec<>() {
+        @Override
+        public void write(Listing listing, BinaryOutput out) {
+            out.writeUuid(listing.id);
+            out.writeVarLong(listing.capacity);
+            out.writeVarInt(listing.maxItemTypes);
+            out.writeVarLong(listing.totalItems);
+            out.writeVarInt(listing.uniqueTypes);
+        }
+
+        @Override
+        public Listing read(BinaryInput in) throws IOException {
+            return new Listing(in.readUuid(), in.readVarLong(), in.readVarInt(), in.readVarLong(), in.readVarInt());
+        }
+    };
+
+    private final Path shardDirectory;
+    private final StorageRegistry registry;
+    private final boolean lazy;
+    private final Compression compression;
+    private final Map<UUID, Saved> saved = new ConcurrentHashMap<>();
+    private final List<Listing> listed = new ArrayList<>();
+    private volatile List<Listing> capturedListings = List.of();
+    private boolean swept;
+
+    StorageShards(Path shardDirectory, StorageRegistry registry, boolean lazy, Compression compression) {
+        this.shardDirectory = shardDirectory;
+        this.registry = registry;
+        this.lazy = lazy;
+        this.compression = compression;
+    }
+
+    /** Listings of the latest capture, written to the index by its capture right after. */
+    List<Listing> capturedListings() {
+        return capturedListings;
+    }
+
+    /** Called by the index load for each storage it lists. */
+    void listed(Listing listing) {
+        listed.add(listing);
+    }
+
+    /** Registers every listed storage dormant, then loads them in parallel unless lazy. Returns how many were listed. */
+    int loadListed() {
+        int count = listed.size();
+        for (Listing listing : listed) {
+            registry.registerDormant(listing.id, listing.capacity, listing.maxItemTypes,
+                listing.totalItems, listing.uniqueTypes, source(listing.id, 0));
+        }
+        if (!lazy) {
+            listed.parallelStream().forEach(listing -> registry.get(listing.id));
+        }
+        listed.clear();
+        return count;
+    }
+
+    @Override
+    public StorageSource durableSource(UUID id, Storage storage, long version) {
+        Saved last = saved.get(id);
+        if (last == null || last.storage() != storage || last.version() != version) {
+            return null;
+        }
+        return source(id, version);
+    }
+
+    /** Reads a shard into a storage paged in at {@code version}, falling back to its backup. */
+    private StorageSource source(UUID id, long version) {
+        return storage -> {
+            Path file = shardFile(id);
+            boolean recovered = false;
+            try {
+                read(file, storage);
+            } catch (IOException e) {
+                logger.at(Level.SEVERE).withCause(e).log("Corrupt or missing shard %s, attempting backup restore", file);
+                read(backupOf(file), storage);
+                recovered = true;
+            }
+            // What was just read matches the file, so it isn't worth writing back
+            saved.put(id, new Saved(storage, recovered ? STALE : version));
+        };
+    }
+
+    private static void read(Path file, Storage storage) throws IOException {
+        StorageCodec.readItems(BinaryFile.read(file).body(), storage);
+    }
+
+    /**
+     * Lists every registered storage and notes the loaded ones whose version moved since their
+     * shard was written. Their contents are copied when the capture is written.
+     */
+    Pending capture() {
+        List<StorageState> states = registry.states();
+        List<Listing> listings = new ArrayList<>(states.size());
+        List<Change> changes = new ArrayList<>();
+        for (StorageState state : states) {
+            Listing listing = new Listing(state.id(), state.capacity(), state.maxItemTypes(),
+                state.totalItems(), state.uniqueTypes());
+            listings.add(listing);
+            Saved last = saved.get(state.id());
+            // A dormant storage is durable by construction; only loaded ones can be ahead of their shard
+            if (state.loaded() && (last == null || last.storage() != state.storage() || last.version() != state.version())) {
+                changes.add(new Change(listing, state.storage(), state.version()));
+            }
+        }
+        capturedListings = listings;
+        return new Pending(listings, changes);
+    }
+
+    private Path shardFile(UUID id) {
+        return shardDirectory.resolve(id + SHARD_EXTENSION);
+    }
+
+    private static Path backupOf(Path file) {
+        return file.resolveSibling(file.getFileName() + ".backup");
+    }
+
+    /** One storage in the index. Totals of a rewritten shard are refreshed before the index is encoded. */
+    static final class Listing {
+        final UUID id;
+        final long capacity;
+        final int maxItemTypes;
+        long totalItems;
+        int uniqueTypes;
+
+        Listing(UUID id, long capacity, int maxItemTypes, long totalItems, int uniqueTypes) {
+            this.id = id;
+            this.capacity = capacity;
+            this.maxItemTypes = maxItemTypes;
+            this.totalItems = totalItems;
+            this.uniqueTypes = uniqueTypes;
+        }
+    }
+
+    /** What a shard file last held: the storage instance and its version at the time. */
+    private record Saved(Storage storage, long version) {}
+
+    private record Change(Listing listing, Storage storage, long version) {}
+
+    /** Storages listed by a capture, with the ones to rewrite. */
+    final class Pending {
+        private final List<Listing> listings;
+        private final List<Change> changes;
+        int written;
+
+        Pending(List<Listing> listings, List<Change> changes) {
+            this.listings = listings;
+            this.changes = changes;
+        }
+
+        /**
+         * Writes each changed shard. The copy is taken now, so it can only be newer than the
+         * version it is saved under, which just makes the next save write it again.
+         */
+        long writeShards() throws IOException {
+            long bytes = 0;
+            for (Change change : changes) {
+                StorageSnapshot snapshot = change.storage().snapshot();
+                BinaryOutput body = new BinaryOutput();
+                StorageCodec.writeItems(snapshot, body);
+                Path file = shardFile(change.listing().id);
+                if (Files.exists(file)) {
+                    // A rename rather than a copy keeps the backup free; load falls back to it
+                    Files.move(file, backupOf(file), StandardCopyOption.REPLACE_EXISTING);
+                }
+                bytes += BinaryFile.write(file, body, 0, compression, null);
+                change.listing().totalItems = snapshot.totalItems();
+                change.listing().uniqueTypes = snapshot.size();
+                saved.put(change.listing().id, new Saved(change.storage(), change.version()));
+                written++;
+            }
+            return bytes;
+        }
+
+        /** Deletes shards of storages gone from both the index and the registry, once the index is on disk. */
+        void finish() throws IOException {
+            Set<UUID> live = new HashSet<>(listings.size());
+            for (Listing listing : listings) {
+                live.add(listing.id);
+            }
+            boolean removed = saved.keySet().removeIf(id -> !live.contains(id) && !registry.exists(id));
+            if (!removed && swept) {
+                return;
+            }
+            // The first pass also clears files left behind by an index that never got written
+            swept = true;
+            if (!Files.isDirectory(shardDirectory)) {
+                return;
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(shardDirectory)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    int end = name.indexOf(SHARD_EXTENSION);
+                    UUID id = end < 0 ? null : parseId(name.substring(0, end));
+                    // Registered after the capture: its shard may already be newer than this index
+                    if (id == null || !live.contains(id) && !registry.exists(id)) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        }
+    }
+
+    private static UUID parseId(String name) {
+        try {
+            return UUID.fromString(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
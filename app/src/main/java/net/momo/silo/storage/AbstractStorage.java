@@ -0,0 +1,795 @@
+package net.momo.silo.storage;
+
+import net.momo.silo.util.Result;
+import net.momo.silo.util.Validation;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Storage logic shared by every backend: capacity ledger, quantity and search indexes, version
+ * clock and change feed. Backends only decide where the per-item quantity cells live.
+ */
+abstract class AbstractStorage implements Storage {
+
+    private static final long MAX_QUANTITY_PER_ITEM = 1_000_000_000L;
+
+    // Successful adds pack both halves into one long since quantities fit in 31 bits
+    private static final long QUANTITY_MASK = 0xFFFF_FFFFL;
+    private static final int SNAPSHOT_ATTEMPTS = 8;
+    private static final int SNAPSHOT_SPINS = 256;
+    private static final long TYPE_LEASE = 32;
+
+    // A RETIRED storage was paged out and refuses writes; RETIRING is the moment of deciding
+    private static final int LIVE = 0;
+    private static final int RETIRING = 1;
+    private static final int RETIRED = 2;
+
+    private final QuantityTable slots;
+    // Per-item room claimed by writes that will add to a slot: deposits in flight, reservation
+    // entries and deposits queued in a DepositBuffer. Survives clear(), since its claims end later
+    private final ItemSlots incoming;
+    private final QuantityIndex index;
+    private final SearchIndex search;
+    private final VersionClock version = new VersionClock();
+    private final ChangeFeed changes = new ChangeFeed();
+    private final CapacityLedger ledger;
+    // Unique types are leased per stripe like capacity, so creating types never funnels through one counter
+    private final CapacityLedger types;
+    // Guarded by this; the registry whose totals this storage currently feeds
+    private StorageAggregates aggregates;
+    // Bumped by clear() so deposits still sitting in a DepositBuffer know their capacity is gone
+    private volatile int generation;
+    // Paging state, see retire()
+    private volatile int state = LIVE;
+    // Reservation entries not yet settled plus deposits still queued in a DepositBuffer; retire() waits for none
+    private final LongAdder holds = new LongAdder();
+    private volatile long lastAccess = System.nanoTime();
+    // Set while queued on the registry's fill changes, so a busy storage queues once per ranking read
+    private volatile boolean fillQueued;
+    // Subtracted from the clock so a storage paged back in continues the version it was paged out at
+    private long versionBase;
+
+    /** {@code slots} builds the backend's quantity cells, given the storage's dense handle map to key them by if it wants. */
+    AbstractStorage(long capacity, int maxItemTypes, Function<HandleMap, QuantityTable> slots) {
+        Validation.requirePositive(capacity, "capacity");
+        Validation.requirePositive(maxItemTypes, "maxItemTypes");
+        HandleMap handles = new HandleMap();
+        this.ledger = new CapacityLedger(capacity);
+        this.types = new CapacityLedger(maxItemTypes, TYPE_LEASE);
+        this.slots = slots.apply(handles);
+        this.incoming = new ItemSlots(handles);
+        this.index = new QuantityIndex(this.slots, handles);
+        this.search = new SearchIndex(index, handles);
+    }
+
+    /** Starts feeding a registry's totals. A storage feeds at most one registry at a time. */
+    synchronized void attach(StorageAggregates target) {
+        if (aggregates == target) {
+            return;
+        }
+        if (aggregates != null) {
+            throw new IllegalStateException("Storage already belongs to another registry");
+        }
+        aggregates = target;
+        ledger.mirrorTo(target.items, () -> queueFillChange(target));
+        types.mirrorTo(target.types);
+        target.added(ledger.capacity());
+    }
+
+    /** Takes this storage's contribution back out of a registry's totals. */
+    synchronized void detach(StorageAggregates target) {
+        if (aggregates != target) {
+            return;
+        }
+        aggregates = null;
+        ledger.mirrorTo(null);
+        types.mirrorTo(null);
+        target.removed(ledger.capacity());
+    }
+
+    private void queueFillChange(StorageAggregates target) {
+        if (!fillQueued) {
+            fillQueued = true;
+            target.fillChanged(this);
+        }
+    }
+
+    /**
+     * Called by the fill ranking when it takes this storage off the queue, before reading the
+     * total, so a change made after the read queues the storage again.
+     */
+    void fillChangeSeen() {
+        fillQueued = false;
+    }
+
+    /** Records a registry lookup, which is what keeps a storage from being paged out. */
+    void touch() {
+        lastAccess = System.nanoTime();
+    }
+
+    long lastAccess() {
+        return lastAccess;
+    }
+
+    boolean isRetired() {
+        return state == RETIRED;
+    }
+
+    /** Version as the registry reports it, continuous across paging out and back in. */
+    long logicalVersion() {
+        return version.read() - versionBase;
+    }
+
+    /** Makes a freshly restored storage report {@code logicalVersion} from here on. */
+    void rebase(long logicalVersion) {
+        versionBase = version.read() - logicalVersion;
+    }
+
+    /**
+     * Stops accepting writes, provided none is in flight, no reservation or buffered deposit is
+     * outstanding and the logical version is still {@code expected}; otherwise stays live and
+     * returns false. Writers check the state after opening their write on the clock, and
+     * reservations after counting their hold, so either this sees them or they see the state.
+     */
+    boolean retire(long expected) {
+        state = RETIRING;
+        long stamp = version.stamp();
+        if (stamp == -1 || stamp - versionBase != expected || holds.sum() != 0) {
+            state = LIVE;
+            return false;
+        }
+        state = RETIRED;
+        return true;
+    }
+
+    /** Validates a capacity and clamps it to what the ledger can count. */
+    static long clampCapacity(BigInteger capacity) {
+        Validation.requirePositive(capacity, "capacity");
+        return capacity.min(BigInteger.valueOf(Long.MAX_VALUE)).longValue();
+    }
+
+    @Override
+    public Result<Long> deposit(String itemId, long quantity) {
+        return deposit(ItemIds.intern(itemId), quantity);
+    }
+
+    @Override
+    public Result<Long> deposit(int handle, long quantity) {
+        long outcome = depositPacked(handle, quantity);
+        return outcome < 0 ? StorageStatus.failure(outcome) : Result.success(outcome & QUANTITY_MASK);
+    }
+
+    @Override
+    public long tryDeposit(int handle, long quantity) {
+        long outcome = depositPacked(handle, quantity);
+        return outcome < 0 ? outcome : outcome >>> 32;
+    }
+
+    @Override
+    public long depositAll(ItemBatch batch) {
+        long requested = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            batch.setMoved(i, 0);
+            long quantity = batch.quantity(i);
+            if (quantity > 0) {
+                requested += Math.min(quantity, MAX_QUANTITY_PER_ITEM);
+            }
+        }
+        if (requested == 0) {
+            return 0;
+        }
+
+        long budget = ledger.reserve(requested);
+        long deposited = 0;
+        for (int i = 0; i < batch.size() && deposited < budget; i++) {
+            long quantity = batch.quantity(i);
+            if (quantity <= 0) {
+                continue;
+            }
+            long outcome = addToSlot(batch.handle(i), Math.min(quantity, budget - deposited));
+            if (outcome > 0) {
+                long added = outcome >>> 32;
+                batch.setMoved(i, added);
+                deposited += added;
+            }
+        }
+
+        if (deposited < budget) {
+            ledger.release(budget - deposited);
+        }
+        return deposited;
+    }
+
+    @Override
+    public void restore(int[] handles, long[] quantities, int count) {
+        if (count > handles.length || count > quantities.length) {
+            throw new IllegalArgumentException("count exceeds the arrays");
+        }
+        version.begin();
+        try {
+            if (ledger.used() != 0 || types.used() != 0) {
+                throw new IllegalStateException("Storage is not empty");
+            }
+            slots.presize(handles, count);
+            long total = 0;
+            int created = 0;
+            for (int i = 0; i < count; i++) {
+                long quantity = Math.min(quantities[i], MAX_QUANTITY_PER_ITEM);
+                if (quantity <= 0) {
+                    continue;
+                }
+                if (!slots.compareAndSet(handles[i], 0, quantity)) {
+                    // Nothing else is accounted for yet, so dropping the slots leaves the storage empty again
+                    slots.clear();
+                    throw new IllegalArgumentException("Duplicate item handle " + handles[i]);
+                }
+                total += quantity;
+                created++;
+            }
+            // The search index builds itself from the quantity index on the first query
+            index.addAll(handles, count);
+            // Saved contents were within the limits when written; a lowered limit is enforced on the next deposit
+            ledger.forceReserve(total);
+            types.forceReserve(created);
+        } finally {
+            version.end();
+        }
+        changes.invalidate();
+    }
+
+    @Override
+    public Result<Long> withdraw(String itemId, long quantity) {
+        int handle = ItemIds.find(itemId);
+        if (handle == ItemIds.NONE) {
+            // Never interned, so never stored anywhere; a valid ID is cached so the next miss is a lookup
+            ItemIds.requireValid(itemId);
+            return quantity > 0 ? Result.success(0L) : StorageStatus.failure(StorageStatus.INVALID_QUANTITY);
+        }
+        return withdraw(handle, quantity);
+    }
+
+    @Override
+    public Result<Long> withdraw(int handle, long quantity) {
+        long outcome = tryWithdraw(handle, quantity);
+        return outcome < 0 ? StorageStatus.failure(outcome) : Result.success(outcome);
+    }
+
+    @Override
+    public long tryWithdraw(int handle, long quantity) {
+        if (quantity <= 0) {
+            return StorageStatus.INVALID_QUANTITY;
+        }
+
+        long removed = takeFromSlot(handle, quantity);
+        if (removed > 0) {
+            ledger.release(removed);
+        }
+        return removed;
+    }
+
+    @Override
+    public long withdrawAll(ItemBatch batch) {
+        long withdrawn = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            long quantity = batch.quantity(i);
+            long removed = quantity > 0 ? takeFromSlot(batch.handle(i), quantity) : 0;
+            batch.setMoved(i, removed);
+            withdrawn += removed;
+        }
+        if (withdrawn > 0) {
+            ledger.release(withdrawn);
+        }
+        return withdrawn;
+    }
+
+    @Override
+    public int reserveCapacity(Reservation reservation, int handle, long quantity) {
+        reservation.bind(this);
+        if (quantity <= 0 || !beginHold()) {
+            return -1;
+        }
+        long current = slots.get(handle);
+        long wanted = claimHeadroom(handle, quantity);
+        if (wanted <= 0) {
+            holds.decrement();
+            return -1;
+        }
+        boolean typeHeld = current == 0;
+        if (typeHeld && types.reserve(1) == 0) {
+            releaseHeadroom(handle, wanted);
+            holds.decrement();
+            return -1;
+        }
+        long held = ledger.reserve(wanted);
+        releaseHeadroom(handle, wanted - held);
+        if (held <= 0) {
+            releaseType(typeHeld);
+            holds.decrement();
+            return -1;
+        }
+        return reservation.add(handle, held, typeHeld ? Reservation.CAPACITY_AND_TYPE : Reservation.CAPACITY);
+    }
+
+    @Override
+    public int reserveItems(Reservation reservation, int handle, long quantity) {
+        reservation.bind(this);
+        if (quantity <= 0 || !beginHold()) {
+            return -1;
+        }
+        // Items not settled go back unconditionally, so their room is claimed before they leave
+        long wanted = Math.min(quantity, MAX_QUANTITY_PER_ITEM);
+        incoming.addAndGet(handle, wanted);
+        long taken = takeFromSlot(handle, wanted);
+        releaseHeadroom(handle, wanted - taken);
+        if (taken <= 0) {
+            holds.decrement();
+            return -1;
+        }
+        // Capacity stays accounted for until commit decides whether the items left for good
+        return reservation.add(handle, taken, Reservation.ITEMS);
+    }
+
+    /**
+     * Counts a hold before checking the state, so retire() either sees it or this sees the storage
+     * retired. Returns false, holding nothing, if the storage was paged out.
+     */
+    private boolean beginHold() {
+        holds.increment();
+        int paging;
+        while ((paging = state) == RETIRING) {
+            Thread.onSpinWait();
+        }
+        if (paging == RETIRED) {
+            holds.decrement();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Counts a deposit newly queued in a {@link DepositBuffer} as a hold until it is applied. The
+     * reservation entry it came from still holds, so the count never drops to zero in between.
+     */
+    void holdDeferred() {
+        holds.increment();
+    }
+
+    @Override
+    public void commit(Reservation reservation) {
+        settle(reservation, true);
+    }
+
+    @Override
+    public void abort(Reservation reservation) {
+        settle(reservation, false);
+    }
+
+    @Override
+    public Optional<StoredItem> getItem(String itemId) {
+        int handle = ItemIds.find(itemId);
+        if (handle == ItemIds.NONE) {
+            return Optional.empty();
+        }
+        long quantity = slots.get(handle);
+        if (quantity <= 0) {
+            return Optional.empty();
+        }
+        return Optional.of(new StoredItem(handle, quantity));
+    }
+
+    @Override
+    public long getQuantity(String itemId) {
+        int handle = ItemIds.find(itemId);
+        return handle != ItemIds.NONE ? slots.get(handle) : 0;
+    }
+
+    @Override
+    public long getQuantity(int handle) {
+        return slots.get(handle);
+    }
+
+    @Override
+    public boolean hasItem(String itemId) {
+        return getQuantity(itemId) > 0;
+    }
+
+    @Override
+    public long getTotalItems() {
+        return ledger.used();
+    }
+
+    @Override
+    public int getUniqueItemCount() {
+        return (int) types.used();
+    }
+
+    @Override
+    public int maxItemTypes() {
+        return (int) types.capacity();
+    }
+
+    @Override
+    public long capacity() {
+        return ledger.capacity();
+    }
+
+    @Override
+    public long getRemainingCapacity() {
+        return ledger.remaining();
+    }
+
+    @Override
+    public long version() {
+        return version.read();
+    }
+
+    @Override
+    public ChangeFeed changes() {
+        return changes;
+    }
+
+    @Override
+    public List<StoredItem> getItemsSorted() {
+        List<StoredItem> result = new ArrayList<>();
+        index.forEachDescending((handle, quantity) -> result.add(new StoredItem(handle, quantity)));
+        return result;
+    }
+
+    @Override
+    public List<StoredItem> getItemsSorted(int offset, int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        List<StoredItem> result = new ArrayList<>(Math.min(limit, 256));
+        index.forEachDescending(Math.max(0, offset), limit, (handle, quantity) -> {
+            result.add(new StoredItem(handle, quantity));
+            return true;
+        });
+        return result;
+    }
+
+    @Override
+    public void forEachByQuantity(ItemVisitor visitor) {
+        index.forEachDescending(visitor);
+    }
+
+    @Override
+    public List<StoredItem> searchItems(String query) {
+        if (query == null || query.isEmpty()) {
+            return getItemsSorted();
+        }
+        String lowerQuery = query.toLowerCase(Locale.ROOT);
+        List<StoredItem> result = new ArrayList<>();
+        if (lowerQuery.length() < SearchIndex.MIN_QUERY_LENGTH) {
+            // Too short for trigrams and most items match anyway, so walk the quantity index in order
+            index.forEachDescending((handle, quantity) -> {
+                if (ItemIds.lowerName(handle).contains(lowerQuery)) {
+                    result.add(new StoredItem(handle, quantity));
+                }
+                return true;
+            });
+            return result;
+        }
+
+        for (int handle : search.find(lowerQuery)) {
+            long quantity = slots.get(handle);
+            if (quantity > 0) {
+                result.add(new StoredItem(handle, quantity));
+            }
+        }
+        result.sort(Comparator.comparingLong(StoredItem::quantity).reversed());
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getItemsAsMap() {
+        return snapshot().toMap();
+    }
+
+    @Override
+    public StorageSnapshot snapshot() {
+        for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+            long stamp = awaitIdleStamp();
+            if (stamp < 0) {
+                break;
+            }
+            StorageSnapshot snapshot = copy(stamp, true);
+            if (version.validate(stamp)) {
+                return snapshot;
+            }
+        }
+        return copy(version.read(), false);
+    }
+
+    @Override
+    public void clear() {
+        version.begin();
+        try {
+            generation++;
+            slots.clear();
+            index.clear();
+            search.clear();
+            ledger.reset();
+            types.reset();
+        } finally {
+            version.end();
+        }
+        changes.invalidate();
+    }
+
+    /** Spins briefly for a moment with no write in flight. Returns -1 if none came. */
+    private long awaitIdleStamp() {
+        for (int spins = 0; spins < SNAPSHOT_SPINS; spins++) {
+            long stamp = version.stamp();
+            if (stamp >= 0) {
+                return stamp;
+            }
+            Thread.onSpinWait();
+        }
+        return -1;
+    }
+
+    private StorageSnapshot copy(long stamp, boolean consistent) {
+        SnapshotBuffer buffer = new SnapshotBuffer(Math.max(16, getUniqueItemCount()));
+        index.forEachDescending(buffer);
+        return new StorageSnapshot(buffer.handles, buffer.quantities, buffer.size, stamp, consistent);
+    }
+
+    /** Growable parallel arrays filled from the quantity index. */
+    private static final class SnapshotBuffer implements ItemVisitor {
+        int[] handles;
+        long[] quantities;
+        int size;
+
+        SnapshotBuffer(int capacity) {
+            this.handles = new int[capacity];
+            this.quantities = new long[capacity];
+        }
+
+        @Override
+        public boolean visit(int handle, long quantity) {
+            if (size == handles.length) {
+                handles = Arrays.copyOf(handles, size * 2);
+                quantities = Arrays.copyOf(quantities, size * 2);
+            }
+            handles[size] = handle;
+            quantities[size] = quantity;
+            size++;
+            return true;
+        }
+    }
+
+    /**
+     * Adds already-reserved capacity to a slot, clamped to the per-item maximum.
+     * Returns {@code (added << 32) | newQuantity}, or {@link StorageStatus#TYPE_LIMIT} / {@link StorageStatus#ITEM_FULL}.
+     */
+    private long addToSlot(int handle, long amount) {
+        long toAdd = claimHeadroom(handle, amount);
+        if (toAdd <= 0) {
+            return StorageStatus.ITEM_FULL;
+        }
+        boolean typeReserved = false;
+
+        while (true) {
+            long current = slots.get(handle);
+            if (current == 0 && !typeReserved) {
+                if (types.reserve(1) == 0) {
+                    releaseHeadroom(handle, toAdd);
+                    return StorageStatus.TYPE_LIMIT;
+                }
+                typeReserved = true;
+            }
+
+            // Snapshots retry while a write is open, so the quantity index must be settled before it closes;
+            // the search index re-reads the slot under its own lock and is brought up to date after
+            version.begin();
+            try {
+                int paging = state;
+                if (paging == RETIRED) {
+                    releaseType(typeReserved);
+                    releaseHeadroom(handle, toAdd);
+                    return StorageStatus.UNAVAILABLE;
+                }
+                if (paging == RETIRING) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                if (!slots.compareAndSet(handle, current, current + toAdd)) {
+                    continue;
+                }
+                index.update(handle);
+            } finally {
+                version.end();
+            }
+            releaseHeadroom(handle, toAdd);
+            if (current == 0) {
+                search.update(handle, slots);
+            }
+            changes.publish(handle, toAdd, current + toAdd);
+            // Another depositor created the type first, so our reservation is surplus
+            releaseType(typeReserved && current != 0);
+            return (toAdd << 32) | (current + toAdd);
+        }
+    }
+
+    /** Removes up to {@code amount} from a slot without touching capacity. Returns the amount removed. */
+    private long takeFromSlot(int handle, long amount) {
+        while (true) {
+            long current = slots.get(handle);
+            if (current <= 0) {
+                return 0;
+            }
+
+            long toRemove = Math.min(amount, current);
+            long remaining = current - toRemove;
+            version.begin();
+            try {
+                int paging = state;
+                if (paging == RETIRED) {
+                    return 0;
+                }
+                if (paging == RETIRING) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                if (!slots.compareAndSet(handle, current, remaining)) {
+                    continue;
+                }
+                index.update(handle);
+            } finally {
+                version.end();
+            }
+            if (remaining == 0) {
+                search.update(handle, slots);
+                types.release(1);
+            }
+            changes.publish(handle, -toRemove, remaining);
+            return toRemove;
+        }
+    }
+
+    /**
+     * Adds to a slot unconditionally. Used for reservations, whose type slot and per-item headroom
+     * were claimed when they were taken, so settling one can never be refused. The caller releases
+     * the headroom claim once this returns.
+     */
+    private void forceIntoSlot(int handle, long amount, boolean typeHeld) {
+        while (true) {
+            long current = slots.get(handle);
+            version.begin();
+            try {
+                if (!slots.compareAndSet(handle, current, current + amount)) {
+                    continue;
+                }
+                index.update(handle);
+            } finally {
+                version.end();
+            }
+            if (current == 0) {
+                search.update(handle, slots);
+            }
+            if (current == 0 && !typeHeld) {
+                types.forceReserve(1);
+            } else if (current != 0 && typeHeld) {
+                types.release(1);
+            }
+            changes.publish(handle, amount, current + amount);
+            return;
+        }
+    }
+
+    private void settle(Reservation reservation, boolean commit) {
+        reservation.close(this);
+        long freed = 0;
+        for (int i = 0; i < reservation.size(); i++) {
+            int handle = reservation.handle(i);
+            long held = reservation.held(i);
+            long used = commit ? reservation.settled(i) : 0;
+            if (reservation.holdsItems(i)) {
+                // Settled items left for good and free their capacity; the rest go back
+                freed += used;
+                if (held > used) {
+                    forceIntoSlot(handle, held - used, false);
+                }
+                releaseHeadroom(handle, held);
+            } else {
+                boolean typeHeld = reservation.kind(i) == Reservation.CAPACITY_AND_TYPE;
+                DepositBuffer buffer = used > 0 ? DepositBuffer.active() : null;
+                if (buffer != null) {
+                    // The buffered part keeps its headroom claim until the flush applies it
+                    buffer.add(this, handle, used, typeHeld, generation);
+                    releaseHeadroom(handle, held - used);
+                } else {
+                    if (used > 0) {
+                        forceIntoSlot(handle, used, typeHeld);
+                    } else {
+                        releaseType(typeHeld);
+                    }
+                    releaseHeadroom(handle, held);
+                }
+                freed += held - used;
+            }
+            holds.decrement();
+        }
+        if (freed > 0) {
+            ledger.release(freed);
+        }
+    }
+
+    /**
+     * Applies a deposit combined in a {@link DepositBuffer}, unless the storage was cleared since,
+     * and ends its hold and headroom claim.
+     */
+    void applyDeferred(int handle, long amount, boolean typeHeld, int queuedGeneration) {
+        if (amount > 0 && queuedGeneration == generation) {
+            forceIntoSlot(handle, amount, typeHeld);
+        }
+        releaseHeadroom(handle, amount);
+        holds.decrement();
+    }
+
+    /**
+     * Claims up to {@code amount} of an item's room below the per-item maximum and returns what
+     * was granted. Claims go through one atomic counter and are checked against the slot after
+     * being counted, so of two racing claims the later one always sees the earlier, and a slot
+     * plus everything claimed for it never passes the maximum. A claim lasts until the amount is
+     * in the slot or given up, and may briefly refuse room that a concurrent claim is about to
+     * hand back.
+     */
+    private long claimHeadroom(int handle, long amount) {
+        long wanted = Math.min(amount, MAX_QUANTITY_PER_ITEM);
+        long claimed = incoming.addAndGet(handle, wanted);
+        long over = slots.get(handle) + claimed - MAX_QUANTITY_PER_ITEM;
+        if (over > 0) {
+            long refused = Math.min(over, wanted);
+            incoming.addAndGet(handle, -refused);
+            wanted -= refused;
+        }
+        return wanted;
+    }
+
+    /** Ends {@code amount} of a headroom claim, once it reached the slot or was given up. */
+    void releaseHeadroom(int handle, long amount) {
+        if (amount > 0) {
+            incoming.addAndGet(handle, -amount);
+        }
+    }
+
+    void releaseTypes(long count) {
+        types.release(count);
+    }
+
+    /** Reserves capacity and deposits into one slot. Returns the packed slot outcome or a failure code. */
+    private long depositPacked(int handle, long quantity) {
+        if (quantity <= 0) {
+            return StorageStatus.INVALID_QUANTITY;
+        }
+
+        long reserved = ledger.reserve(Math.min(quantity, MAX_QUANTITY_PER_ITEM));
+        if (reserved <= 0) {
+            return StorageStatus.STORAGE_FULL;
+        }
+
+        long outcome = addToSlot(handle, reserved);
+        long added = outcome > 0 ? outcome >>> 32 : 0;
+        if (added < reserved) {
+            ledger.release(reserved - added);
+        }
+        return outcome;
+    }
+
+    private void releaseType(boolean reserved) {
+        if (reserved) {
+            types.release(1);
+        }
+    }
+}
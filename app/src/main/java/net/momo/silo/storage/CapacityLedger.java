@@ -0,0 +1,228 @@
+package net.momo.silo.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Striped capacity accounting. Each stripe leases capacity from a shared pool so concurrent
+ * deposits mostly touch their own cache line. Capacity is conserved as
+ * {@code pool + leases + used == capacity}; when the pool runs low leases stop being handed out
+ * and are swept back, so the last unit of capacity is always reachable. Lease size and the
+ * watermark scale with capacity, so all leases together never hold more than a small fraction
+ * of it and small ledgers stripe too.
+ */
+final class CapacityLedger {
+
+    private static final int STRIPES = Stripes.COUNT;
+    private static final int STRIDE = Stripes.STRIDE;
+    private static final int LEASE = 0;
+    private static final int USED = 1;
+    // Refills in flight on the stripe: capacity taken from the pool but not yet credited to the lease
+    private static final int MOVING = 2;
+    private static final long DEFAULT_MAX_LEASE = 4096;
+    // Leases across all stripes stay within capacity / LEASE_FRACTION
+    private static final long LEASE_FRACTION = 8;
+    private static final int MAX_RECONCILE_SPINS = 64;
+
+    private final long capacity;
+    private final long maxLease;
+    private final long lowWatermark;
+    private final AtomicLong pool;
+    private final AtomicLongArray stripes = new AtomicLongArray(STRIPES * STRIDE);
+    // Registry-wide total that follows every change to used, so aggregates never rescan storages
+    private volatile LongAdder mirror;
+    // Told after each mirrored change; set before mirror so it is never missed
+    private volatile Runnable mirrored;
+
+    CapacityLedger(long capacity) {
+        this(capacity, DEFAULT_MAX_LEASE);
+    }
+
+    /**
+     * Leases are a share of capacity, capped at {@code maxLease}; size the cap to the typical
+     * reservation. Leasing stops while the pool is below twice what full leases would hold, and a
+     * ledger too small to give every stripe a unit never leases.
+     */
+    CapacityLedger(long capacity, long maxLease) {
+        this.capacity = capacity;
+        this.maxLease = Math.min(maxLease, capacity / (STRIPES * LEASE_FRACTION));
+        this.lowWatermark = this.maxLease > 0 ? STRIPES * this.maxLease * 2 : Long.MAX_VALUE;
+        this.pool = new AtomicLong(capacity);
+    }
+
+    /** Reserves up to {@code desired} capacity. Returns the amount reserved, 0 if full. */
+    long reserve(long desired) {
+        int base = stripeBase();
+        long reserved = takeLease(base, desired);
+        if (reserved < desired) {
+            reserved += refill(base, desired - reserved);
+        }
+        if (reserved < desired) {
+            reserved += reconcile(base, desired - reserved);
+        }
+        if (reserved > 0) {
+            stripes.addAndGet(base + USED, reserved);
+            mirror(reserved);
+        }
+        return reserved;
+    }
+
+    /** Returns previously reserved capacity, e.g. after a withdrawal or a failed deposit. */
+    void release(long amount) {
+        int base = stripeBase();
+        stripes.addAndGet(base + USED, -amount);
+        mirror(-amount);
+        if (pool.get() >= lowWatermark && stripes.get(base + LEASE) + amount <= maxLease) {
+            stripes.addAndGet(base + LEASE, amount);
+        } else {
+            pool.addAndGet(amount);
+        }
+    }
+
+    /**
+     * Takes capacity without checking the limit, for commitments made before the limit was reached.
+     * The pool may go negative until enough is released.
+     */
+    void forceReserve(long amount) {
+        stripes.addAndGet(stripeBase() + USED, amount);
+        mirror(amount);
+        pool.addAndGet(-amount);
+    }
+
+    /**
+     * Mirrors every change to {@link #used()} into {@code target}, or stops mirroring when null.
+     * The current total moves across with the switch; exact when no operation is in flight.
+     */
+    void mirrorTo(LongAdder target) {
+        mirrorTo(target, null);
+    }
+
+    /** As {@link #mirrorTo(LongAdder)}, also running {@code onChange} after each mirrored change. */
+    void mirrorTo(LongAdder target, Runnable onChange) {
+        LongAdder previous = mirror;
+        mirrored = onChange;
+        mirror = target;
+        long current = used();
+        if (previous != null) {
+            previous.add(-current);
+        }
+        if (target != null) {
+            target.add(current);
+        }
+    }
+
+    /** Items currently accounted for. Exact once in-flight operations complete. */
+    long used() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += stripes.get(i * STRIDE + USED);
+        }
+        return sum;
+    }
+
+    long remaining() {
+        return Math.max(0, capacity - used());
+    }
+
+    long capacity() {
+        return capacity;
+    }
+
+    void reset() {
+        mirror(-used());
+        for (int i = 0; i < STRIPES; i++) {
+            stripes.set(i * STRIDE + LEASE, 0);
+            stripes.set(i * STRIDE + USED, 0);
+        }
+        pool.set(capacity);
+    }
+
+    private void mirror(long delta) {
+        LongAdder target = mirror;
+        if (target != null) {
+            target.add(delta);
+            Runnable onChange = mirrored;
+            if (onChange != null) {
+                onChange.run();
+            }
+        }
+    }
+
+    private long takeLease(int base, long desired) {
+        while (true) {
+            long lease = stripes.get(base + LEASE);
+            long take = Math.min(lease, desired);
+            if (take <= 0) {
+                return 0;
+            }
+            if (stripes.compareAndSet(base + LEASE, lease, lease - take)) {
+                return take;
+            }
+        }
+    }
+
+    /** Takes {@code need} from the pool plus a fresh lease for this stripe while capacity is plentiful. */
+    private long refill(int base, long need) {
+        stripes.incrementAndGet(base + MOVING);
+        try {
+            while (true) {
+                long available = pool.get();
+                if (available <= 0) {
+                    return 0;
+                }
+                long lease = available >= lowWatermark ? maxLease : 0;
+                long take = Math.min(available, need + lease);
+                if (pool.compareAndSet(available, available - take)) {
+                    long granted = Math.min(take, need);
+                    if (take > granted) {
+                        stripes.addAndGet(base + LEASE, take - granted);
+                    }
+                    return granted;
+                }
+            }
+        } finally {
+            stripes.decrementAndGet(base + MOVING);
+        }
+    }
+
+    /**
+     * Sweeps other stripes' leases back into the pool one at a time, stopping as soon as
+     * {@code need} is met. Only runs near the capacity boundary. A stripe caught mid-refill holds
+     * capacity that is in neither the pool nor its lease yet, so only that stripe is waited on.
+     */
+    private long reconcile(int base, long need) {
+        long taken = 0;
+        for (int step = 1; step <= STRIPES && taken < need; step++) {
+            int other = (base / STRIDE + step) % STRIPES * STRIDE;
+            taken += sweep(other, need - taken);
+            for (int spins = 0; taken < need && stripes.get(other + MOVING) != 0 && spins < MAX_RECONCILE_SPINS; spins++) {
+                Thread.onSpinWait();
+                taken += sweep(other, need - taken);
+            }
+        }
+        return taken;
+    }
+
+    /** Returns one stripe's lease to the pool, then takes up to {@code need} from the pool. */
+    private long sweep(int base, long need) {
+        long lease = stripes.getAndSet(base + LEASE, 0);
+        if (lease > 0) {
+            pool.addAndGet(lease);
+        }
+        while (true) {
+            long available = pool.get();
+            long take = Math.min(available, need);
+            if (take <= 0) {
+                return 0;
+            }
+            if (pool.compareAndSet(available, available - take)) {
+                return take;
+            }
+        }
+    }
+
+    private static int stripeBase() {
+        return Stripes.current() * STRIDE;
+    }
+}
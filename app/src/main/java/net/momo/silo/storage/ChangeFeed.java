@@ -0,0 +1,229 @@
+package net.momo.silo.storage;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free broadcast ring of storage changes {@code (handle, delta, newQuantity)}.
+ * Producers claim a sequence and publish into its slot; every subscriber keeps its own cursor
+ * and polls at its own pace. Nothing is recorded while nobody is subscribed.
+ *
+ * <p>A subscriber that falls a full ring behind has lost changes and is told to resync. One that
+ * is merely behind gets its backlog coalesced per item before delivery.
+ */
+public final class ChangeFeed {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final long WRITING = -1;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+    // Ring arrays are allocated on first subscribe; idle storages pay nothing. Per published slot:
+    // sequence + 1 once published, WRITING while a producer fills it
+    private AtomicLongArray published;
+    private int[] handles;
+    private long[] deltas;
+    private long[] quantities;
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile boolean active;
+
+    public ChangeFeed() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ChangeFeed(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two, was " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Listener for polled changes. Concurrent changes to one item may arrive slightly out of order,
+     * so deltas are exact but {@code newQuantity} is a hint; read the storage when exactness matters.
+     */
+    public interface ChangeListener {
+        void onChange(int handle, long delta, long newQuantity);
+
+        /** Changes were lost; re-read the full storage state. Polling resumes from the current head. */
+        default void onResync() {}
+    }
+
+    /** Subscribes from the current head. Close the subscription when done. */
+    public synchronized Subscription subscribe() {
+        if (published == null) {
+            published = new AtomicLongArray(capacity);
+            handles = new int[capacity];
+            deltas = new long[capacity];
+            quantities = new long[capacity];
+        }
+        Subscription subscription = new Subscription(next.get());
+        subscriptions.add(subscription);
+        active = true;
+        return subscription;
+    }
+
+    /** Forces every subscriber to resync, e.g. after the storage was cleared. */
+    public void invalidate() {
+        next.addAndGet(capacity + 1L);
+    }
+
+    void publish(int handle, long delta, long newQuantity) {
+        if (!active) {
+            return;
+        }
+        long sequence = next.getAndIncrement();
+        int slot = (int) sequence & mask;
+        published.set(slot, WRITING);
+        VarHandle.storeStoreFence();
+        handles[slot] = handle;
+        deltas[slot] = delta;
+        quantities[slot] = newQuantity;
+        published.set(slot, sequence + 1);
+    }
+
+    private synchronized void unsubscribe(Subscription subscription) {
+        subscriptions.remove(subscription);
+        active = !subscriptions.isEmpty();
+    }
+
+    /** A subscriber's cursor into the feed. Not thread-safe; poll from one thread at a time. */
+    public final class Subscription implements AutoCloseable {
+
+        private long cursor;
+        private Coalescer coalescer;
+
+        private Subscription(long cursor) {
+            this.cursor = cursor;
+        }
+
+        /**
+         * Delivers all changes published since the last poll. Returns the number of changes
+         * delivered, or -1 if the subscriber lagged past the ring and was told to resync.
+         */
+        public int poll(ChangeListener listener) {
+            long head = next.get();
+            if (head - cursor > capacity) {
+                return resync(listener, head);
+            }
+
+            boolean coalesce = head - cursor > capacity / 2;
+            if (coalesce && coalescer == null) {
+                coalescer = new Coalescer(capacity);
+            }
+
+            int delivered = 0;
+            while (cursor < head) {
+                int slot = (int) cursor & mask;
+                long expected = cursor + 1;
+                long before = published.get(slot);
+                if (before != expected) {
+                    if (before > expected || next.get() - cursor > capacity) {
+                        return resync(listener, next.get());
+                    }
+                    // Claimed but not yet written; pick it up next poll
+                    break;
+                }
+
+                int handle = handles[slot];
+                long delta = deltas[slot];
+                long quantity = quantities[slot];
+                VarHandle.loadLoadFence();
+                if (published.get(slot) != expected) {
+                    return resync(listener, next.get());
+                }
+
+                if (coalesce) {
+                    coalescer.add(handle, delta, quantity);
+                } else {
+                    listener.onChange(handle, delta, quantity);
+                    delivered++;
+                }
+                cursor++;
+            }
+
+            if (coalesce) {
+                delivered = coalescer.drain(listener);
+            }
+            return delivered;
+        }
+
+        /** Number of changes published but not yet polled. */
+        public long backlog() {
+            return Math.max(0, next.get() - cursor);
+        }
+
+        @Override
+        public void close() {
+            unsubscribe(this);
+        }
+
+        private int resync(ChangeListener listener, long head) {
+            cursor = head;
+            if (coalescer != null) {
+                coalescer.reset();
+            }
+            listener.onResync();
+            return -1;
+        }
+    }
+
+    /** Folds a backlog into one change per item: deltas summed, last quantity kept. */
+    private static final class Coalescer {
+        private final int[] table;
+        private final int tableMask;
+        private final int[] handles;
+        private final long[] deltas;
+        private final long[] quantities;
+        private int size;
+
+        Coalescer(int capacity) {
+            this.table = new int[capacity * 2];
+            this.tableMask = table.length - 1;
+            this.handles = new int[capacity];
+            this.deltas = new long[capacity];
+            this.quantities = new long[capacity];
+        }
+
+        void add(int handle, long delta, long quantity) {
+            int i = (handle * 0x9E3779B9) & tableMask;
+            while (true) {
+                int entry = table[i] - 1;
+                if (entry < 0) {
+                    table[i] = size + 1;
+                    handles[size] = handle;
+                    deltas[size] = delta;
+                    quantities[size] = quantity;
+                    size++;
+                    return;
+                }
+                if (handles[entry] == handle) {
+                    deltas[entry] += delta;
+                    quantities[entry] = quantity;
+                    return;
+                }
+                i = (i + 1) & tableMask;
+            }
+        }
+
+        int drain(ChangeFeed.ChangeListener listener) {
+            int drained = size;
+            for (int i = 0; i < drained; i++) {
+                listener.onChange(handles[i], deltas[i], quantities[i]);
+            }
+            reset();
+            return drained;
+        }
+
+        void reset() {
+            Arrays.fill(table, 0);
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package net.momo.silo.storage;
+
+import java.util.Arrays;
+
+/**
+ * Per-thread write-combining buffer for committed deposits. While a thread has the buffer
+ * {@link #open() open}, {@link Storage#commit} keeps the capacity it reserved but queues the item
+ * counts here, merged per (storage, item); {@link #flush()} then applies each merged entry with a
+ * single slot update. Totals and remaining capacity reflect a deferred deposit immediately, while
+ * per-item quantities catch up at the flush; the room a deferred deposit will take under the
+ * per-item maximum stays claimed until then.
+ */
+public final class DepositBuffer {
+
+    private static final ThreadLocal<DepositBuffer> CURRENT = ThreadLocal.withInitial(DepositBuffer::new);
+    private static final int INITIAL_CAPACITY = 32;
+
+    private AbstractStorage[] storages = new AbstractStorage[INITIAL_CAPACITY];
+    private int[] handles = new int[INITIAL_CAPACITY];
+    private long[] amounts = new long[INITIAL_CAPACITY];
+    private int[] generations = new int[INITIAL_CAPACITY];
+    private boolean[] typeHeld = new boolean[INITIAL_CAPACITY];
+    // Open-addressed entry index + 1 per (storage, handle); 0 is empty
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+    private int size;
+    private boolean open;
+
+    private DepositBuffer() {}
+
+    /** Starts combining deposits committed on this thread until the next {@link #flush()}. */
+    public static void open() {
+        CURRENT.get().open = true;
+    }
+
+    /** Applies every deposit combined on this thread and stops combining. */
+    public static void flush() {
+        DepositBuffer buffer = CURRENT.get();
+        buffer.open = false;
+        buffer.drain();
+    }
+
+    /** The calling thread's buffer if it is combining, else null. */
+    static DepositBuffer active() {
+        DepositBuffer buffer = CURRENT.get();
+        return buffer.open ? buffer : null;
+    }
+
+    /**
+     * Queues a deposit whose capacity is already accounted for. A type slot held by an entry that
+     * merges into one already holding the type is surplus and goes straight back.
+     */
+    void add(AbstractStorage storage, int handle, long amount, boolean holdsType, int generation) {
+        int mask = table.length - 1;
+        int i = hash(storage, handle) & mask;
+        while (true) {
+            int slot = table[i] - 1;
+            if (slot < 0) {
+                break;
+            }
+            if (storages[slot] == storage && handles[slot] == handle) {
+                if (generations[slot] != generation) {
+                    // The storage was cleared since this entry was queued; its capacity went with it
+                    storage.releaseHeadroom(handle, amounts[slot]);
+                    amounts[slot] = 0;
+                    typeHeld[slot] = false;
+                    generations[slot] = generation;
+                }
+                amounts[slot] += amount;
+                if (holdsType && typeHeld[slot]) {
+                    storage.releaseTypes(1);
+                } else if (holdsType) {
+                    typeHeld[slot] = true;
+                }
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        if (size == storages.length) {
+            grow();
+            add(storage, handle, amount, holdsType, generation);
+            return;
+        }
+        // Keeps the storage from being paged out until drain() applies the entry
+        storage.holdDeferred();
+        storages[size] = storage;
+        handles[size] = handle;
+        amounts[size] = amount;
+        generations[size] = generation;
+        typeHeld[size] = holdsType;
+        table[i] = ++size;
+    }
+
+    private void drain() {
+        for (int i = 0; i < size; i++) {
+            storages[i].applyDeferred(handles[i], amounts[i], typeHeld[i], generations[i]);
+            storages[i] = null;
+        }
+        size = 0;
+        Arrays.fill(table, 0);
+    }
+
+    private void grow() {
+        int capacity = storages.length * 2;
+        storages = Arrays.copyOf(storages, capacity);
+        handles = Arrays.copyOf(handles, capacity);
+        amounts = Arrays.copyOf(amounts, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+        typeHeld = Arrays.copyOf(typeHeld, capacity);
+        table = new int[capacity * 2];
+        int mask = table.length - 1;
+        for (int slot = 0; slot < size; slot++) {
+            int i = hash(storages[slot], handles[slot]) & mask;
+            while (table[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            table[i] = slot + 1;
+        }
+    }
+
+    private static int hash(AbstractStorage storage, int handle) {
+        int h = (System.identityHashCode(storage) * 31 + handle) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
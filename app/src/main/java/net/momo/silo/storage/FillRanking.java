@@ -0,0 +1,118 @@
+package net.momo.silo.storage;
+
+import net.momo.silo.storage.StorageRegistry.NetworkFill;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Every registered storage ordered by fill ratio, kept current incrementally. A storage whose item
+ * total moves queues itself once on the registry's {@link StorageAggregates}; each read re-sorts
+ * only the storages queued since the last one, so a ranking costs the storages that changed rather
+ * than every storage registered. The registry reports membership changes as they happen.
+ */
+final class FillRanking {
+
+    private static final Comparator<NetworkFill> FULLEST_FIRST =
+        Comparator.comparingDouble(NetworkFill::ratio).reversed().thenComparing(NetworkFill::id);
+
+    private final StorageAggregates aggregates;
+    // All guarded by this
+    private final TreeSet<NetworkFill> ordered = new TreeSet<>(FULLEST_FIRST);
+    private final Map<UUID, NetworkFill> fills = new HashMap<>();
+    private final Map<UUID, Storage> loaded = new HashMap<>();
+    private final Map<Storage, UUID> ids = new IdentityHashMap<>();
+    // Storages that don't queue their changes, re-read on every ranking
+    private final Map<UUID, Storage> unqueued = new HashMap<>();
+
+    FillRanking(StorageAggregates aggregates) {
+        this.aggregates = aggregates;
+    }
+
+    /** Ranks a loaded storage under its ID, replacing whatever was ranked there. */
+    synchronized void track(UUID id, Storage storage) {
+        forget(id);
+        loaded.put(id, storage);
+        ids.put(storage, id);
+        if (!(storage instanceof AbstractStorage)) {
+            unqueued.put(id, storage);
+        }
+        rank(new NetworkFill(id, storage.getTotalItems(), storage.capacity()));
+    }
+
+    /** Ranks a dormant storage by its saved totals, replacing whatever was ranked under the ID. */
+    synchronized void trackDormant(UUID id, long totalItems, long capacity) {
+        forget(id);
+        rank(new NetworkFill(id, totalItems, capacity));
+    }
+
+    /** Drops a loaded storage, unless another one has since been ranked under its ID. */
+    synchronized void untrack(UUID id, Storage storage) {
+        if (loaded.get(id) == storage) {
+            forget(id);
+        }
+    }
+
+    /** Drops a dormant entry, unless a loaded storage has since been ranked under its ID. */
+    synchronized void untrackDormant(UUID id) {
+        if (!loaded.containsKey(id)) {
+            forget(id);
+        }
+    }
+
+    /** The {@code limit} fullest storages, fullest first. */
+    synchronized List<NetworkFill> top(int limit) {
+        applyChanges();
+        unqueued.forEach((id, storage) -> rank(new NetworkFill(id, storage.getTotalItems(), storage.capacity())));
+        List<NetworkFill> top = new ArrayList<>(Math.min(limit, ordered.size()));
+        for (NetworkFill fill : ordered) {
+            if (top.size() == limit) {
+                break;
+            }
+            top.add(fill);
+        }
+        return top;
+    }
+
+    /** Guarded by this. Re-ranks queued storages; ones no longer registered just leave the queue. */
+    private void applyChanges() {
+        AbstractStorage changed;
+        while ((changed = aggregates.nextFillChange()) != null) {
+            changed.fillChangeSeen();
+            UUID id = ids.get(changed);
+            if (id != null) {
+                rank(new NetworkFill(id, changed.getTotalItems(), changed.capacity()));
+            }
+        }
+    }
+
+    /** Guarded by this. */
+    private void rank(NetworkFill fill) {
+        NetworkFill previous = fills.put(fill.id(), fill);
+        if (previous != null) {
+            ordered.remove(previous);
+        }
+        ordered.add(fill);
+    }
+
+    /** Guarded by this. */
+    private void forget(UUID id) {
+        NetworkFill previous = fills.remove(id);
+        if (previous != null) {
+            ordered.remove(previous);
+        }
+        Storage storage = loaded.remove(id);
+        if (storage != null) {
+            ids.remove(storage);
+            unqueued.remove(id);
+            // Storages paged out or removed may still be queued; empty the queue so none is kept alive
+            applyChanges();
+        }
+    }
+}
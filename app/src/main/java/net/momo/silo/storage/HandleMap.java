@@ -0,0 +1,128 @@
+package net.momo.silo.storage;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Per-storage map from global {@link ItemIds} handles to dense indexes, assigned in first-seen
+ * order. Per-item arrays of a storage are indexed through it, so they grow with the types that
+ * storage held rather than with every ID the server ever interned. Indexes are never reassigned,
+ * not even by a clear, so one read before a concurrent change still names the same item after it.
+ * Lookups are lock-free; assignment takes a lock.
+ */
+final class HandleMap {
+
+    static final int ABSENT = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+    private volatile int size;
+
+    /** Index of a handle, or {@link #ABSENT} if it was never assigned one. */
+    int find(int handle) {
+        return table.find(handle);
+    }
+
+    /** Index of a handle, assigning the next one on first sight. */
+    int indexFor(int handle) {
+        int index = table.find(handle);
+        return index != ABSENT ? index : assign(handle);
+    }
+
+    /** Assigns indexes to the first {@code count} handles, growing the table at most once. */
+    synchronized void assignAll(int[] handles, int count) {
+        if ((size + count) * 2 > table.capacity()) {
+            table = table.grown(capacityFor(size + count));
+        }
+        for (int i = 0; i < count; i++) {
+            if (table.find(handles[i]) == ABSENT) {
+                table.put(handles[i], size++);
+            }
+        }
+    }
+
+    /** Number of indexes assigned; every index that can be found is below this. */
+    int size() {
+        return size;
+    }
+
+    private synchronized int assign(int handle) {
+        Table current = table;
+        int index = current.find(handle);
+        if (index != ABSENT) {
+            return index;
+        }
+        if ((size + 1) * 2 > current.capacity()) {
+            current = current.grown(capacityFor(size + 1));
+            table = current;
+        }
+        index = size;
+        // Size first, so anyone who can find the index also sees it counted
+        size = index + 1;
+        current.put(handle, index);
+        return index;
+    }
+
+    /** Keeps the table at most half full. */
+    private static int capacityFor(int entries) {
+        return Integer.highestOneBit(Math.max(INITIAL_CAPACITY, entries * 2) - 1) << 1;
+    }
+
+    /**
+     * Open-addressing table. A key ({@code handle + 1}, 0 = empty) is published after its value,
+     * so a reader that sees the key sees the value. Tables are replaced, never shrunk in place.
+     */
+    private static final class Table {
+        final AtomicIntegerArray keys;
+        final int[] values;
+        final int mask;
+
+        Table(int capacity) {
+            this.keys = new AtomicIntegerArray(capacity);
+            this.values = new int[capacity];
+            this.mask = capacity - 1;
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+
+        int find(int handle) {
+            int key = handle + 1;
+            for (int i = hash(handle) & mask; ; i = (i + 1) & mask) {
+                int current = keys.get(i);
+                if (current == key) {
+                    return values[i];
+                }
+                if (current == 0) {
+                    return ABSENT;
+                }
+            }
+        }
+
+        /** Guarded by the map's lock. */
+        void put(int handle, int index) {
+            int i = hash(handle) & mask;
+            while (keys.get(i) != 0) {
+                i = (i + 1) & mask;
+            }
+            values[i] = index;
+            keys.set(i, handle + 1);
+        }
+
+        Table grown(int capacity) {
+            Table to = new Table(capacity);
+            for (int i = 0; i <= mask; i++) {
+                int key = keys.get(i);
+                if (key != 0) {
+                    to.put(key - 1, values[i]);
+                }
+            }
+            return to;
+        }
+
+        private static int hash(int handle) {
+            int h = handle * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package net.momo.silo.storage;
+
+import java.math.BigInteger;
+
+/** Storage whose quantities live in paged on-heap primitive arrays. The default backend. */
+public final class HeapStorage extends AbstractStorage {
+
+    public HeapStorage(long capacity) {
+        this(capacity, DEFAULT_MAX_ITEM_TYPES);
+    }
+
+    public HeapStorage(long capacity, int maxItemTypes) {
+        super(capacity, maxItemTypes, ItemSlots::new);
+    }
+
+    public HeapStorage(BigInteger capacity) {
+        this(clampCapacity(capacity));
+    }
+
+    public HeapStorage(BigInteger capacity, int maxItemTypes) {
+        this(clampCapacity(capacity), maxItemTypes);
+    }
+}
@@ -0,0 +1,50 @@
+package net.momo.silo.storage;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/** Primitive int cells indexed by a storage's dense {@link HandleMap} index. Pages are allocated lazily and never move. */
+final class IntSlots {
+
+    private static final int PAGE_SHIFT = 6;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private volatile AtomicIntegerArray[] pages = new AtomicIntegerArray[0];
+
+    /** Returns the value at an index, or 0 if its page was never allocated. */
+    int get(int index) {
+        AtomicIntegerArray[] current = pages;
+        int page = index >>> PAGE_SHIFT;
+        return page < current.length ? current[page].get(index & PAGE_MASK) : 0;
+    }
+
+    void set(int index, int value) {
+        AtomicIntegerArray[] current = pages;
+        int page = index >>> PAGE_SHIFT;
+        if (page >= current.length) {
+            current = presize(index + 1);
+        }
+        current[page].set(index & PAGE_MASK, value);
+    }
+
+    /** Allocates pages for every index below {@code size} with a single copy of the page directory. */
+    synchronized AtomicIntegerArray[] presize(int size) {
+        AtomicIntegerArray[] current = pages;
+        int length = (size + PAGE_MASK) >>> PAGE_SHIFT;
+        if (length <= current.length) {
+            return current;
+        }
+        // Copy-on-write keeps readers lock-free; pages themselves are shared between copies
+        AtomicIntegerArray[] grown = Arrays.copyOf(current, length);
+        for (int i = current.length; i < length; i++) {
+            grown[i] = new AtomicIntegerArray(PAGE_SIZE);
+        }
+        pages = grown;
+        return grown;
+    }
+
+    synchronized void clear() {
+        pages = new AtomicIntegerArray[0];
+    }
+}
@@ -0,0 +1,85 @@
+package net.momo.silo.storage;
+
+import java.util.Arrays;
+
+/**
+ * Reusable batch of (item, quantity) pairs for {@link Storage#depositAll} and {@link Storage#withdrawAll}.
+ * Per-entry outcomes are written back into the batch. Not thread-safe; keep one per caller and clear between uses.
+ */
+public final class ItemBatch {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] handles;
+    private long[] quantities;
+    private long[] moved;
+    private int size;
+
+    public ItemBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ItemBatch(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        this.handles = new int[capacity];
+        this.quantities = new long[capacity];
+        this.moved = new long[capacity];
+    }
+
+    /** Adds an entry by item ID. Returns the entry index. */
+    public int add(String itemId, long quantity) {
+        return add(ItemIds.intern(itemId), quantity);
+    }
+
+    /** Adds an entry by handle. Returns the entry index. */
+    public int add(int handle, long quantity) {
+        if (size == handles.length) {
+            int grown = size * 2;
+            handles = Arrays.copyOf(handles, grown);
+            quantities = Arrays.copyOf(quantities, grown);
+            moved = Arrays.copyOf(moved, grown);
+        }
+        handles[size] = handle;
+        quantities[size] = quantity;
+        moved[size] = 0;
+        return size++;
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+    public int handle(int index) { return handles[index]; }
+    public String itemId(int index) { return ItemIds.name(handles[index]); }
+    public long quantity(int index) { return quantities[index]; }
+
+    /** Amount actually moved for an entry by the last batch operation. */
+    public long moved(int index) { return moved[index]; }
+
+    /** Requested minus moved for an entry. */
+    public long remainder(int index) { return quantities[index] - moved[index]; }
+
+    /** Sum of requested quantities. */
+    public long totalQuantity() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += Math.max(0, quantities[i]);
+        }
+        return total;
+    }
+
+    /** Sum of moved quantities. */
+    public long totalMoved() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += moved[i];
+        }
+        return total;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    void setMoved(int index, long amount) {
+        moved[index] = amount;
+    }
+}
@@ -0,0 +1,108 @@
+package net.momo.silo.storage;
+
+import net.momo.silo.util.Validation;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Global item ID dictionary. Interns item IDs to dense int handles shared by every Storage.
+ * Only valid IDs are ever interned, so the dictionary doubles as the validated-ID cache.
+ */
+public final class ItemIds {
+
+    /** Handle returned for item IDs that were never interned. */
+    public static final int NONE = -1;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final Map<String, Integer> handles = new ConcurrentHashMap<>();
+    private static final Object lock = new Object();
+    private static volatile String[] names = new String[INITIAL_CAPACITY];
+    private static volatile String[] lowerNames = new String[INITIAL_CAPACITY];
+    private static volatile int size;
+    private static final LongAdder validationMisses = new LongAdder();
+
+    private ItemIds() {}
+
+    /** Returns the handle for an item ID, assigning a new one on first sight. */
+    public static int intern(String itemId) {
+        Integer existing = itemId != null ? handles.get(itemId) : null;
+        if (existing != null) {
+            return existing;
+        }
+        validate(itemId);
+
+        synchronized (lock) {
+            existing = handles.get(itemId);
+            if (existing != null) {
+                return existing;
+            }
+            int handle = size;
+            String[] current = names;
+            String[] currentLower = lowerNames;
+            if (handle == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+                currentLower = Arrays.copyOf(currentLower, currentLower.length * 2);
+            }
+            current[handle] = itemId;
+            currentLower[handle] = itemId.toLowerCase(Locale.ROOT);
+            names = current;
+            lowerNames = currentLower;
+            size = handle + 1;
+            handles.put(itemId, handle);
+            return handle;
+        }
+    }
+
+    /**
+     * Throws for an invalid item ID. Valid IDs are interned, so each distinct ID runs the pattern
+     * once and every later check is a single lookup.
+     */
+    public static void requireValid(String itemId) {
+        intern(itemId);
+    }
+
+    /** Number of validations that had to run the item ID pattern because the ID was never interned. */
+    public static long validationMisses() {
+        return validationMisses.sum();
+    }
+
+    /** Returns the handle for an item ID, or {@link #NONE} if it was never interned. */
+    public static int find(String itemId) {
+        if (itemId == null) {
+            return NONE;
+        }
+        Integer handle = handles.get(itemId);
+        return handle != null ? handle : NONE;
+    }
+
+    /** Returns the item ID for a handle. */
+    public static String name(int handle) {
+        if (handle < 0 || handle >= size) {
+            throw new IllegalArgumentException("Unknown item handle: " + handle);
+        }
+        return names[handle];
+    }
+
+    /** Returns the lower-cased item ID for a handle, cached for case-insensitive search. */
+    public static String lowerName(int handle) {
+        if (handle < 0 || handle >= size) {
+            throw new IllegalArgumentException("Unknown item handle: " + handle);
+        }
+        return lowerNames[handle];
+    }
+
+    /** Returns the number of interned item IDs. Handles are always below this value. */
+    public static int size() {
+        return size;
+    }
+
+    private static void validate(String itemId) {
+        validationMisses.increment();
+        Validation.requireValidItemId(itemId);
+    }
+}
@@ -0,0 +1,84 @@
+package net.momo.silo.storage;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Primitive quantity slots indexed through the storage's {@link HandleMap}, so their size follows
+ * the types this storage held rather than the server-wide handle count. Pages are allocated lazily
+ * and never move.
+ */
+final class ItemSlots implements QuantityTable {
+
+    private static final int PAGE_SHIFT = 6;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final HandleMap handles;
+    private volatile AtomicLongArray[] pages = new AtomicLongArray[0];
+
+    ItemSlots(HandleMap handles) {
+        this.handles = handles;
+    }
+
+    /** Returns the quantity at a handle, or 0 if it was never stored here. */
+    @Override
+    public long get(int handle) {
+        int index = handles.find(handle);
+        if (index == HandleMap.ABSENT) {
+            return 0;
+        }
+        AtomicLongArray[] current = pages;
+        int page = index >>> PAGE_SHIFT;
+        return page < current.length ? current[page].get(index & PAGE_MASK) : 0;
+    }
+
+    @Override
+    public boolean compareAndSet(int handle, long expected, long value) {
+        int index = handles.indexFor(handle);
+        AtomicLongArray[] current = pages;
+        int page = index >>> PAGE_SHIFT;
+        if (page >= current.length) {
+            current = allocate(index + 1);
+        }
+        return current[page].compareAndSet(index & PAGE_MASK, expected, value);
+    }
+
+    /** Atomically adds {@code delta} to a handle's slot and returns the new value. */
+    long addAndGet(int handle, long delta) {
+        int index = handles.indexFor(handle);
+        AtomicLongArray[] current = pages;
+        int page = index >>> PAGE_SHIFT;
+        if (page >= current.length) {
+            current = allocate(index + 1);
+        }
+        return current[page].addAndGet(index & PAGE_MASK, delta);
+    }
+
+    /** Assigns the handles their indexes and allocates every page they need with one copy of the page directory. */
+    @Override
+    public void presize(int[] handles, int count) {
+        this.handles.assignAll(handles, count);
+        allocate(this.handles.size());
+    }
+
+    @Override
+    public synchronized void clear() {
+        pages = new AtomicLongArray[0];
+    }
+
+    private synchronized AtomicLongArray[] allocate(int size) {
+        AtomicLongArray[] current = pages;
+        int length = (size + PAGE_MASK) >>> PAGE_SHIFT;
+        if (length <= current.length) {
+            return current;
+        }
+        // Copy-on-write keeps readers lock-free; pages themselves are shared between copies
+        AtomicLongArray[] grown = Arrays.copyOf(current, length);
+        for (int i = current.length; i < length; i++) {
+            grown[i] = new AtomicLongArray(PAGE_SIZE);
+        }
+        pages = grown;
+        return grown;
+    }
+}
@@ -0,0 +1,215 @@
+package net.momo.silo.storage;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Open-addressing quantity table in native memory. Each 16-byte entry holds {@code handle + 1}
+ * (0 = empty) and a quantity, both accessed through VarHandle atomics. Keys are never removed in
+ * place; a resize copies only non-zero entries, so types that emptied are dropped then.
+ *
+ * <p>Resizes don't block readers or writers up front: the resizer swaps every quantity in the old
+ * table to {@link #MOVED} before copying, so an update that lands on a moved entry waits for the
+ * new table and retries there. Segments come from {@link Arena#ofAuto()} and are freed once the
+ * table that owns them is unreachable.
+ */
+final class OffHeapTable implements QuantityTable {
+
+    private static final VarHandle LONG = ValueLayout.JAVA_LONG.varHandle();
+    private static final long ENTRY_BYTES = 16;
+    private static final long QUANTITY = 8;
+    private static final long MOVED = Long.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long NOT_FOUND = -1;
+    private static final long FULL = -2;
+
+    private final Object resizeLock = new Object();
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+
+    @Override
+    public long get(int handle) {
+        while (true) {
+            Table current = table;
+            long entry = current.find(handle);
+            if (entry == NOT_FOUND) {
+                // Keys are never removed, so a miss means the handle held nothing when we read the table
+                return 0;
+            }
+            long quantity = current.quantity(entry);
+            if (quantity != MOVED) {
+                return quantity;
+            }
+            awaitResize();
+        }
+    }
+
+    @Override
+    public boolean compareAndSet(int handle, long expected, long value) {
+        while (true) {
+            Table current = table;
+            long entry = expected == 0 ? current.claim(handle) : current.find(handle);
+            if (entry == NOT_FOUND) {
+                return false;
+            }
+            if (entry == FULL) {
+                resize(current);
+                continue;
+            }
+            if (current.compareAndSetQuantity(entry, expected, value)) {
+                return true;
+            }
+            if (current.quantity(entry) != MOVED) {
+                return false;
+            }
+            awaitResize();
+        }
+    }
+
+    @Override
+    public void presize(int[] handles, int count) {
+        synchronized (resizeLock) {
+            Table current = table;
+            // Only an untouched table can be swapped out; otherwise it grows as usual
+            if (current.claimed.get() == 0 && count > current.maxClaims) {
+                table = new Table(capacityFor(count));
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (resizeLock) {
+            Table current = table;
+            for (int i = 0; i < current.capacity(); i++) {
+                current.moveOut(i * ENTRY_BYTES);
+            }
+            table = new Table(INITIAL_CAPACITY);
+        }
+    }
+
+    /** Blocks until the resize that moved an entry has published its table. */
+    private void awaitResize() {
+        synchronized (resizeLock) {
+            // The resizer holds the lock from the first moved entry until the new table is published
+        }
+    }
+
+    private void resize(Table from) {
+        synchronized (resizeLock) {
+            if (table != from) {
+                return;
+            }
+            int capacity = from.capacity();
+            int[] handles = new int[capacity];
+            long[] quantities = new long[capacity];
+            int live = 0;
+            for (int i = 0; i < capacity; i++) {
+                long entry = i * ENTRY_BYTES;
+                long quantity = from.moveOut(entry);
+                if (quantity > 0) {
+                    handles[live] = from.handle(entry);
+                    quantities[live] = quantity;
+                    live++;
+                }
+            }
+
+            Table to = new Table(capacityFor(live));
+            for (int i = 0; i < live; i++) {
+                to.put(handles[i], quantities[i]);
+            }
+            table = to;
+        }
+    }
+
+    /** Sizes a fresh table at a quarter full, leaving room to grow before the next resize. */
+    private static int capacityFor(int live) {
+        int wanted = Math.max(INITIAL_CAPACITY, live * 4);
+        return Integer.highestOneBit(wanted - 1) << 1;
+    }
+
+    private static final class Table {
+        final MemorySegment segment;
+        final int mask;
+        final int maxClaims;
+        final AtomicInteger claimed = new AtomicInteger();
+
+        Table(int capacity) {
+            this.segment = Arena.ofAuto().allocate(capacity * ENTRY_BYTES, Long.BYTES);
+            this.mask = capacity - 1;
+            this.maxClaims = capacity / 2;
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+
+        long find(int handle) {
+            long key = handle + 1L;
+            for (int i = hash(handle) & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+                long entry = i * ENTRY_BYTES;
+                long current = (long) LONG.getVolatile(segment, entry);
+                if (current == key) {
+                    return entry;
+                }
+                if (current == 0) {
+                    return NOT_FOUND;
+                }
+            }
+            return NOT_FOUND;
+        }
+
+        /** Finds or inserts a handle's entry. Returns {@link #FULL} once the table is due to grow. */
+        long claim(int handle) {
+            long key = handle + 1L;
+            for (int i = hash(handle) & mask, probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+                long entry = i * ENTRY_BYTES;
+                long current = (long) LONG.getVolatile(segment, entry);
+                if (current == 0) {
+                    if (claimed.get() >= maxClaims) {
+                        return FULL;
+                    }
+                    current = (long) LONG.compareAndExchange(segment, entry, 0L, key);
+                    if (current == 0) {
+                        claimed.incrementAndGet();
+                        return entry;
+                    }
+                }
+                if (current == key) {
+                    return entry;
+                }
+            }
+            return FULL;
+        }
+
+        int handle(long entry) {
+            return (int) ((long) LONG.getVolatile(segment, entry) - 1);
+        }
+
+        long quantity(long entry) {
+            return (long) LONG.getVolatile(segment, entry + QUANTITY);
+        }
+
+        boolean compareAndSetQuantity(long entry, long expected, long value) {
+            return LONG.compareAndSet(segment, entry + QUANTITY, expected, value);
+        }
+
+        /** Retires an entry, returning the quantity it held at that moment. */
+        long moveOut(long entry) {
+            return (long) LONG.getAndSet(segment, entry + QUANTITY, MOVED);
+        }
+
+        /** Inserts into a table that is not yet published. */
+        void put(int handle, long quantity) {
+            long entry = claim(handle);
+            LONG.set(segment, entry + QUANTITY, quantity);
+        }
+
+        private static int hash(int handle) {
+            int h = handle * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package net.momo.silo.storage;
+
+import java.util.Arrays;
+
+/**
+ * Live quantity-ordered view of a storage's items. Handles sit in log-scale buckets (four per
+ * power of two) kept as primitive arrays, so an update only touches the index when an item
+ * crosses a bucket boundary and never allocates in steady state. Iteration walks buckets from the
+ * top and orders each one by the quantities current at that moment. This trades an exact order
+ * statistic for updates that rarely touch the index; paging keeps the read side bounded instead.
+ */
+final class QuantityIndex {
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int LOCK_MASK = LOCK_STRIPES - 1;
+    private static final int SUB_BITS = 2;
+    private static final int BUCKETS = Long.SIZE << SUB_BITS;
+    private static final long HANDLE_MASK = 0xFFFF_FFFFL;
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final QuantityTable slots;
+    private final HandleMap handles;
+    private final Bucket[] buckets = new Bucket[BUCKETS];
+    // bucket + 1 per handle index, 0 when absent; written only under the handle's lock
+    private final IntSlots bucketOf = new IntSlots();
+    // Position within its bucket per handle index; written only under that bucket's lock
+    private final IntSlots positionOf = new IntSlots();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    QuantityIndex(QuantityTable slots, HandleMap handles) {
+        this.slots = slots;
+        this.handles = handles;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new Bucket();
+        }
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Brings a handle's entry in line with its current slot value. Reading the slot under the
+     * handle's lock means the last updater always leaves the index matching the slot, however
+     * concurrent slot changes interleave.
+     */
+    void update(int handle) {
+        synchronized (locks[handle & LOCK_MASK]) {
+            long current = slots.get(handle);
+            int target = current > 0 ? bucketFor(current) : -1;
+            int index = handles.indexFor(handle);
+            int previous = bucketOf.get(index) - 1;
+            if (previous == target) {
+                return;
+            }
+            if (previous >= 0) {
+                buckets[previous].remove(handle, index, this);
+            }
+            if (target >= 0) {
+                buckets[target].add(handle, index, positionOf);
+            }
+            bucketOf.set(index, target + 1);
+        }
+    }
+
+    /**
+     * Indexes handles just filled in bulk, growing each bucket once rather than per handle. The
+     * caller keeps other updates out until this returns.
+     */
+    void addAll(int[] handles, int count) {
+        this.handles.assignAll(handles, count);
+        bucketOf.presize(this.handles.size());
+        positionOf.presize(this.handles.size());
+        int[] targets = new int[count];
+        int[] sizes = new int[BUCKETS];
+        for (int i = 0; i < count; i++) {
+            long quantity = slots.get(handles[i]);
+            targets[i] = quantity > 0 ? bucketFor(quantity) : -1;
+            if (targets[i] >= 0) {
+                sizes[targets[i]]++;
+            }
+        }
+        for (int b = 0; b < BUCKETS; b++) {
+            if (sizes[b] > 0) {
+                buckets[b].reserve(sizes[b]);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (targets[i] >= 0) {
+                int handle = handles[i];
+                int index = this.handles.find(handle);
+                buckets[targets[i]].add(handle, index, positionOf);
+                bucketOf.set(index, targets[i] + 1);
+            }
+        }
+    }
+
+    /** Visits entries from highest to lowest quantity until the visitor returns false. */
+    void forEachDescending(Storage.ItemVisitor visitor) {
+        forEachDescending(0, Integer.MAX_VALUE, visitor);
+    }
+
+    /**
+     * Visits at most {@code limit} entries from highest to lowest quantity after skipping the
+     * first {@code skip}, until the visitor returns false. Whole buckets before the window are
+     * skipped by their size without being read, and a bucket the window ends in only has its top
+     * entries selected and sorted, so a page costs the buckets it overlaps rather than the offset.
+     * Skipping is exact while the storage is quiescent.
+     */
+    void forEachDescending(int skip, int limit, Storage.ItemVisitor visitor) {
+        Scratch scratch = SCRATCH.get();
+        // A visitor that iterates again on this thread gets its own scratch
+        if (scratch.inUse) {
+            scratch = new Scratch();
+        }
+        scratch.inUse = true;
+        try {
+            int remaining = limit;
+            for (int b = BUCKETS - 1; b >= 0 && remaining > 0; b--) {
+                Bucket bucket = buckets[b];
+                int size = bucket.size;
+                if (size == 0) {
+                    continue;
+                }
+                if (skip >= size) {
+                    skip -= size;
+                    continue;
+                }
+                int count = bucket.copyTo(scratch);
+                long[] keys = scratch.keys;
+                int live = 0;
+                for (int i = 0; i < count; i++) {
+                    int handle = scratch.handles[i];
+                    long quantity = slots.get(handle);
+                    if (quantity > 0) {
+                        keys[live++] = (quantity << 32) | (handle & HANDLE_MASK);
+                    }
+                }
+                // Only the top skip + remaining of this bucket can be visited, so sort just those
+                int wanted = (int) Math.min(live, (long) skip + remaining);
+                selectTop(keys, live, wanted);
+                Arrays.sort(keys, live - wanted, live);
+                for (int i = live - 1 - skip; i >= live - wanted; i--) {
+                    remaining--;
+                    if (!visitor.visit((int) (keys[i] & HANDLE_MASK), keys[i] >>> 32)) {
+                        return;
+                    }
+                }
+                skip = Math.max(0, skip - live);
+            }
+        } finally {
+            scratch.inUse = false;
+        }
+    }
+
+    void clear() {
+        for (Bucket bucket : buckets) {
+            bucket.clear();
+        }
+        bucketOf.clear();
+        positionOf.clear();
+    }
+
+    /**
+     * Moves the {@code k} largest of {@code keys[0..count)} into {@code keys[count-k..count)} in
+     * expected linear time (quickselect), leaving both parts unordered.
+     */
+    private static void selectTop(long[] keys, int count, int k) {
+        int target = count - k;
+        int lo = 0;
+        int hi = count - 1;
+        while (k > 0 && k < count && lo < hi) {
+            long pivot = median(keys[lo], keys[(lo + hi) >>> 1], keys[hi]);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    long swap = keys[i];
+                    keys[i++] = keys[j];
+                    keys[j--] = swap;
+                }
+            }
+            if (target <= j) {
+                hi = j;
+            } else if (target >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static long median(long a, long b, long c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    /** Log-scale bucket: the exponent picks the power of two, the next {@link #SUB_BITS} bits split it. */
+    private static int bucketFor(long quantity) {
+        int exponent = 63 - Long.numberOfLeadingZeros(quantity);
+        long fraction = exponent >= SUB_BITS ? quantity >>> (exponent - SUB_BITS) : quantity << (SUB_BITS - exponent);
+        return exponent << SUB_BITS | (int) (fraction & ((1 << SUB_BITS) - 1));
+    }
+
+    /** Unordered handle set with O(1) add and swap-remove. */
+    private static final class Bucket {
+        private int[] handles = new int[0];
+        private volatile int size;
+
+        synchronized void add(int handle, int index, IntSlots positionOf) {
+            if (size == handles.length) {
+                handles = Arrays.copyOf(handles, Math.max(4, size * 2));
+            }
+            handles[size] = handle;
+            positionOf.set(index, size);
+            size++;
+        }
+
+        synchronized void reserve(int extra) {
+            if (size + extra > handles.length) {
+                handles = Arrays.copyOf(handles, size + extra);
+            }
+        }
+
+        synchronized void remove(int handle, int index, QuantityIndex owner) {
+            int position = owner.positionOf.get(index);
+            // Stale after a concurrent clear
+            if (position >= size || handles[position] != handle) {
+                return;
+            }
+            int last = handles[--size];
+            handles[position] = last;
+            owner.positionOf.set(owner.handles.find(last), position);
+        }
+
+        synchronized int copyTo(Scratch scratch) {
+            scratch.ensure(size);
+            System.arraycopy(handles, 0, scratch.handles, 0, size);
+            return size;
+        }
+
+        synchronized void clear() {
+            handles = new int[0];
+            size = 0;
+        }
+    }
+
+    /** Per-thread iteration buffers, grown to the largest bucket seen. */
+    private static final class Scratch {
+        int[] handles = new int[64];
+        long[] keys = new long[64];
+        boolean inUse;
+
+        void ensure(int capacity) {
+            if (handles.length < capacity) {
+                int grown = Math.max(capacity, handles.length * 2);
+                handles = new int[grown];
+                keys = new long[grown];
+            }
+        }
+    }
+}
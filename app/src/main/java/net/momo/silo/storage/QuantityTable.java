@@ -0,0 +1,15 @@
+package net.momo.silo.storage;
+
+/** Per-storage quantity cells keyed by item handle. Absent handles read as 0. */
+interface QuantityTable {
+
+    long get(int handle);
+
+    /** Atomically sets a handle's quantity if it currently equals {@code expected}. */
+    boolean compareAndSet(int handle, long expected, long value);
+
+    /** Makes room for a bulk load of the first {@code count} handles, so filling them never grows the table. */
+    void presize(int[] handles, int count);
+
+    void clear();
+}
@@ -0,0 +1,112 @@
+package net.momo.silo.storage;
+
+import java.util.Arrays;
+
+/**
+ * Reusable two-phase hold on a storage. Each entry holds either capacity for a deposit or items for
+ * a withdrawal; the caller moves items in the world, {@link #settle settles} each entry with the
+ * amount that actually moved, then {@link Storage#commit commits}. Whatever was held but not settled
+ * goes back, so nothing needs rolling back by hand. Not thread-safe; keep one per caller.
+ */
+public final class Reservation {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    static final byte CAPACITY = 0;
+    static final byte CAPACITY_AND_TYPE = 1;
+    static final byte ITEMS = 2;
+
+    private int[] handles;
+    private long[] held;
+    private long[] settled;
+    private byte[] kinds;
+    private int size;
+    private Storage owner;
+    private boolean closed;
+
+    public Reservation() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public Reservation(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        this.handles = new int[capacity];
+        this.held = new long[capacity];
+        this.settled = new long[capacity];
+        this.kinds = new byte[capacity];
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    /** True until committed or aborted; a caller's finally block aborts a reservation still open. */
+    public boolean isOpen() { return !closed; }
+    public int handle(int entry) { return handles[entry]; }
+    public String itemId(int entry) { return ItemIds.name(handles[entry]); }
+
+    /** Amount held for an entry: capacity for deposits, items for withdrawals. */
+    public long held(int entry) { return held[entry]; }
+
+    /** Amount the entry commits; 0 until settled. */
+    public long settled(int entry) { return settled[entry]; }
+
+    /** True if the entry holds items taken out of the storage rather than free capacity. */
+    public boolean holdsItems(int entry) { return kinds[entry] == ITEMS; }
+
+    /** Records how much of an entry actually moved, clamped to what was held. */
+    public void settle(int entry, long amount) {
+        requireOpen();
+        settled[entry] = Math.max(0, Math.min(amount, held[entry]));
+    }
+
+    /** Starts over for reuse. Only call once the previous use was committed or aborted. */
+    public void clear() {
+        size = 0;
+        owner = null;
+        closed = false;
+    }
+
+    /** Ties the reservation to a storage before it holds anything there. */
+    void bind(Storage storage) {
+        requireOpen();
+        if (owner == null) {
+            owner = storage;
+        } else if (owner != storage) {
+            throw new IllegalArgumentException("Reservation already holds entries of another storage");
+        }
+    }
+
+    int add(int handle, long amount, byte kind) {
+        if (size == handles.length) {
+            int grown = size * 2;
+            handles = Arrays.copyOf(handles, grown);
+            held = Arrays.copyOf(held, grown);
+            settled = Arrays.copyOf(settled, grown);
+            kinds = Arrays.copyOf(kinds, grown);
+        }
+        handles[size] = handle;
+        held[size] = amount;
+        settled[size] = 0;
+        kinds[size] = kind;
+        return size++;
+    }
+
+    byte kind(int entry) {
+        return kinds[entry];
+    }
+
+    /** Marks the reservation committed or aborted. Fails if it belongs to another storage or already closed. */
+    void close(Storage storage) {
+        requireOpen();
+        if (owner != null && owner != storage) {
+            throw new IllegalArgumentException("Reservation belongs to another storage");
+        }
+        closed = true;
+    }
+
+    private void requireOpen() {
+        if (closed) {
+            throw new IllegalStateException("Reservation already committed or aborted; clear it before reuse");
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package net.momo.silo.storage;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Trigram index over the item types currently present in one storage. Postings are sorted
+ * handle arrays, so a query intersects the postings of its trigrams instead of scanning every
+ * item. Item IDs are ASCII ({@link net.momo.silo.util.Validation}), so a trigram packs into 21 bits.
+ * The index is built from the storage's items on the first query, so loading or filling a storage
+ * nobody searches never pays for it.
+ */
+final class SearchIndex {
+
+    static final int MIN_QUERY_LENGTH = 3;
+
+    private final StampedLock lock = new StampedLock();
+    private final Map<Integer, Postings> postings = new HashMap<>();
+    // 1 per handle index while its item is indexed
+    private final IntSlots present = new IntSlots();
+    private final QuantityIndex items;
+    private final HandleMap handles;
+    // Written under the write lock; until set, updates are left to the build
+    private volatile boolean built;
+
+    SearchIndex(QuantityIndex items, HandleMap handles) {
+        this.items = items;
+        this.handles = handles;
+    }
+
+    /**
+     * Adds or removes a handle to match whether its slot is non-empty. Called on 0 ↔ non-zero
+     * transitions once the write has closed on the version clock, so snapshots never wait on this lock.
+     */
+    void update(int handle, QuantityTable slots) {
+        long stamp = lock.writeLock();
+        try {
+            if (!built) {
+                // The slot changed before this call, so a build that runs later sees it
+                return;
+            }
+            // Re-read under the lock so the last caller always leaves the index matching the slot
+            boolean shouldBePresent = slots.get(handle) > 0;
+            int index = handles.indexFor(handle);
+            boolean isPresent = present.get(index) != 0;
+            if (shouldBePresent == isPresent) {
+                return;
+            }
+            String name = ItemIds.lowerName(handle);
+            for (int i = 0; i + MIN_QUERY_LENGTH <= name.length(); i++) {
+                int gram = gram(name, i);
+                if (shouldBePresent) {
+                    postings.computeIfAbsent(gram, g -> new Postings()).add(handle);
+                } else {
+                    Postings list = postings.get(gram);
+                    if (list != null && list.remove(handle) && list.size == 0) {
+                        postings.remove(gram);
+                    }
+                }
+            }
+            present.set(index, shouldBePresent ? 1 : 0);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns handles whose lower-cased ID contains {@code lowerQuery}. The query must be at least
+     * {@link #MIN_QUERY_LENGTH} characters. Handles whose item left mid-query may still be returned.
+     */
+    int[] find(String lowerQuery) {
+        int gramCount = lowerQuery.length() - MIN_QUERY_LENGTH + 1;
+        for (int i = 0; i < lowerQuery.length(); i++) {
+            if (lowerQuery.charAt(i) > 0x7F) {
+                return new int[0];
+            }
+        }
+
+        if (!built) {
+            build();
+        }
+        long stamp = lock.readLock();
+        int[] candidates;
+        int count;
+        try {
+            Postings smallest = null;
+            for (int i = 0; i < gramCount; i++) {
+                Postings list = postings.get(gram(lowerQuery, i));
+                if (list == null) {
+                    return new int[0];
+                }
+                if (smallest == null || list.size < smallest.size) {
+                    smallest = list;
+                }
+            }
+
+            candidates = Arrays.copyOf(smallest.handles, smallest.size);
+            count = candidates.length;
+            for (int i = 0; i < gramCount && count > 0; i++) {
+                Postings list = postings.get(gram(lowerQuery, i));
+                if (list == smallest) {
+                    continue;
+                }
+                int kept = 0;
+                for (int c = 0; c < count; c++) {
+                    if (list.contains(candidates[c])) {
+                        candidates[kept++] = candidates[c];
+                    }
+                }
+                count = kept;
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+
+        // Trigram hits can be out of order in the ID, so confirm the actual substring
+        int matched = 0;
+        for (int c = 0; c < count; c++) {
+            if (ItemIds.lowerName(candidates[c]).contains(lowerQuery)) {
+                candidates[matched++] = candidates[c];
+            }
+        }
+        return Arrays.copyOf(candidates, matched);
+    }
+
+    void clear() {
+        long stamp = lock.writeLock();
+        try {
+            built = false;
+            postings.clear();
+            present.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Indexes every item present under one write lock. Each (trigram, handle) pair is packed into
+     * one long and sorted, so every trigram's postings are looked up once and filled in one pass.
+     */
+    private void build() {
+        long stamp = lock.writeLock();
+        try {
+            if (built) {
+                return;
+            }
+            int[][] collected = {new int[64]};
+            int[] size = {0};
+            int[] grams = {0};
+            items.forEachDescending((handle, quantity) -> {
+                if (size[0] == collected[0].length) {
+                    collected[0] = Arrays.copyOf(collected[0], size[0] * 2);
+                }
+                collected[0][size[0]++] = handle;
+                grams[0] += Math.max(0, ItemIds.lowerName(handle).length() - MIN_QUERY_LENGTH + 1);
+                return true;
+            });
+            int[] handles = collected[0];
+            long[] pairs = new long[grams[0]];
+            int filled = 0;
+            for (int i = 0; i < size[0]; i++) {
+                String name = ItemIds.lowerName(handles[i]);
+                for (int g = 0; g + MIN_QUERY_LENGTH <= name.length(); g++) {
+                    pairs[filled++] = (long) gram(name, g) << 32 | handles[i];
+                }
+            }
+            Arrays.sort(pairs, 0, filled);
+
+            for (int start = 0; start < filled; ) {
+                int gram = (int) (pairs[start] >>> 32);
+                int end = start;
+                while (end < filled && (int) (pairs[end] >>> 32) == gram) {
+                    end++;
+                }
+                Postings list = new Postings();
+                list.addSorted(pairs, start, end);
+                postings.put(gram, list);
+                start = end;
+            }
+            present.presize(this.handles.size());
+            for (int i = 0; i < size[0]; i++) {
+                present.set(this.handles.indexFor(handles[i]), 1);
+            }
+            built = true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private static int gram(String s, int i) {
+        return (s.charAt(i) & 0x7F) << 14 | (s.charAt(i + 1) & 0x7F) << 7 | (s.charAt(i + 2) & 0x7F);
+    }
+
+    /** Sorted, growable int array of handles. */
+    private static final class Postings {
+        int[] handles = new int[4];
+        int size;
+
+        void add(int handle) {
+            int pos = Arrays.binarySearch(handles, 0, size, handle);
+            if (pos >= 0) {
+                return;
+            }
+            int insert = -pos - 1;
+            if (size == handles.length) {
+                handles = Arrays.copyOf(handles, size * 2);
+            }
+            System.arraycopy(handles, insert, handles, insert + 1, size - insert);
+            handles[insert] = handle;
+            size++;
+        }
+
+        /** Fills fresh postings from the handles in the low halves of {@code pairs[from..to)}, which ascend. */
+        void addSorted(long[] pairs, int from, int to) {
+            handles = new int[to - from];
+            int previous = -1;
+            for (int i = from; i < to; i++) {
+                int handle = (int) pairs[i];
+                // A name repeating a trigram yields the same pair twice
+                if (handle != previous) {
+                    handles[size++] = handle;
+                    previous = handle;
+                }
+            }
+        }
+
+        boolean remove(int handle) {
+            int pos = Arrays.binarySearch(handles, 0, size, handle);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(handles, pos + 1, handles, pos, size - pos - 1);
+            size--;
+            return true;
+        }
+
+        boolean contains(int handle) {
+            return Arrays.binarySearch(handles, 0, size, handle) >= 0;
+        }
+    }
+}
@@ -1,243 +1,133 @@
 package net.momo.silo.storage;
 
 import net.momo.silo.util.Result;
-import net.momo.silo.util.Validation;
 
-import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
-/** Generic storage container. Thread-safe with bounded capacity. */
-public final class Storage {
+/**
+ * Generic storage container. Thread-safe with bounded capacity. Quantities are keyed by {@link ItemIds} handle.
+ * Implementations differ only in where quantities live; see {@link StorageBackend}.
+ */
+public interface Storage {
 
-    private static final int MAX_UNIQUE_ITEMS = 10_000;
-    private static final long MAX_QUANTITY_PER_ITEM = 1_000_000_000L;
+    /** Unique item types a storage accepts unless configured otherwise. */
+    int DEFAULT_MAX_ITEM_TYPES = 100_000;
 
-    private final Map<String, AtomicLong> items = new ConcurrentHashMap<>();
-    private final AtomicLong totalItems = new AtomicLong();
-    private final AtomicInteger uniqueItemCount = new AtomicInteger();
-    private final long capacity;
+    /** Deposit items into storage. Returns new total quantity on success. */
+    Result<Long> deposit(String itemId, long quantity);
 
-    public Storage(long capacity) {
-        Validation.requirePositive(capacity, "capacity");
-        this.capacity = capacity;
-    }
+    /** Deposit items by handle. Returns new total quantity on success. */
+    Result<Long> deposit(int handle, long quantity);
 
-    public Storage(BigInteger capacity) {
-        Validation.requirePositive(capacity, "capacity");
-        this.capacity = capacity.min(BigInteger.valueOf(Long.MAX_VALUE)).longValue();
-    }
+    /** Allocation-free deposit. Returns the amount deposited, or a negative {@link StorageStatus} code. */
+    long tryDeposit(int handle, long quantity);
 
-    /** Deposit items into storage. Returns new total quantity on success. */
-    public Result<Long> deposit(String itemId, long quantity) {
-        Validation.requireValidItemId(itemId);
-        if (quantity <= 0) {
-            return Result.failure("Quantity must be positive");
-        }
-
-        AtomicLong counter = getOrCreateCounterForDeposit(itemId);
-        if (counter == null) {
-            return Result.failure("Maximum unique item types reached");
-        }
-
-        while (true) {
-            long currentItem = counter.get();
-            long maxForItem = MAX_QUANTITY_PER_ITEM - currentItem;
-            if (maxForItem <= 0) {
-                discardIfEmpty(itemId, counter);
-                return Result.failure("Cannot add more of this item");
-            }
-
-            long desired = Math.min(quantity, maxForItem);
-            long reserved = reserveCapacity(desired);
-            if (reserved <= 0) {
-                discardIfEmpty(itemId, counter);
-                return Result.failure("Storage is full");
-            }
-
-            if (counter.compareAndSet(currentItem, currentItem + reserved)) {
-                return Result.success(currentItem + reserved);
-            }
-
-            totalItems.addAndGet(-reserved);
-        }
-    }
+    /**
+     * Deposits every entry of a batch under a single capacity reservation. Entries are filled in order
+     * until capacity runs out; each entry's deposited amount is written back to the batch.
+     * Returns the total deposited.
+     */
+    long depositAll(ItemBatch batch);
+
+    /**
+     * Fills an empty storage with saved contents in one presized pass, without the validation,
+     * limit checks and per-item reservations a deposit makes. For load paths only: handles must be
+     * distinct, and no other thread may use the storage until this returns.
+     */
+    void restore(int[] handles, long[] quantities, int count);
 
     /** Withdraw items from storage. Returns amount actually withdrawn. */
-    public Result<Long> withdraw(String itemId, long quantity) {
-        Validation.requireValidItemId(itemId);
-        if (quantity <= 0) {
-            return Result.failure("Quantity must be positive");
-        }
-
-        AtomicLong counter = items.get(itemId);
-        if (counter == null) {
-            return Result.success(0L);
-        }
-
-        while (true) {
-            long current = counter.get();
-            if (current <= 0) {
-                discardIfEmpty(itemId, counter);
-                return Result.success(0L);
-            }
-
-            long toRemove = Math.min(quantity, current);
-            long remaining = current - toRemove;
-            if (counter.compareAndSet(current, remaining)) {
-                totalItems.addAndGet(-toRemove);
-                if (remaining == 0) {
-                    discardIfEmpty(itemId, counter);
-                }
-                return Result.success(toRemove);
-            }
-        }
-    }
+    Result<Long> withdraw(String itemId, long quantity);
 
-    public Optional<StoredItem> getItem(String itemId) {
-        AtomicLong counter = items.get(itemId);
-        if (counter == null) {
-            return Optional.empty();
-        }
-        long quantity = counter.get();
-        if (quantity <= 0) {
-            return Optional.empty();
-        }
-        return Optional.of(new StoredItem(itemId, quantity));
-    }
+    /** Withdraw items by handle. Returns amount actually withdrawn. */
+    Result<Long> withdraw(int handle, long quantity);
 
-    public long getQuantity(String itemId) {
-        AtomicLong counter = items.get(itemId);
-        return counter != null ? counter.get() : 0;
-    }
+    /** Allocation-free withdrawal. Returns the amount withdrawn, or a negative {@link StorageStatus} code. */
+    long tryWithdraw(int handle, long quantity);
 
-    public boolean hasItem(String itemId) {
-        return getQuantity(itemId) > 0;
-    }
+    /**
+     * Withdraws every entry of a batch and returns the freed capacity in one release.
+     * Each entry's withdrawn amount is written back to the batch. Returns the total withdrawn.
+     */
+    long withdrawAll(ItemBatch batch);
 
-    public long getTotalItems() {
-        return totalItems.get();
-    }
+    /**
+     * Holds capacity for a later deposit of up to {@code quantity} of an item, including its type slot
+     * if the item is new. Returns the reservation entry, or -1 if nothing could be held.
+     * Committing a held amount cannot fail.
+     */
+    int reserveCapacity(Reservation reservation, int handle, long quantity);
 
-    public int getUniqueItemCount() {
-        return uniqueItemCount.get();
-    }
+    /**
+     * Takes up to {@code quantity} of an item out of circulation for a later withdrawal. Returns the
+     * reservation entry, or -1 if the item is absent. Unsettled items return on commit or abort.
+     */
+    int reserveItems(Reservation reservation, int handle, long quantity);
 
-    public long capacity() {
-        return capacity;
-    }
+    /**
+     * Applies each entry's settled amount and returns everything else that was held. Deposits
+     * committed while the thread's {@link DepositBuffer} is open keep their capacity but reach
+     * item quantities at its flush.
+     */
+    void commit(Reservation reservation);
 
-    public long getRemainingCapacity() {
-        return Math.max(0, capacity - totalItems.get());
-    }
+    /** Returns everything the reservation held, as if nothing had been settled. */
+    void abort(Reservation reservation);
 
-    public List<StoredItem> getItemsSorted() {
-        List<StoredItem> result = new ArrayList<>();
-        items.forEach((itemId, counter) -> {
-            long quantity = counter.get();
-            if (quantity > 0) {
-                result.add(new StoredItem(itemId, quantity));
-            }
-        });
-        result.sort(Comparator.comparingLong(StoredItem::quantity).reversed());
-        return result;
-    }
+    Optional<StoredItem> getItem(String itemId);
 
-    public List<StoredItem> searchItems(String query) {
-        if (query == null || query.isEmpty()) {
-            return getItemsSorted();
-        }
-        String lowerQuery = query.toLowerCase();
-        List<StoredItem> result = new ArrayList<>();
-        items.forEach((itemId, counter) -> {
-            if (!itemId.toLowerCase().contains(lowerQuery)) {
-                return;
-            }
-            long quantity = counter.get();
-            if (quantity > 0) {
-                result.add(new StoredItem(itemId, quantity));
-            }
-        });
-        result.sort(Comparator.comparingLong(StoredItem::quantity).reversed());
-        return result;
-    }
+    long getQuantity(String itemId);
 
-    public Map<String, Long> getItemsAsMap() {
-        Map<String, Long> result = new HashMap<>();
-        items.forEach((itemId, counter) -> {
-            long quantity = counter.get();
-            if (quantity > 0) {
-                result.put(itemId, quantity);
-            }
-        });
-        return Collections.unmodifiableMap(result);
-    }
+    long getQuantity(int handle);
 
-    public void clear() {
-        items.clear();
-        totalItems.set(0);
-        uniqueItemCount.set(0);
-    }
+    boolean hasItem(String itemId);
 
-    private AtomicLong getOrCreateCounterForDeposit(String itemId) {
-        AtomicLong existing = items.get(itemId);
-        if (existing != null) {
-            return existing;
-        }
-
-        if (!tryIncrementUniqueCount()) {
-            return null;
-        }
-
-        AtomicLong created = new AtomicLong(0);
-        AtomicLong raced = items.putIfAbsent(itemId, created);
-        if (raced != null) {
-            uniqueItemCount.decrementAndGet();
-            return raced;
-        }
-        return created;
-    }
+    long getTotalItems();
 
-    private boolean tryIncrementUniqueCount() {
-        while (true) {
-            int current = uniqueItemCount.get();
-            if (current >= MAX_UNIQUE_ITEMS) {
-                return false;
-            }
-            if (uniqueItemCount.compareAndSet(current, current + 1)) {
-                return true;
-            }
-        }
-    }
+    int getUniqueItemCount();
 
-    private long reserveCapacity(long desired) {
-        while (true) {
-            long currentTotal = totalItems.get();
-            if (currentTotal >= capacity) {
-                return 0;
-            }
-            long maxByCapacity = capacity - currentTotal;
-            long toReserve = Math.min(desired, maxByCapacity);
-            if (toReserve <= 0) {
-                return 0;
-            }
-            if (totalItems.compareAndSet(currentTotal, currentTotal + toReserve)) {
-                return toReserve;
-            }
-        }
-    }
+    /** Maximum number of distinct item types this storage accepts. */
+    int maxItemTypes();
+
+    long capacity();
+
+    long getRemainingCapacity();
+
+    /** Monotonic change counter. Two equal reads mean no deposit or withdrawal completed in between. */
+    long version();
+
+    /** Feed of per-item changes for delta consumers (UI patches, incremental saves). */
+    ChangeFeed changes();
+
+    /** Returns all items ordered by quantity, highest first. */
+    List<StoredItem> getItemsSorted();
+
+    /** Returns one page of items ordered by quantity, highest first. */
+    List<StoredItem> getItemsSorted(int offset, int limit);
+
+    /**
+     * Visits items from highest to lowest quantity without copying. Reported quantities may trail
+     * updates that are still in flight, so treat them as a hint and let deposit/withdraw decide.
+     */
+    void forEachByQuantity(ItemVisitor visitor);
+
+    List<StoredItem> searchItems(String query);
+
+    Map<String, Long> getItemsAsMap();
+
+    /**
+     * Copies the contents without pausing writers. The copy is retried until no write overlapped
+     * it; under sustained writes the last attempt is returned and flagged inconsistent.
+     */
+    StorageSnapshot snapshot();
+
+    void clear();
 
-    private void discardIfEmpty(String itemId, AtomicLong counter) {
-        if (counter.get() == 0 && items.remove(itemId, counter)) {
-            uniqueItemCount.decrementAndGet();
-        }
+    /** Visitor over stored items by handle. Return false to stop iterating. */
+    @FunctionalInterface
+    interface ItemVisitor {
+        boolean visit(int handle, long quantity);
     }
 }
@@ -0,0 +1,63 @@
+package net.momo.silo.storage;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Network-wide totals kept current by the storages themselves: each attached storage's capacity
+ * ledgers add their deltas to these striped adders, so reads cost the same however many storages
+ * exist. Totals are exact once in-flight deposits and withdrawals complete.
+ */
+public final class StorageAggregates {
+
+    final LongAdder items = new LongAdder();
+    final LongAdder types = new LongAdder();
+    private final LongAdder capacity = new LongAdder();
+    private final LongAdder storages = new LongAdder();
+    // Storages whose item total moved since the fill ranking last read them, each queued once
+    private final ConcurrentLinkedQueue<AbstractStorage> fillChanges = new ConcurrentLinkedQueue<>();
+
+    StorageAggregates() {}
+
+    public long totalItems() {
+        return items.sum();
+    }
+
+    public long totalCapacity() {
+        return capacity.sum();
+    }
+
+    /** Sum of each storage's unique item count; a type held by two networks counts twice. */
+    public long uniqueTypes() {
+        return types.sum();
+    }
+
+    public int storageCount() {
+        return (int) storages.sum();
+    }
+
+    /** Items stored over capacity across every storage, 0 when there is none. */
+    public double fillRatio() {
+        long total = capacity.sum();
+        return total == 0 ? 0 : (double) items.sum() / total;
+    }
+
+    void added(long storageCapacity) {
+        capacity.add(storageCapacity);
+        storages.increment();
+    }
+
+    void removed(long storageCapacity) {
+        capacity.add(-storageCapacity);
+        storages.decrement();
+    }
+
+    void fillChanged(AbstractStorage storage) {
+        fillChanges.add(storage);
+    }
+
+    /** Next storage queued by {@link #fillChanged}, or null once the queue is empty. */
+    AbstractStorage nextFillChange() {
+        return fillChanges.poll();
+    }
+}
@@ -0,0 +1,37 @@
+package net.momo.silo.storage;
+
+import java.math.BigInteger;
+
+/** Where a registry's storages keep their quantities. */
+public enum StorageBackend {
+
+    /** Paged primitive arrays on the Java heap. */
+    HEAP {
+        @Override
+        public Storage create(long capacity, int maxItemTypes) {
+            return new HeapStorage(capacity, maxItemTypes);
+        }
+    },
+
+    /** Open-addressing table in native memory. */
+    OFF_HEAP {
+        @Override
+        public Storage create(long capacity, int maxItemTypes) {
+            return new OffHeapStorage(capacity, maxItemTypes);
+        }
+    };
+
+    public abstract Storage create(long capacity, int maxItemTypes);
+
+    public Storage create(long capacity) {
+        return create(capacity, Storage.DEFAULT_MAX_ITEM_TYPES);
+    }
+
+    public Storage create(BigInteger capacity) {
+        return create(capacity, Storage.DEFAULT_MAX_ITEM_TYPES);
+    }
+
+    public Storage create(BigInteger capacity, int maxItemTypes) {
+        return create(AbstractStorage.clampCapacity(capacity), maxItemTypes);
+    }
+}
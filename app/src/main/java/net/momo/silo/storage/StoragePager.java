@@ -0,0 +1,14 @@
+package net.momo.silo.storage;
+
+import java.util.UUID;
+
+/** Persistence side of paging: tells the registry where an idle storage can be read back from. */
+@FunctionalInterface
+public interface StoragePager {
+
+    /**
+     * Source holding exactly the contents {@code storage} had at {@code version}, or null if those
+     * are not durable yet and the storage must stay loaded.
+     */
+    StorageSource durableSource(UUID id, Storage storage, long version);
+}
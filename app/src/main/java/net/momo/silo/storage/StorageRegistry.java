@@ -1,56 +1,395 @@
 package net.momo.silo.storage;
 
+import com.hypixel.hytale.logger.HytaleLogger;
+
 import java.math.BigInteger;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 
-/** Registry mapping UUIDs to Storage instances. Thread-safe. */
+/**
+ * Registry mapping UUIDs to Storage instances. Thread-safe. Storages it creates use one {@link StorageBackend}.
+ * Registered storages feed the registry's {@link StorageAggregates} as they change.
+ *
+ * <p>A storage can also be registered dormant: known by its saved totals, with contents left in a
+ * {@link StorageSource} until the first {@link #get} or {@link #getOrCreate} pages it in. With a
+ * {@link StoragePager} set, {@link #evictIdle} pages loaded storages nobody looked up for a while
+ * back out, once their contents are durable. Iteration and {@link #getIfLoaded} never page in.
+ */
 public final class StorageRegistry {
 
+    private static final HytaleLogger logger = HytaleLogger.forEnclosingClass();
     private static final long DEFAULT_CAPACITY = 100_000;
 
     private final Map<UUID, Storage> storages = new ConcurrentHashMap<>();
+    private final Map<UUID, Dormant> dormant = new ConcurrentHashMap<>();
+    private final StorageBackend backend;
+    private final StorageAggregates aggregates = new StorageAggregates();
+    // Membership changes plus the final versions of removed storages, so modCount() never goes back
+    private final AtomicLong retired = new AtomicLong();
+    // Logical versions of dormant storages, so paging in or out leaves modCount() where it was
+    private final AtomicLong dormantVersions = new AtomicLong();
+    // Guards moves between the loaded and dormant maps, and listings that must see each ID once
+    private final Object paging = new Object();
+    private volatile StoragePager pager;
+    private final FillRanking fillRanking = new FillRanking(aggregates);
+
+    public StorageRegistry() {
+        this(StorageBackend.HEAP);
+    }
+
+    public StorageRegistry(StorageBackend backend) {
+        this.backend = Objects.requireNonNull(backend, "backend");
+    }
+
+    public StorageBackend backend() {
+        return backend;
+    }
+
+    /** Totals across every registered storage. O(1) to read. */
+    public StorageAggregates aggregates() {
+        return aggregates;
+    }
 
     public Storage getOrCreate(UUID id) {
-        return storages.computeIfAbsent(id, k -> new Storage(DEFAULT_CAPACITY));
+        return getOrCreate(id, () -> backend.create(DEFAULT_CAPACITY));
     }
 
     public Storage getOrCreate(UUID id, long capacity) {
-        return storages.computeIfAbsent(id, k -> new Storage(capacity));
+        return getOrCreate(id, () -> backend.create(capacity));
     }
 
     public Storage getOrCreate(UUID id, BigInteger capacity) {
-        return storages.computeIfAbsent(id, k -> new Storage(capacity));
+        return getOrCreate(id, () -> backend.create(capacity));
+    }
+
+    public Storage getOrCreate(UUID id, BigInteger capacity, int maxItemTypes) {
+        return getOrCreate(id, () -> backend.create(capacity, maxItemTypes));
     }
 
+    /** The storage for an ID, paging it in if dormant. */
     public Optional<Storage> get(UUID id) {
+        return Optional.ofNullable(loaded(id));
+    }
+
+    /** The storage for an ID only if it is loaded; never pages in or counts as an access. */
+    public Optional<Storage> getIfLoaded(UUID id) {
         return Optional.ofNullable(storages.get(id));
     }
 
     public void register(UUID id, Storage storage) {
         Objects.requireNonNull(id, "id");
         Objects.requireNonNull(storage, "storage");
-        storages.put(id, storage);
+        synchronized (paging) {
+            discardDormant(id);
+            Storage previous = storages.put(id, added(id, storage));
+            if (previous != null && previous != storage) {
+                removed(id, previous);
+            }
+        }
+    }
+
+    /**
+     * Registers a storage filled from saved contents through {@link Storage#restore}, replacing any
+     * storage under the ID. The contents are in place before the registry's totals see them.
+     */
+    public Storage restore(UUID id, BigInteger capacity, int maxItemTypes,
+            int[] handles, long[] quantities, int count) {
+        Storage storage = backend.create(capacity, maxItemTypes);
+        storage.restore(handles, quantities, count);
+        register(id, storage);
+        return storage;
+    }
+
+    /**
+     * Registers a storage by its saved totals without loading it. Its contents come from
+     * {@code source} on first access. Ignored if the ID is already registered.
+     */
+    public void registerDormant(UUID id, long capacity, int maxItemTypes, long totalItems, int uniqueTypes,
+            StorageSource source) {
+        Objects.requireNonNull(source, "source");
+        synchronized (paging) {
+            if (storages.containsKey(id) || dormant.containsKey(id)) {
+                return;
+            }
+            enterDormant(id, new Dormant(capacity, maxItemTypes, totalItems, uniqueTypes, 0, source));
+            retired.incrementAndGet();
+        }
     }
 
     public boolean unregister(UUID id) {
-        return storages.remove(id) != null;
+        synchronized (paging) {
+            if (discardDormant(id)) {
+                return true;
+            }
+            Storage storage = storages.remove(id);
+            if (storage == null) {
+                return false;
+            }
+            removed(id, storage);
+            return true;
+        }
     }
 
+    /** True if the ID is registered, loaded or not. */
     public boolean exists(UUID id) {
+        return storages.containsKey(id) || dormant.containsKey(id);
+    }
+
+    /** True if the ID is registered and loaded. */
+    public boolean isLoaded(UUID id) {
         return storages.containsKey(id);
     }
 
+    /** Visits the loaded storages. Dormant ones are skipped rather than paged in. */
     public void forEach(BiConsumer<UUID, Storage> consumer) {
         storages.forEach(consumer);
     }
 
+    /** Registered storages, loaded or not. */
     public int size() {
-        return storages.size();
+        return storages.size() + dormant.size();
+    }
+
+    public int dormantCount() {
+        return dormant.size();
+    }
+
+    /**
+     * Every registered storage at one instant with respect to paging, so none is missed or seen
+     * twice while moving between loaded and dormant. Loaded entries carry the storage itself.
+     */
+    public List<StorageState> states() {
+        synchronized (paging) {
+            List<StorageState> states = new ArrayList<>(storages.size() + dormant.size());
+            storages.forEach((id, storage) -> states.add(new StorageState(id, storage, storage.capacity(),
+                storage.maxItemTypes(), storage.getTotalItems(), storage.getUniqueItemCount(), version(storage))));
+            dormant.forEach((id, entry) -> states.add(new StorageState(id, null, entry.capacity(),
+                entry.maxItemTypes(), entry.totalItems(), entry.uniqueTypes(), entry.version())));
+            return states;
+        }
+    }
+
+    /**
+     * Version of one storage that stays put while it is paged out and back in, or -1 if the ID
+     * is not registered.
+     */
+    public long version(UUID id) {
+        Storage storage = storages.get(id);
+        if (storage != null) {
+            return version(storage);
+        }
+        Dormant entry = dormant.get(id);
+        return entry != null ? entry.version() : -1;
+    }
+
+    /**
+     * Changes whenever a storage is added, removed, or written to; equal reads mean nothing changed
+     * in between. Paging does not move it. Sums every storage's version, so it costs O(storages);
+     * meant for periodic checks.
+     */
+    public long modCount() {
+        long sum = retired.get() + dormantVersions.get();
+        for (Storage storage : storages.values()) {
+            sum += version(storage);
+        }
+        return sum;
+    }
+
+    /** Sets where idle storages can be paged out to; without one nothing is evicted. */
+    public void setPager(StoragePager pager) {
+        this.pager = pager;
+    }
+
+    /**
+     * Pages out loaded storages not looked up for {@code idleMillis} whose contents the pager
+     * holds durably. A write racing the eviction either lands first and keeps the storage loaded,
+     * or is refused by the retired copy. Returns how many were paged out.
+     */
+    public int evictIdle(long idleMillis) {
+        StoragePager current = pager;
+        if (current == null) {
+            return 0;
+        }
+        long cutoff = System.nanoTime() - idleMillis * 1_000_000;
+        int evicted = 0;
+        for (Map.Entry<UUID, Storage> entry : storages.entrySet()) {
+            if (!(entry.getValue() instanceof AbstractStorage storage) || storage.lastAccess() - cutoff > 0) {
+                continue;
+            }
+            long version = storage.logicalVersion();
+            StorageSource source = current.durableSource(entry.getKey(), storage, version);
+            if (source != null && evict(entry.getKey(), storage, version, source)) {
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Storages with the highest fill ratio, fullest first. The ranking is kept sorted as totals
+     * change, so a query only re-sorts the storages written since the last one.
+     */
+    public List<NetworkFill> topByFill(int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+        return fillRanking.top(limit);
     }
 
     public void clear() {
-        storages.clear();
+        for (UUID id : List.copyOf(storages.keySet())) {
+            unregister(id);
+        }
+        for (UUID id : List.copyOf(dormant.keySet())) {
+            unregister(id);
+        }
+    }
+
+    private Storage getOrCreate(UUID id, Supplier<Storage> factory) {
+        Storage storage = loaded(id);
+        if (storage != null) {
+            return storage;
+        }
+        if (dormant.containsKey(id)) {
+            // A fresh storage would hide the saved one and overwrite it on the next save
+            throw new IllegalStateException("Storage " + id + " could not be loaded");
+        }
+        return storages.computeIfAbsent(id, k -> added(k, factory.get()));
+    }
+
+    /** The loaded storage for an ID, paging it in if dormant; null if unknown or unreadable. */
+    private Storage loaded(UUID id) {
+        Storage storage = storages.get(id);
+        if (storage instanceof AbstractStorage tracked && tracked.isRetired()) {
+            // Caught between the dormant entry going in and the retired copy coming out
+            storage = null;
+        }
+        if (storage == null) {
+            Dormant entry = dormant.get(id);
+            if (entry == null) {
+                return null;
+            }
+            storage = pageIn(id, entry);
+            if (storage == null) {
+                return null;
+            }
+        }
+        if (storage instanceof AbstractStorage tracked) {
+            tracked.touch();
+        }
+        return storage;
     }
+
+    /** Restores a dormant storage outside the lock, then installs it unless another thread won. */
+    private Storage pageIn(UUID id, Dormant entry) {
+        Storage storage = backend.create(entry.capacity(), entry.maxItemTypes());
+        try {
+            entry.source().restore(storage);
+        } catch (Exception e) {
+            logger.at(Level.SEVERE).withCause(e).log("Failed to load storage %s", id);
+            return null;
+        }
+        synchronized (paging) {
+            if (dormant.get(id) != entry) {
+                return storages.get(id);
+            }
+            leaveDormant(id, entry);
+            if (storage instanceof AbstractStorage tracked) {
+                tracked.rebase(entry.version());
+                tracked.attach(aggregates);
+            }
+            storages.put(id, storage);
+            fillRanking.track(id, storage);
+        }
+        return storage;
+    }
+
+    private boolean evict(UUID id, AbstractStorage storage, long version, StorageSource source) {
+        synchronized (paging) {
+            if (storages.get(id) != storage || !storage.retire(version)) {
+                return false;
+            }
+            // Dormant first, so a concurrent lookup finds one or the other
+            enterDormant(id, new Dormant(storage.capacity(), storage.maxItemTypes(), storage.getTotalItems(),
+                storage.getUniqueItemCount(), version, source));
+            storages.remove(id);
+            storage.detach(aggregates);
+            return true;
+        }
+    }
+
+    /** Guarded by paging. */
+    private void enterDormant(UUID id, Dormant entry) {
+        dormant.put(id, entry);
+        dormantVersions.addAndGet(entry.version());
+        aggregates.added(entry.capacity());
+        aggregates.items.add(entry.totalItems());
+        aggregates.types.add(entry.uniqueTypes());
+        fillRanking.trackDormant(id, entry.totalItems(), entry.capacity());
+    }
+
+    /** Guarded by paging. */
+    private void leaveDormant(UUID id, Dormant entry) {
+        dormant.remove(id);
+        dormantVersions.addAndGet(-entry.version());
+        aggregates.removed(entry.capacity());
+        aggregates.items.add(-entry.totalItems());
+        aggregates.types.add(-entry.uniqueTypes());
+        fillRanking.untrackDormant(id);
+    }
+
+    /** Guarded by paging. Drops a dormant entry for good. */
+    private boolean discardDormant(UUID id) {
+        Dormant entry = dormant.get(id);
+        if (entry == null) {
+            return false;
+        }
+        leaveDormant(id, entry);
+        retired.addAndGet(entry.version() + 1);
+        return true;
+    }
+
+    private static long version(Storage storage) {
+        return storage instanceof AbstractStorage tracked ? tracked.logicalVersion() : storage.version();
+    }
+
+    private Storage added(UUID id, Storage storage) {
+        if (storage instanceof AbstractStorage tracked) {
+            tracked.attach(aggregates);
+        }
+        fillRanking.track(id, storage);
+        retired.incrementAndGet();
+        return storage;
+    }
+
+    private void removed(UUID id, Storage storage) {
+        if (storage instanceof AbstractStorage tracked) {
+            tracked.detach(aggregates);
+        }
+        fillRanking.untrack(id, storage);
+        retired.addAndGet(version(storage) + 1);
+    }
+
+    /** One storage's fill as last ranked. */
+    public record NetworkFill(UUID id, long used, long capacity) {
+        public double ratio() {
+            return capacity == 0 ? 0 : (double) used / capacity;
+        }
+    }
+
+    /** One registered storage as listed by {@link #states()}; {@code storage} is null while dormant. */
+    public record StorageState(UUID id, Storage storage, long capacity, int maxItemTypes,
+                               long totalItems, int uniqueTypes, long version) {
+        public boolean loaded() {
+            return storage != null;
+        }
+    }
+
+    /** Saved totals of a storage that is not loaded, and where its contents are. */
+    private record Dormant(long capacity, int maxItemTypes, long totalItems, int uniqueTypes,
+                           long version, StorageSource source) {}
 }
@@ -0,0 +1,85 @@
+package net.momo.silo.storage;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable point-in-time copy of a storage's contents in parallel primitive arrays, ordered by
+ * quantity, highest first. {@link #totalItems()} is always the sum of the entries.
+ */
+public final class StorageSnapshot {
+
+    private final int[] handles;
+    private final long[] quantities;
+    private final long totalItems;
+    private final long version;
+    private final boolean consistent;
+
+    StorageSnapshot(int[] handles, long[] quantities, int size, long version, boolean consistent) {
+        this.handles = Arrays.copyOf(handles, size);
+        this.quantities = Arrays.copyOf(quantities, size);
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += quantities[i];
+        }
+        this.totalItems = total;
+        this.version = version;
+        this.consistent = consistent;
+    }
+
+    public int size() {
+        return handles.length;
+    }
+
+    public boolean isEmpty() {
+        return handles.length == 0;
+    }
+
+    public int handle(int index) {
+        return handles[index];
+    }
+
+    public String itemId(int index) {
+        return ItemIds.name(handles[index]);
+    }
+
+    public long quantity(int index) {
+        return quantities[index];
+    }
+
+    public long totalItems() {
+        return totalItems;
+    }
+
+    /** Storage version the snapshot was taken at. */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * True if no write overlapped the copy, so the entries existed together at {@link #version()}.
+     * False only when writers never paused across every attempt; each entry is then still a value
+     * its item really held, and the total still matches the entries.
+     */
+    public boolean isConsistent() {
+        return consistent;
+    }
+
+    public void forEach(Storage.ItemVisitor visitor) {
+        for (int i = 0; i < handles.length; i++) {
+            if (!visitor.visit(handles[i], quantities[i])) {
+                return;
+            }
+        }
+    }
+
+    public Map<String, Long> toMap() {
+        Map<String, Long> result = new HashMap<>(handles.length * 2);
+        for (int i = 0; i < handles.length; i++) {
+            result.put(ItemIds.name(handles[i]), quantities[i]);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+}
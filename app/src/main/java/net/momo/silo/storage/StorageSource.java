@@ -0,0 +1,11 @@
+package net.momo.silo.storage;
+
+import java.io.IOException;
+
+/** Saved contents of a storage that is registered but not loaded; see {@link StorageRegistry#registerDormant}. */
+@FunctionalInterface
+public interface StorageSource {
+
+    /** Fills a new, empty storage with the saved contents. */
+    void restore(Storage storage) throws IOException;
+}
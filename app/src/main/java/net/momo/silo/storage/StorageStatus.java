@@ -0,0 +1,44 @@
+package net.momo.silo.storage;
+
+import net.momo.silo.util.Result;
+
+/**
+ * Outcome codes for the primitive storage operations. A non-negative outcome is the amount moved;
+ * a negative one is one of the failure constants below.
+ */
+public final class StorageStatus {
+
+    public static final long INVALID_QUANTITY = -1;
+    public static final long STORAGE_FULL = -2;
+    public static final long TYPE_LIMIT = -3;
+    public static final long ITEM_FULL = -4;
+    public static final long UNAVAILABLE = -5;
+
+    // Failures carry no value, so one immutable Result per code serves every caller
+    private static final Result<Long> INVALID_QUANTITY_RESULT = Result.failure("Quantity must be positive");
+    private static final Result<Long> STORAGE_FULL_RESULT = Result.failure("Storage is full");
+    private static final Result<Long> TYPE_LIMIT_RESULT = Result.failure("Maximum unique item types reached");
+    private static final Result<Long> ITEM_FULL_RESULT = Result.failure("Cannot add more of this item");
+    private static final Result<Long> UNAVAILABLE_RESULT = Result.failure("Storage was unloaded, try again");
+
+    private StorageStatus() {}
+
+    public static boolean isSuccess(long outcome) {
+        return outcome >= 0;
+    }
+
+    /** Returns the failure message for a code, or null for a successful outcome. */
+    public static String message(long outcome) {
+        return outcome >= 0 ? null : failure(outcome).error();
+    }
+
+    /** Returns the shared failure Result for a code. */
+    public static Result<Long> failure(long outcome) {
+        if (outcome == INVALID_QUANTITY) return INVALID_QUANTITY_RESULT;
+        if (outcome == STORAGE_FULL) return STORAGE_FULL_RESULT;
+        if (outcome == TYPE_LIMIT) return TYPE_LIMIT_RESULT;
+        if (outcome == ITEM_FULL) return ITEM_FULL_RESULT;
+        if (outcome == UNAVAILABLE) return UNAVAILABLE_RESULT;
+        throw new IllegalArgumentException("Not a failure code: " + outcome);
+    }
+}
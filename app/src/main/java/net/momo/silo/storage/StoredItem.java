@@ -6,20 +6,31 @@ import net.momo.silo.util.Validation;
 public final class StoredItem {
 
     private final String itemId;
+    private final int handle;
     private final long quantity;
 
     public StoredItem(String itemId, long quantity) {
-        Validation.requireValidItemId(itemId);
         Validation.requireNonNegative(quantity, "quantity");
-        this.itemId = itemId;
+        // Interning validates IDs it has not seen before
+        this.handle = ItemIds.intern(itemId);
+        this.itemId = ItemIds.name(handle);
+        this.quantity = quantity;
+    }
+
+    /** Creates an item from an interned handle. Skips validation, handles are validated at intern time. */
+    StoredItem(int handle, long quantity) {
+        this.itemId = ItemIds.name(handle);
+        this.handle = handle;
         this.quantity = quantity;
     }
 
     public String itemId() { return itemId; }
+    public int handle() { return handle; }
     public long quantity() { return quantity; }
 
     public StoredItem withQuantity(long newQuantity) {
-        return new StoredItem(itemId, newQuantity);
+        Validation.requireNonNegative(newQuantity, "quantity");
+        return new StoredItem(handle, newQuantity);
     }
 
     public StoredItem add(long delta) {
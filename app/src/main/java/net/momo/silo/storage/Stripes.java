@@ -0,0 +1,27 @@
+package net.momo.silo.storage;
+
+/** Shared striping policy for per-core counters: stripe count and the calling thread's stripe. */
+final class Stripes {
+
+    /** Power of two at least the core count, capped at 64. */
+    static final int COUNT = stripeCount();
+
+    // 16 longs = 128 bytes between stripes, enough to keep adjacent stripes off each other's cache line
+    static final int STRIDE = 16;
+
+    private static final int MASK = COUNT - 1;
+
+    private Stripes() {}
+
+    /** Stripe index for the calling thread. */
+    static int current() {
+        long id = Thread.currentThread().threadId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash >>> 16) & MASK;
+    }
+
+    private static int stripeCount() {
+        int cpus = Math.min(Runtime.getRuntime().availableProcessors(), 64);
+        return Integer.highestOneBit(Math.max(1, cpus * 2 - 1));
+    }
+}
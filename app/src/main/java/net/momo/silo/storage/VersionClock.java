@@ -0,0 +1,56 @@
+package net.momo.silo.storage;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Striped write clock. Each mutation bumps {@code started} on its thread's padded stripe before
+ * touching state and {@code finished} after, so writers never contend across cores. The version is
+ * the sum of finished writes; readers use {@link #stamp()} and {@link #validate(long)} to detect
+ * whether any write overlapped a read, seqlock style, without ever blocking a writer.
+ */
+final class VersionClock {
+
+    private static final int STRIPES = Stripes.COUNT;
+    private static final int STRIDE = Stripes.STRIDE;
+    private static final int STARTED = 0;
+    private static final int FINISHED = 1;
+
+    private final AtomicLongArray stripes = new AtomicLongArray(STRIPES * STRIDE);
+
+    /** Marks the start of a write. Must be paired with {@link #end()} on the same thread. */
+    void begin() {
+        stripes.getAndIncrement(Stripes.current() * STRIDE + STARTED);
+    }
+
+    void end() {
+        stripes.getAndIncrement(Stripes.current() * STRIDE + FINISHED);
+    }
+
+    /** Current version. Non-decreasing across successive reads by the same thread. */
+    long read() {
+        return sum(FINISHED);
+    }
+
+    /**
+     * Returns a stamp if no write was in flight, or -1. Finished counts are read before started
+     * counts and {@code finished <= started} per stripe, so equal sums mean every stripe was idle.
+     */
+    long stamp() {
+        long finished = sum(FINISHED);
+        long started = sum(STARTED);
+        return finished == started ? started : -1;
+    }
+
+    /** True if no write started since {@code stamp} was taken. */
+    boolean validate(long stamp) {
+        return sum(STARTED) == stamp;
+    }
+
+    private long sum(int counter) {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += stripes.get(i * STRIDE + counter);
+        }
+        return sum;
+    }
+}
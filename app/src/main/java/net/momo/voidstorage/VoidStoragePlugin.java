@@ -19,8 +19,16 @@ import net.momo.silo.interaction.MutableInteractionContext;
 import net.momo.silo.interceptor.impl.RateLimitInterceptor;
 import net.momo.silo.mechanic.MechanicRunner;
 import net.momo.silo.ui.UIRegistry;
+import net.momo.silo.persistence.BinaryPersistence;
+import net.momo.silo.persistence.JournalPersistence;
 import net.momo.silo.persistence.JsonPersistence;
 import net.momo.silo.persistence.PersistenceProvider;
+import net.momo.silo.persistence.SaveFormat;
+import net.momo.silo.persistence.SaveFormatConverter;
+import net.momo.silo.persistence.SaveMetrics;
+import net.momo.silo.persistence.ShardedPersistence;
+import net.momo.silo.persistence.SnapshotPersistence;
+import net.momo.silo.persistence.StorageCodec;
 import net.momo.silo.util.Position;
 import net.momo.platform.hytale.adapter.InventoryAdapter;
 import net.momo.platform.hytale.impl.HytaleWorldAdapter;
@@ -47,6 +55,7 @@ import net.momo.voidstorage.internal.persistence.TransferCodec;
 import net.momo.voidstorage.internal.transfer.TransferMode;
 import net.momo.voidstorage.internal.transfer.TransferRegistry;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -59,10 +68,14 @@ import java.util.logging.Level;
 public final class VoidStoragePlugin extends JavaPlugin {
 
     private static final HytaleLogger logger = HytaleLogger.forEnclosingClass();
+    private static final long AUTOSAVE_MINUTES = 5;
+    private static final String SAVE_FILE_NAME = "network_storage";
 
     private volatile boolean codecsRegistered;
     private ScheduledFuture<?> cleanupTask;
     private ScheduledFuture<?> orphanCleanupTask;
+    private ScheduledFuture<?> autosaveTask;
+    private ScheduledFuture<?> evictionTask;
 
     public VoidStoragePlugin(JavaPluginInit init) {
         super(init);
@@ -108,7 +121,8 @@ public final class VoidStoragePlugin extends JavaPlugin {
     private void initializeServices() {
         AnchorRegistry anchorRegistry = new AnchorRegistry();
         TransferRegistry transferRegistry = new TransferRegistry();
-        StorageRegistry storageRegistry = new StorageRegistry();
+        // STORAGE_BACKEND decides whether item counters live on the Java heap or off it
+        StorageRegistry storageRegistry = new StorageRegistry(ModConfig.STORAGE_BACKEND);
 
         Services.register(AnchorRegistry.class, anchorRegistry);
         Services.register(TransferRegistry.class, transferRegistry);
@@ -118,19 +132,8 @@ public final class VoidStoragePlugin extends JavaPlugin {
         Services.register(MechanicRunner.class, new MechanicRunner());
         Services.register(UIRegistry.class, new UIRegistry());
 
-        // Persistence: Silo provides JsonPersistence, VoidStorage provides codecs
-        OrphanedStorageRegistry orphanedStorageRegistry = Services.get(OrphanedStorageRegistry.class);
-        JsonPersistence persistence = new JsonPersistence(getDataDirectory(), "network_storage.json")
-            .bind("anchors", new AnchorCodec(),
-                anchorRegistry::getAll,
-                anchorRegistry::register)
-            .bind("transfers", new TransferCodec(),
-                transferRegistry::getAll,
-                transferRegistry::register)
-            .bind("orphaned", new OrphanedStorageCodec(),
-                orphanedStorageRegistry::getAll,
-                orphanedStorageRegistry::register);
-        Services.register(PersistenceProvider.class, persistence);
+        // Persistence: Silo provides the file formats and journal, VoidStorage provides codecs
+        Services.register(PersistenceProvider.class, createPersistence(ModConfig.SAVE_FORMAT));
 
         AnchorStorageResolver storageResolver = new AnchorStorageResolver(anchorRegistry, storageRegistry);
         NetworkService networkService = new NetworkService(storageResolver);
@@ -142,6 +145,52 @@ public final class VoidStoragePlugin extends JavaPlugin {
         Services.register(NetworkService.class, networkService);
     }
 
+    /** Builds the journaled persistence stack that reads and writes the given save format. */
+    private PersistenceProvider createPersistence(SaveFormat format) {
+        AnchorRegistry anchorRegistry = Services.get(AnchorRegistry.class);
+        TransferRegistry transferRegistry = Services.get(TransferRegistry.class);
+        StorageRegistry storageRegistry = Services.get(StorageRegistry.class);
+        OrphanedStorageRegistry orphanedStorageRegistry = Services.get(OrphanedStorageRegistry.class);
+        AnchorCodec anchorCodec = new AnchorCodec();
+        TransferCodec transferCodec = new TransferCodec();
+        OrphanedStorageCodec orphanedCodec = new OrphanedStorageCodec();
+        StorageCodec storageCodec = new StorageCodec(storageRegistry.backend());
+
+        // Storages are a section of their own, keyed by the anchor ID, after the metadata that references them
+        String fileName = format.fileName(SAVE_FILE_NAME);
+        Duration backupRetention = Duration.ofHours(ModConfig.BACKUP_RETENTION_HOURS);
+        SnapshotPersistence base = switch (format) {
+            case JSON -> new JsonPersistence(getDataDirectory(), fileName, ModConfig.SAVE_COMPRESSION)
+                .retainBackups(ModConfig.BACKUP_GENERATIONS, backupRetention)
+                .bind("anchors", anchorCodec, anchorRegistry::getAll, anchorRegistry::register, anchorRegistry::modCount)
+                .bind("transfers", transferCodec, transferRegistry::getAll, transferRegistry::register, transferRegistry::modCount)
+                .bind("orphaned", orphanedCodec, orphanedStorageRegistry::getAll, orphanedStorageRegistry::register,
+                    orphanedStorageRegistry::modCount)
+                .bind("storages", storageCodec, () -> StorageCodec.entries(storageRegistry),
+                    entry -> storageRegistry.register(entry.id(), entry.storage()), storageRegistry::modCount);
+            case BINARY -> new BinaryPersistence(getDataDirectory(), fileName, ModConfig.SAVE_COMPRESSION)
+                .retainBackups(ModConfig.BACKUP_GENERATIONS, backupRetention)
+                .bind("anchors", anchorCodec, anchorRegistry::getAll, anchorRegistry::register, anchorRegistry::modCount)
+                .bind("transfers", transferCodec, transferRegistry::getAll, transferRegistry::register, transferRegistry::modCount)
+                .bind("orphaned", orphanedCodec, orphanedStorageRegistry::getAll, orphanedStorageRegistry::register,
+                    orphanedStorageRegistry::modCount)
+                .bind("storages", storageCodec, () -> StorageCodec.entries(storageRegistry),
+                    entry -> storageRegistry.register(entry.id(), entry.storage()), storageRegistry::modCount);
+            // One file per storage, rewritten only when it changed
+            case SHARDED -> new ShardedPersistence(getDataDirectory().resolve(fileName), ModConfig.SAVE_COMPRESSION)
+                .retainBackups(ModConfig.BACKUP_GENERATIONS, backupRetention)
+                .bind("anchors", anchorCodec, anchorRegistry::getAll, anchorRegistry::register, anchorRegistry::modCount)
+                .bind("transfers", transferCodec, transferRegistry::getAll, transferRegistry::register, transferRegistry::modCount)
+                .bind("orphaned", orphanedCodec, orphanedStorageRegistry::getAll, orphanedStorageRegistry::register,
+                    orphanedStorageRegistry::modCount)
+                .bindStorages("storages", storageRegistry,
+                    format == ModConfig.SAVE_FORMAT && ModConfig.LAZY_STORAGE_LOADING);
+        };
+        // Storage contents go to an append-only journal; structural changes fold it into the base
+        return new JournalPersistence(base, storageRegistry,
+            () -> anchorRegistry.modCount() + transferRegistry.modCount() + orphanedStorageRegistry.modCount());
+    }
+
     private void registerHandlers() {
         HandlerRegistry registry = Services.get(HandlerRegistry.class);
 
@@ -270,12 +319,26 @@ public final class VoidStoragePlugin extends JavaPlugin {
         var commands = new net.momo.voidstorage.impl.command.VoidStorageCommands();
         getCommandRegistry().registerCommand(commands.createHelpCommand());
         getCommandRegistry().registerCommand(commands.createStatusCommand());
+        getCommandRegistry().registerCommand(commands.createBackupsCommand());
+        getCommandRegistry().registerCommand(commands.createRestoreCommand());
         logger.at(Level.FINE).log("Commands registered");
     }
 
     private void loadData() {
         try {
-            Services.get(PersistenceProvider.class).load();
+            // A save left in another format is carried over once, the first time this one is missing
+            boolean converted = false;
+            for (SaveFormat previous : SaveFormat.values()) {
+                if (previous != ModConfig.SAVE_FORMAT && SaveFormatConverter.importIfMissing(
+                        createPersistence(previous), previous.dataFile(getDataDirectory(), SAVE_FILE_NAME),
+                        Services.get(PersistenceProvider.class), ModConfig.SAVE_FORMAT.dataFile(getDataDirectory(), SAVE_FILE_NAME))) {
+                    converted = true;
+                    break;
+                }
+            }
+            if (!converted) {
+                Services.get(PersistenceProvider.class).load();
+            }
             logger.at(Level.INFO).log("Loaded %d anchors, %d transfers, %d orphaned storages",
                 Services.get(AnchorRegistry.class).size(),
                 Services.get(TransferRegistry.class).size(),
@@ -287,7 +350,8 @@ public final class VoidStoragePlugin extends JavaPlugin {
 
     private void saveData() {
         try {
-            Services.get(PersistenceProvider.class).save();
+            // Only what is still pending gets written; a full rewrite is left to the next compaction
+            Services.get(PersistenceProvider.class).close();
             logger.at(Level.INFO).log("Saved %d anchors, %d transfers, %d orphaned storages",
                 Services.get(AnchorRegistry.class).size(),
                 Services.get(TransferRegistry.class).size(),
@@ -308,6 +372,43 @@ public final class VoidStoragePlugin extends JavaPlugin {
             this::cleanupOrphanedStorages,
             1, 24, TimeUnit.HOURS
         );
+
+        autosaveTask = HytaleServer.SCHEDULED_EXECUTOR.scheduleAtFixedRate(
+            this::autosave,
+            AUTOSAVE_MINUTES, AUTOSAVE_MINUTES, TimeUnit.MINUTES
+        );
+
+        // Only storages already saved at their current version are unloaded, so this waits on autosave
+        evictionTask = HytaleServer.SCHEDULED_EXECUTOR.scheduleAtFixedRate(
+            this::evictIdleStorages,
+            1, 1, TimeUnit.MINUTES
+        );
+    }
+
+    private void autosave() {
+        try {
+            PersistenceProvider persistence = Services.get(PersistenceProvider.class);
+            if (persistence.saveIfDirty()) {
+                SaveMetrics metrics = persistence.metrics();
+                // The write itself finishes on the save thread; its figures are from the previous one
+                logger.at(Level.FINE).log("Autosave captured in %.2f ms; last write %d bytes in %d ms (avg %.1f ms, %d skipped)",
+                    metrics.lastSnapshotMs(), metrics.lastBytesWritten(), metrics.lastDurationMs(),
+                    metrics.avgDurationMs(), metrics.skippedCount());
+            }
+        } catch (Exception e) {
+            logger.at(Level.SEVERE).withCause(e).log("Autosave failed");
+        }
+    }
+
+    private void evictIdleStorages() {
+        try {
+            int evicted = Services.get(StorageRegistry.class).evictIdle(TimeUnit.MINUTES.toMillis(ModConfig.STORAGE_IDLE_MINUTES));
+            if (evicted > 0) {
+                logger.at(Level.FINE).log("Unloaded %d idle storages", evicted);
+            }
+        } catch (Exception e) {
+            logger.at(Level.SEVERE).withCause(e).log("Failed to unload idle storages");
+        }
     }
 
     private void cleanupOrphanedStorages() {
@@ -336,5 +437,11 @@ public final class VoidStoragePlugin extends JavaPlugin {
         if (orphanCleanupTask != null) {
             orphanCleanupTask.cancel(false);
         }
+        if (autosaveTask != null) {
+            autosaveTask.cancel(false);
+        }
+        if (evictionTask != null) {
+            evictionTask.cancel(false);
+        }
     }
 }
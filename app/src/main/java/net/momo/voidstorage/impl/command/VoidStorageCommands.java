@@ -2,20 +2,30 @@ package net.momo.voidstorage.impl.command;
 
 import com.hypixel.hytale.server.core.Message;
 import com.hypixel.hytale.server.core.command.system.CommandContext;
+import com.hypixel.hytale.server.core.command.system.arguments.system.RequiredArg;
+import com.hypixel.hytale.server.core.command.system.arguments.types.ArgTypes;
 import com.hypixel.hytale.server.core.command.system.basecommands.CommandBase;
 import net.momo.silo.core.ModConfig;
 import net.momo.silo.core.Services;
+import net.momo.silo.persistence.BackupRotation;
+import net.momo.silo.persistence.PersistenceProvider;
+import net.momo.silo.persistence.SaveMetrics;
+import net.momo.silo.storage.ItemIds;
+import net.momo.silo.storage.StorageAggregates;
 import net.momo.silo.storage.StorageRegistry;
-import net.momo.silo.storage.Storage;
 import net.momo.voidstorage.internal.anchor.AnchorRegistry;
-import net.momo.voidstorage.internal.anchor.StorageAnchor;
 import net.momo.voidstorage.internal.transfer.TransferRegistry;
 
-import java.util.Optional;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
 
 /** Command implementations for Void Storage. */
 public final class VoidStorageCommands {
 
+    private static final int TOP_NETWORKS = 5;
+
     public CommandBase createHelpCommand() {
         return new CommandBase(ModConfig.NAMESPACE, ModConfig.NAMESPACE + ".command.help") {
             @Override
@@ -23,6 +33,8 @@ public final class VoidStorageCommands {
                 ctx.sendMessage(Message.raw(ModConfig.DISPLAY_NAME + " Commands:"));
                 ctx.sendMessage(Message.raw("  /" + ModConfig.NAMESPACE + " - Show this help"));
                 ctx.sendMessage(Message.raw("  /vsstatus - Show system status"));
+                ctx.sendMessage(Message.raw("  /vsbackups - List backup generations of the save"));
+                ctx.sendMessage(Message.raw("  /vsrestore <generation> - Restore a backup at the next start"));
             }
         };
     }
@@ -38,18 +50,82 @@ public final class VoidStorageCommands {
                 int anchorCount = anchorRegistry.size();
                 int transferCount = transferRegistry.size();
 
-                long totalItems = 0;
-                for (StorageAnchor anchor : anchorRegistry.getAll()) {
-                    Optional<Storage> storageOpt = storageRegistry.get(anchor.id());
-                    if (storageOpt.isPresent()) {
-                        totalItems += storageOpt.get().getTotalItems();
-                    }
-                }
+                StorageAggregates totals = storageRegistry.aggregates();
 
                 ctx.sendMessage(Message.raw("=== " + ModConfig.DISPLAY_NAME + " Status ==="));
                 ctx.sendMessage(Message.raw(String.format("%s: %d", ModConfig.ANCHOR_NAME_PLURAL, anchorCount)));
                 ctx.sendMessage(Message.raw(String.format("%s: %d", ModConfig.TRANSFER_NAME_PLURAL, transferCount)));
-                ctx.sendMessage(Message.raw(String.format("Total Items: %d", totalItems)));
+                ctx.sendMessage(Message.raw(String.format("Total Items: %d / %d (%.1f%%)",
+                    totals.totalItems(), totals.totalCapacity(), totals.fillRatio() * 100)));
+                ctx.sendMessage(Message.raw(String.format("Item Types: %d", totals.uniqueTypes())));
+                ctx.sendMessage(Message.raw(String.format("Item IDs: %d known, %d validated",
+                    ItemIds.size(), ItemIds.validationMisses())));
+                ctx.sendMessage(Message.raw(String.format("%s Storages: %d loaded, %d unloaded", ModConfig.NETWORK_NAME,
+                    storageRegistry.size() - storageRegistry.dormantCount(), storageRegistry.dormantCount())));
+                for (StorageRegistry.NetworkFill fill : storageRegistry.topByFill(TOP_NETWORKS)) {
+                    ctx.sendMessage(Message.raw(String.format("  %s: %.1f%%", fill.id(), fill.ratio() * 100)));
+                }
+                SaveMetrics saves = Services.get(PersistenceProvider.class).metrics();
+                ctx.sendMessage(Message.raw(String.format("Saves: %d written, %d skipped, last %d bytes in %d ms (capture %.2f ms)",
+                    saves.saveCount(), saves.skippedCount(), saves.lastBytesWritten(), saves.lastDurationMs(),
+                    saves.lastSnapshotMs())));
+            }
+        };
+    }
+
+    public CommandBase createBackupsCommand() {
+        return new CommandBase("vsbackups", ModConfig.NAMESPACE + ".command.backups") {
+            @Override
+            protected void executeSync(CommandContext ctx) {
+                BackupRotation backups = Services.get(PersistenceProvider.class).backups();
+                try {
+                    List<BackupRotation.Generation> generations = backups.generations();
+                    long scheduled = backups.scheduledRestore();
+                    ctx.sendMessage(Message.raw("=== " + ModConfig.DISPLAY_NAME + " Backups ==="));
+                    if (backups.isIndexOnly()) {
+                        ctx.sendMessage(Message.raw("Sharded save: these back up the index only and cannot be restored"));
+                    }
+                    if (generations.isEmpty()) {
+                        ctx.sendMessage(Message.raw("No backups yet"));
+                    }
+                    Instant now = Instant.now();
+                    for (BackupRotation.Generation generation : generations) {
+                        ctx.sendMessage(Message.raw(String.format("  %d: %d min ago, %d bytes%s", generation.number(),
+                            Duration.between(generation.written(), now).toMinutes(), generation.bytes(),
+                            generation.number() == scheduled ? " (restore scheduled)" : "")));
+                    }
+                } catch (IOException e) {
+                    ctx.sendMessage(Message.raw("Failed to list backups: " + e.getMessage()));
+                }
+            }
+        };
+    }
+
+    public CommandBase createRestoreCommand() {
+        return new CommandBase("vsrestore", ModConfig.NAMESPACE + ".command.restore") {
+            private final RequiredArg<Integer> generationArg =
+                withRequiredArg("generation", "Backup generation from /vsbackups", ArgTypes.INTEGER);
+
+            @Override
+            protected void executeSync(CommandContext ctx) {
+                int generation = generationArg.get(ctx);
+                BackupRotation backups = Services.get(PersistenceProvider.class).backups();
+                if (backups.isIndexOnly()) {
+                    ctx.sendMessage(Message.raw("Restoring is not supported for the sharded save format: its backups "
+                        + "hold only the index, and storage contents would not roll back with it"));
+                    return;
+                }
+                try {
+                    // Applied at load: every save until then would overwrite a file restored now
+                    if (backups.scheduleRestore(generation)) {
+                        ctx.sendMessage(Message.raw(String.format(
+                            "Backup %d will be restored at the next start; changes until then are discarded", generation)));
+                    } else {
+                        ctx.sendMessage(Message.raw(String.format("No backup %d, see /vsbackups", generation)));
+                    }
+                } catch (IOException e) {
+                    ctx.sendMessage(Message.raw("Failed to schedule restore: " + e.getMessage()));
+                }
             }
         };
     }
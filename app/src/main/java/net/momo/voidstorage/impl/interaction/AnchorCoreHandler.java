@@ -31,6 +31,7 @@ public final class AnchorCoreHandler implements InteractionHandler {
     private static final UUID ID = UUID.fromString("00000000-0000-0000-0001-000000000002");
 
     private static final BigInteger DEFAULT_STORAGE_CAPACITY = BigInteger.valueOf(1_000_000_000);
+    private static final int DEFAULT_MAX_ITEM_TYPES = Storage.DEFAULT_MAX_ITEM_TYPES;
     private static final int DEFAULT_ACCESS_RANGE = Integer.MAX_VALUE;
 
     private static final String PILLAR_BLOCK = "Anomaly_Anchor";
@@ -86,12 +87,12 @@ public final class AnchorCoreHandler implements InteractionHandler {
             orphanRegistry.reclaim(linkedStorageId);
 
             // Create anchor with the linked storage ID
-            anchor = StorageAnchor.createWithId(linkedStorageId, corePos, DEFAULT_STORAGE_CAPACITY, DEFAULT_ACCESS_RANGE);
+            anchor = StorageAnchor.createWithId(linkedStorageId, corePos, DEFAULT_STORAGE_CAPACITY, existingStorage.get().maxItemTypes(), DEFAULT_ACCESS_RANGE);
             logger.at(Level.INFO).log("Linking %s to existing storage %s via Void Essence", ModConfig.ANCHOR_NAME, linkedStorageId);
         } else {
             // Create new anchor and storage
-            anchor = StorageAnchor.create(corePos, DEFAULT_STORAGE_CAPACITY, DEFAULT_ACCESS_RANGE);
-            storageRegistry.getOrCreate(anchor.id(), anchor.storageCapacity());
+            anchor = StorageAnchor.create(corePos, DEFAULT_STORAGE_CAPACITY, DEFAULT_MAX_ITEM_TYPES, DEFAULT_ACCESS_RANGE);
+            storageRegistry.getOrCreate(anchor.id(), anchor.storageCapacity(), anchor.maxItemTypes());
         }
 
         anchorRegistry.register(anchor);
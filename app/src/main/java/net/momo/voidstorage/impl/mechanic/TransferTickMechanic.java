@@ -2,8 +2,10 @@ package net.momo.voidstorage.impl.mechanic;
 
 import com.hypixel.hytale.logger.HytaleLogger;
 import net.momo.silo.core.Services;
+import net.momo.silo.storage.ItemBatch;
+import net.momo.silo.storage.ItemIds;
+import net.momo.silo.storage.Reservation;
 import net.momo.silo.storage.StorageRegistry;
-import net.momo.silo.storage.StoredItem;
 import net.momo.silo.storage.Storage;
 import net.momo.voidstorage.internal.transfer.Transfer;
 import net.momo.voidstorage.internal.transfer.TransferRegistry;
@@ -12,7 +14,6 @@ import net.momo.platform.hytale.adapter.ContainerAdapter;
 import net.momo.platform.hytale.adapter.WorldAdapter;
 import net.momo.silo.util.Position;
 
-import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.logging.Level;
@@ -24,6 +25,11 @@ public final class TransferTickMechanic implements TickMechanic {
     private static final UUID ID = UUID.fromString("00000000-0000-0000-0002-000000000001");
     private static final int ITEMS_PER_TICK = 64;
 
+    // MechanicRunner never overlaps ticks of one mechanic, so these can be reused across ticks
+    private final ItemBatch batch = new ItemBatch(ITEMS_PER_TICK);
+    private final Reservation reservation = new Reservation(ITEMS_PER_TICK);
+    private final OutputPlanner outputPlanner = new OutputPlanner();
+
     @Override
     public UUID id() {
         return ID;
@@ -39,6 +45,12 @@ public final class TransferTickMechanic implements TickMechanic {
         return 1000;
     }
 
+    /** Input sigils often feed the same few items into one storage; combine them per tick. */
+    @Override
+    public boolean combinesDeposits() {
+        return true;
+    }
+
     @Override
     public void tick(WorldAdapter world) {
         TransferRegistry transferRegistry = Services.get(TransferRegistry.class);
@@ -83,43 +95,51 @@ public final class TransferTickMechanic implements TickMechanic {
             return;
         }
 
-        int transferred = 0;
-        List<ContainerAdapter.Slot> slots = container.getNonEmptySlots();
-
-        for (ContainerAdapter.Slot slot : slots) {
-            if (transferred >= ITEMS_PER_TICK) {
-                break;
-            }
+        int taken = 0;
+        reservation.clear();
+        // Holds left open by an exception would pin capacity and keep the storage from paging out
+        try {
+            for (ContainerAdapter.Slot slot : container.getNonEmptySlots()) {
+                if (taken >= ITEMS_PER_TICK) {
+                    break;
+                }
 
-            String itemId = slot.itemId();
-            if (itemId == null || !transfer.acceptsItem(itemId)) {
-                continue;
-            }
+                String itemId = slot.itemId();
+                if (itemId == null || !transfer.acceptsItem(itemId)) {
+                    continue;
+                }
 
-            int toTransfer = Math.min(slot.quantity(), ITEMS_PER_TICK - transferred);
-            toTransfer = (int) Math.min(toTransfer, storage.getRemainingCapacity());
+                // The adapter resolved the handle; only an ID never seen before is interned, once
+                int handle = slot.handle() != ItemIds.NONE ? slot.handle() : ItemIds.intern(itemId);
+                // Hold capacity first so exactly what the storage can take leaves the container
+                int entry = storage.reserveCapacity(reservation, handle, Math.min(slot.quantity(), ITEMS_PER_TICK - taken));
+                if (entry < 0) {
+                    continue;
+                }
 
-            if (toTransfer <= 0) {
-                continue;
+                int removed = container.removeFromSlot(slot.index(), (int) reservation.held(entry));
+                reservation.settle(entry, removed);
+                taken += removed;
             }
 
-            int removed = container.removeFromSlot(slot.index(), toTransfer);
-            if (removed <= 0) {
-                continue;
+            if (reservation.isEmpty()) {
+                return;
             }
 
-            var result = storage.deposit(itemId, removed);
-            if (result.isFailure()) {
-                int notAdded = container.addItem(itemId, removed);
-                if (notAdded > 0) {
-                    logger.at(Level.WARNING).log("Lost %d items of %s during input rollback", notAdded, itemId);
-                }
-                continue;
+            storage.commit(reservation);
+        } finally {
+            if (reservation.isOpen()) {
+                storage.abort(reservation);
             }
+        }
 
-            transferred += removed;
-            world.spawnTransferEffect(transfer.targetPosition(), transfer.position(), itemId, removed, true);
-            logger.at(Level.FINE).log("Transfer %s input %d of %s", transfer.id(), removed, itemId);
+        for (int i = 0; i < reservation.size(); i++) {
+            int deposited = (int) reservation.settled(i);
+            if (deposited > 0) {
+                String itemId = reservation.itemId(i);
+                world.spawnTransferEffect(transfer.targetPosition(), transfer.position(), itemId, deposited, true);
+                logger.at(Level.FINE).log("Transfer %s input %d of %s", transfer.id(), deposited, itemId);
+            }
         }
     }
 
@@ -128,50 +148,72 @@ public final class TransferTickMechanic implements TickMechanic {
             return;
         }
 
-        int transferred = 0;
-        List<StoredItem> items = storage.getItemsSorted();
+        outputPlanner.reset(transfer, container);
+        storage.forEachByQuantity(outputPlanner);
 
-        for (StoredItem item : items) {
-            if (transferred >= ITEMS_PER_TICK) {
-                break;
-            }
+        if (batch.isEmpty()) {
+            return;
+        }
 
-            String itemId = item.itemId();
-            if (!transfer.acceptsItem(itemId)) {
-                continue;
-            }
+        reservation.clear();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                int entry = storage.reserveItems(reservation, batch.handle(i), batch.quantity(i));
+                if (entry < 0) {
+                    continue;
+                }
 
-            int toTransfer = (int) Math.min(item.quantity(), ITEMS_PER_TICK - transferred);
-            if (toTransfer <= 0) {
-                continue;
-            }
+                // Items the container refuses are simply not settled, so commit puts them back
+                String itemId = reservation.itemId(entry);
+                int held = (int) reservation.held(entry);
+                int added = held - container.addItem(itemId, held);
+                reservation.settle(entry, added);
 
-            if (!container.hasSpaceFor(itemId, toTransfer)) {
-                toTransfer = 1;
-                if (!container.hasSpaceFor(itemId, 1)) {
-                    continue;
+                if (added > 0) {
+                    world.spawnTransferEffect(transfer.position(), transfer.targetPosition(), itemId, added, false);
+                    logger.at(Level.FINE).log("Transfer %s output %d of %s", transfer.id(), added, itemId);
                 }
             }
 
-            var result = storage.withdraw(itemId, toTransfer);
-            if (result.isFailure()) {
-                continue;
+            storage.commit(reservation);
+        } finally {
+            if (reservation.isOpen()) {
+                storage.abort(reservation);
             }
+        }
+    }
 
-            long withdrawn = result.value();
-            if (withdrawn <= 0) {
-                continue;
+    /** Fills the output batch straight from the storage's quantity index, highest stock first. */
+    private final class OutputPlanner implements Storage.ItemVisitor {
+        private Transfer transfer;
+        private ContainerAdapter container;
+        private int planned;
+
+        void reset(Transfer transfer, ContainerAdapter container) {
+            this.transfer = transfer;
+            this.container = container;
+            this.planned = 0;
+            batch.clear();
+        }
+
+        @Override
+        public boolean visit(int handle, long quantity) {
+            String itemId = ItemIds.name(handle);
+            if (!transfer.acceptsItem(itemId)) {
+                return true;
             }
 
-            int notAdded = container.addItem(itemId, (int) withdrawn);
-            if (notAdded > 0) {
-                storage.deposit(itemId, notAdded);
-                withdrawn -= notAdded;
+            int toTransfer = (int) Math.min(quantity, ITEMS_PER_TICK - planned);
+            if (!container.hasSpaceFor(itemId, toTransfer)) {
+                toTransfer = 1;
+                if (!container.hasSpaceFor(itemId, 1)) {
+                    return true;
+                }
             }
 
-            transferred += (int) withdrawn;
-            world.spawnTransferEffect(transfer.position(), transfer.targetPosition(), itemId, (int) withdrawn, false);
-            logger.at(Level.FINE).log("Transfer %s output %d of %s", transfer.id(), (int) withdrawn, itemId);
+            batch.add(handle, toTransfer);
+            planned += toTransfer;
+            return planned < ITEMS_PER_TICK;
         }
     }
 }
@@ -17,6 +17,8 @@ import com.hypixel.hytale.server.core.universe.Universe;
 import com.hypixel.hytale.server.core.universe.world.World;
 import com.hypixel.hytale.server.core.universe.world.storage.EntityStore;
 import net.momo.silo.core.ModConfig;
+import net.momo.silo.storage.ItemIds;
+import net.momo.silo.storage.Reservation;
 import net.momo.silo.storage.StoredItem;
 import net.momo.silo.storage.Storage;
 import net.momo.silo.ui.UIPageProvider;
@@ -69,12 +71,25 @@ public final class StoragePageProvider implements UIPageProvider {
         // Handle get item
         if (data.getItem != null && !data.getItem.isEmpty()) {
             String itemId = data.getItem;
-            var stored = storage.getItem(itemId);
-            if (!stored.isEmpty()) {
-                int toRetrieve = (int) Math.min(stored.get().quantity(), 64);
-                storage.withdraw(itemId, toRetrieve);
-                HytaleInventoryAdapter inventory = new HytaleInventoryAdapter(player.getInventory());
-                inventory.giveItem(itemId, toRetrieve);
+            int handle = ItemIds.find(itemId);
+            long stored = handle != ItemIds.NONE ? storage.getQuantity(handle) : 0;
+            if (stored > 0) {
+                int toRetrieve = (int) Math.min(stored, 64);
+                Reservation reservation = new Reservation(1);
+                int entry = storage.reserveItems(reservation, handle, toRetrieve);
+                if (entry >= 0) {
+                    // Only items the inventory accepted leave the storage; the rest go back on commit or abort
+                    try {
+                        HytaleInventoryAdapter inventory = new HytaleInventoryAdapter(player.getInventory());
+                        int held = (int) reservation.held(entry);
+                        reservation.settle(entry, held - inventory.addItem(itemId, held));
+                        storage.commit(reservation);
+                    } finally {
+                        if (reservation.isOpen()) {
+                            storage.abort(reservation);
+                        }
+                    }
+                }
             }
             player.getPageManager().openCustomPage(
                 player.getReference(), store,
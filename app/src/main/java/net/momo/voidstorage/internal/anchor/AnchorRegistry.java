@@ -4,6 +4,7 @@ import net.momo.silo.util.Position;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.StampedLock;
 
 /** Registry for StorageAnchors. Thread-safe with sharded locks for scalability. */
@@ -14,6 +15,7 @@ public final class AnchorRegistry {
 
     private final Shard[] shards;
     private final Map<UUID, StorageAnchor> byId = new ConcurrentHashMap<>();
+    private final AtomicLong modifications = new AtomicLong();
 
     public AnchorRegistry() {
         this.shards = new Shard[SHARD_COUNT];
@@ -32,6 +34,7 @@ public final class AnchorRegistry {
         } finally {
             shard.lock.unlockWrite(stamp);
         }
+        modifications.incrementAndGet();
     }
 
     public boolean unregister(UUID id) {
@@ -45,6 +48,7 @@ public final class AnchorRegistry {
             StorageAnchor removed = byId.remove(id);
             if (removed != null) {
                 shard.byPosition.remove(removed.position().toKey());
+                modifications.incrementAndGet();
                 return true;
             }
             return false;
@@ -80,6 +84,11 @@ public final class AnchorRegistry {
         return byId.size();
     }
 
+    /** Counts registrations and removals. Bumped after each change, so a reader that saw it also sees the change. */
+    public long modCount() {
+        return modifications.get();
+    }
+
     public void clear() {
         for (Shard shard : shards) {
             long stamp = shard.lock.writeLock();
@@ -90,6 +99,7 @@ public final class AnchorRegistry {
             }
         }
         byId.clear();
+        modifications.incrementAndGet();
     }
 
     private Shard shardFor(Position pos) {
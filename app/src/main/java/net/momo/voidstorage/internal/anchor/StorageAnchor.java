@@ -12,37 +12,41 @@ public final class StorageAnchor {
     private final UUID id;
     private final Position position;
     private final BigInteger storageCapacity;
+    private final int maxItemTypes;
     private final int accessRange;
     private final long createdAt;
 
-    private StorageAnchor(UUID id, Position position, BigInteger storageCapacity, int accessRange, long createdAt) {
+    private StorageAnchor(UUID id, Position position, BigInteger storageCapacity, int maxItemTypes, int accessRange, long createdAt) {
         Validation.requireNonNull(id, "id");
         Validation.requireNonNull(position, "position");
         Validation.requirePositive(storageCapacity, "storageCapacity");
+        Validation.requirePositive(maxItemTypes, "maxItemTypes");
         Validation.requirePositive(accessRange, "accessRange");
         this.id = id;
         this.position = position;
         this.storageCapacity = storageCapacity;
+        this.maxItemTypes = maxItemTypes;
         this.accessRange = accessRange;
         this.createdAt = createdAt;
     }
 
-    public static StorageAnchor create(Position position, BigInteger storageCapacity, int accessRange) {
-        return new StorageAnchor(UUID.randomUUID(), position, storageCapacity, accessRange, System.currentTimeMillis());
+    public static StorageAnchor create(Position position, BigInteger storageCapacity, int maxItemTypes, int accessRange) {
+        return new StorageAnchor(UUID.randomUUID(), position, storageCapacity, maxItemTypes, accessRange, System.currentTimeMillis());
     }
 
     /** Creates an anchor linked to an existing storage ID (for VoidEssence restoration). */
-    public static StorageAnchor createWithId(UUID id, Position position, BigInteger storageCapacity, int accessRange) {
-        return new StorageAnchor(id, position, storageCapacity, accessRange, System.currentTimeMillis());
+    public static StorageAnchor createWithId(UUID id, Position position, BigInteger storageCapacity, int maxItemTypes, int accessRange) {
+        return new StorageAnchor(id, position, storageCapacity, maxItemTypes, accessRange, System.currentTimeMillis());
     }
 
-    public static StorageAnchor restore(UUID id, Position position, BigInteger storageCapacity, int accessRange, long createdAt) {
-        return new StorageAnchor(id, position, storageCapacity, accessRange, createdAt);
+    public static StorageAnchor restore(UUID id, Position position, BigInteger storageCapacity, int maxItemTypes, int accessRange, long createdAt) {
+        return new StorageAnchor(id, position, storageCapacity, maxItemTypes, accessRange, createdAt);
     }
 
     public UUID id() { return id; }
     public Position position() { return position; }
     public BigInteger storageCapacity() { return storageCapacity; }
+    public int maxItemTypes() { return maxItemTypes; }
     public int accessRange() { return accessRange; }
     public long createdAt() { return createdAt; }
 
@@ -7,6 +7,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 /** Tracks orphaned storages (anchors broken but storage preserved via VoidEssence). */
@@ -15,6 +16,7 @@ public final class OrphanedStorageRegistry {
     private static final HytaleLogger logger = HytaleLogger.forEnclosingClass();
 
     private final Map<UUID, OrphanedStorage> orphans = new ConcurrentHashMap<>();
+    private final AtomicLong modifications = new AtomicLong();
     private Duration retentionPeriod = Duration.ofDays(30);
 
     /** Record of an orphaned storage. */
@@ -36,18 +38,21 @@ public final class OrphanedStorageRegistry {
     /** Marks a storage as orphaned (anchor was broken, VoidEssence given to player). */
     public void markOrphaned(UUID storageId) {
         orphans.put(storageId, new OrphanedStorage(storageId, System.currentTimeMillis()));
+        modifications.incrementAndGet();
         logger.at(Level.INFO).log("Storage %s marked as orphaned", storageId);
     }
 
     /** Registers an orphaned storage (for persistence loading). */
     public void register(OrphanedStorage orphan) {
         orphans.put(orphan.storageId(), orphan);
+        modifications.incrementAndGet();
     }
 
     /** Reclaims an orphaned storage (player used VoidEssence on new anchor). */
     public boolean reclaim(UUID storageId) {
         OrphanedStorage removed = orphans.remove(storageId);
         if (removed != null) {
+            modifications.incrementAndGet();
             logger.at(Level.INFO).log("Storage %s reclaimed from orphan state", storageId);
             return true;
         }
@@ -87,10 +92,18 @@ public final class OrphanedStorageRegistry {
             return false;
         });
 
+        if (!expired.isEmpty()) {
+            modifications.incrementAndGet();
+        }
         return expired;
     }
 
     public int size() {
         return orphans.size();
     }
+
+    /** Counts changes to the orphan set. Bumped after each change, so a reader that saw it also sees the change. */
+    public long modCount() {
+        return modifications.get();
+    }
 }
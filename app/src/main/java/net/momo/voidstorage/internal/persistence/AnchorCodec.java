@@ -3,18 +3,28 @@ package net.momo.voidstorage.internal.persistence;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import net.momo.silo.core.Services;
+import net.momo.silo.persistence.BinaryCodec;
+import net.momo.silo.persistence.BinaryInput;
+import net.momo.silo.persistence.BinaryOutput;
 import net.momo.silo.persistence.Codec;
+import net.momo.silo.persistence.StorageCodec;
+import net.momo.silo.storage.ItemIds;
 import net.momo.silo.storage.Storage;
 import net.momo.silo.storage.StorageRegistry;
 import net.momo.silo.util.Position;
 import net.momo.voidstorage.internal.anchor.StorageAnchor;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.Map;
 import java.util.UUID;
 
-/** Codec for StorageAnchor serialization. */
-public final class AnchorCodec implements Codec<StorageAnchor> {
+/**
+ * Codec for StorageAnchor serialization, in JSON and binary form. Only anchor metadata is written;
+ * the storage's items are saved separately under the anchor ID (see {@link StorageCodec}). Items
+ * inlined by JSON saves from before that split are still read; the binary format never inlined them.
+ */
+public final class AnchorCodec implements Codec<StorageAnchor>, BinaryCodec<StorageAnchor> {
 
     @Override
     public JsonElement serialize(StorageAnchor anchor) {
@@ -24,19 +34,9 @@ public final class AnchorCodec implements Codec<StorageAnchor> {
         json.addProperty("y", anchor.position().y());
         json.addProperty("z", anchor.position().z());
         json.addProperty("storageCapacity", anchor.storageCapacity().toString());
+        json.addProperty("maxItemTypes", anchor.maxItemTypes());
         json.addProperty("accessRange", anchor.accessRange());
         json.addProperty("createdAt", anchor.createdAt());
-
-        // Serialize storage items
-        StorageRegistry storageRegistry = Services.get(StorageRegistry.class);
-        storageRegistry.get(anchor.id()).ifPresent(storage -> {
-            JsonObject items = new JsonObject();
-            for (Map.Entry<String, Long> entry : storage.getItemsAsMap().entrySet()) {
-                items.addProperty(entry.getKey(), entry.getValue());
-            }
-            json.add("items", items);
-        });
-
         return json;
     }
 
@@ -51,23 +51,52 @@ public final class AnchorCodec implements Codec<StorageAnchor> {
             json.get("z").getAsInt()
         );
         BigInteger storageCapacity = new BigInteger(json.get("storageCapacity").getAsString());
+        int maxItemTypes = json.has("maxItemTypes") ? json.get("maxItemTypes").getAsInt() : Storage.DEFAULT_MAX_ITEM_TYPES;
         int accessRange = json.get("accessRange").getAsInt();
         long createdAt = json.get("createdAt").getAsLong();
 
-        StorageAnchor anchor = StorageAnchor.restore(id, position, storageCapacity, accessRange, createdAt);
+        StorageAnchor anchor = StorageAnchor.restore(id, position, storageCapacity, maxItemTypes, accessRange, createdAt);
 
-        // Restore storage items
+        // JSON saves from before storages had their own section inlined the items
         if (json.has("items")) {
-            StorageRegistry storageRegistry = Services.get(StorageRegistry.class);
-            Storage storage = storageRegistry.getOrCreate(anchor.id(), anchor.storageCapacity());
-
             JsonObject items = json.getAsJsonObject("items");
-            for (String itemId : items.keySet()) {
-                long quantity = items.get(itemId).getAsLong();
-                storage.deposit(itemId, quantity);
+            int count = items.size();
+            int[] handles = new int[count];
+            long[] quantities = new long[count];
+            int i = 0;
+            for (Map.Entry<String, JsonElement> item : items.entrySet()) {
+                handles[i] = ItemIds.intern(item.getKey());
+                quantities[i] = item.getValue().getAsLong();
+                i++;
             }
+            Services.get(StorageRegistry.class).restore(anchor.id(), anchor.storageCapacity(), anchor.maxItemTypes(),
+                handles, quantities, count);
         }
 
         return anchor;
     }
+
+    @Override
+    public void write(StorageAnchor anchor, BinaryOutput out) {
+        out.writeUuid(anchor.id());
+        out.writeSignedVarInt(anchor.position().x());
+        out.writeSignedVarInt(anchor.position().y());
+        out.writeSignedVarInt(anchor.position().z());
+        out.writeBigInteger(anchor.storageCapacity());
+        out.writeVarInt(anchor.maxItemTypes());
+        out.writeVarInt(anchor.accessRange());
+        out.writeVarLong(anchor.createdAt());
+    }
+
+    @Override
+    public StorageAnchor read(BinaryInput in) throws IOException {
+        UUID id = in.readUuid();
+        Position position = Position.of(in.readSignedVarInt(), in.readSignedVarInt(), in.readSignedVarInt());
+        BigInteger storageCapacity = in.readBigInteger();
+        int maxItemTypes = in.readVarInt();
+        int accessRange = in.readVarInt();
+        long createdAt = in.readVarLong();
+
+        return StorageAnchor.restore(id, position, storageCapacity, maxItemTypes, accessRange, createdAt);
+    }
 }
@@ -2,13 +2,17 @@ package net.momo.voidstorage.internal.persistence;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import net.momo.silo.persistence.BinaryCodec;
+import net.momo.silo.persistence.BinaryInput;
+import net.momo.silo.persistence.BinaryOutput;
 import net.momo.silo.persistence.Codec;
 import net.momo.voidstorage.internal.essence.OrphanedStorageRegistry.OrphanedStorage;
 
+import java.io.IOException;
 import java.util.UUID;
 
-/** Codec for OrphanedStorage serialization. */
-public final class OrphanedStorageCodec implements Codec<OrphanedStorage> {
+/** Codec for OrphanedStorage serialization, in JSON and binary form. */
+public final class OrphanedStorageCodec implements Codec<OrphanedStorage>, BinaryCodec<OrphanedStorage> {
 
     @Override
     public JsonElement serialize(OrphanedStorage orphan) {
@@ -25,4 +29,15 @@ public final class OrphanedStorageCodec implements Codec<OrphanedStorage> {
         long orphanedAt = json.get("orphanedAt").getAsLong();
         return new OrphanedStorage(storageId, orphanedAt);
     }
+
+    @Override
+    public void write(OrphanedStorage orphan, BinaryOutput out) {
+        out.writeUuid(orphan.storageId());
+        out.writeVarLong(orphan.orphanedAt());
+    }
+
+    @Override
+    public OrphanedStorage read(BinaryInput in) throws IOException {
+        return new OrphanedStorage(in.readUuid(), in.readVarLong());
+    }
 }
@@ -3,18 +3,22 @@ package net.momo.voidstorage.internal.persistence;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import net.momo.silo.persistence.BinaryCodec;
+import net.momo.silo.persistence.BinaryInput;
+import net.momo.silo.persistence.BinaryOutput;
 import net.momo.silo.persistence.Codec;
 import net.momo.silo.util.Position;
 import net.momo.voidstorage.internal.transfer.FilterMode;
 import net.momo.voidstorage.internal.transfer.Transfer;
 import net.momo.voidstorage.internal.transfer.TransferMode;
 
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.UUID;
 
-/** Codec for Transfer serialization. */
-public final class TransferCodec implements Codec<Transfer> {
+/** Codec for Transfer serialization, in JSON and binary form. */
+public final class TransferCodec implements Codec<Transfer>, BinaryCodec<Transfer> {
 
     @Override
     public JsonElement serialize(Transfer transfer) {
@@ -65,4 +69,39 @@ public final class TransferCodec implements Codec<Transfer> {
 
         return Transfer.restore(id, anchorId, mode, position, itemFilters, filterMode, createdAt);
     }
+
+    @Override
+    public void write(Transfer transfer, BinaryOutput out) {
+        out.writeUuid(transfer.id());
+        out.writeUuid(transfer.anchorId());
+        out.writeString(transfer.mode().name());
+        out.writeSignedVarInt(transfer.position().x());
+        out.writeSignedVarInt(transfer.position().y());
+        out.writeSignedVarInt(transfer.position().z());
+        out.writeVarLong(transfer.createdAt());
+
+        out.writeVarInt(transfer.itemFilters().size());
+        for (String filter : transfer.itemFilters()) {
+            out.writeItemId(filter);
+        }
+        out.writeString(transfer.filterMode().name());
+    }
+
+    @Override
+    public Transfer read(BinaryInput in) throws IOException {
+        UUID id = in.readUuid();
+        UUID anchorId = in.readUuid();
+        TransferMode mode = TransferMode.valueOf(in.readString());
+        Position position = Position.of(in.readSignedVarInt(), in.readSignedVarInt(), in.readSignedVarInt());
+        long createdAt = in.readVarLong();
+
+        int filterCount = in.readVarInt();
+        Set<String> itemFilters = new HashSet<>();
+        for (int i = 0; i < filterCount; i++) {
+            itemFilters.add(in.readItemId());
+        }
+        FilterMode filterMode = FilterMode.valueOf(in.readString());
+
+        return Transfer.restore(id, anchorId, mode, position, itemFilters, filterMode, createdAt);
+    }
 }
@@ -4,6 +4,7 @@ import net.momo.silo.util.Position;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.StampedLock;
 import java.util.stream.Collectors;
 
@@ -16,6 +17,7 @@ public final class TransferRegistry {
     private final Shard[] shards;
     private final Map<UUID, Transfer> byId = new ConcurrentHashMap<>();
     private final Map<Long, Transfer> byPosition = new ConcurrentHashMap<>();
+    private final AtomicLong modifications = new AtomicLong();
 
     public TransferRegistry() {
         this.shards = new Shard[SHARD_COUNT];
@@ -36,6 +38,7 @@ public final class TransferRegistry {
         } finally {
             shard.lock.unlockWrite(stamp);
         }
+        modifications.incrementAndGet();
     }
 
     public boolean unregister(UUID id) {
@@ -56,6 +59,7 @@ public final class TransferRegistry {
                         shard.byAnchorId.remove(removed.anchorId());
                     }
                 }
+                modifications.incrementAndGet();
                 return true;
             }
             return false;
@@ -81,6 +85,7 @@ public final class TransferRegistry {
                     count++;
                 }
             }
+            modifications.incrementAndGet();
             return count;
         } finally {
             shard.lock.unlockWrite(stamp);
@@ -91,6 +96,7 @@ public final class TransferRegistry {
         if (byId.containsKey(transfer.id())) {
             byId.put(transfer.id(), transfer);
             byPosition.put(transfer.position().toKey(), transfer);
+            modifications.incrementAndGet();
         }
     }
 
@@ -137,6 +143,11 @@ public final class TransferRegistry {
         return byId.size();
     }
 
+    /** Counts registrations, updates and removals. Bumped after each change, so a reader that saw it also sees the change. */
+    public long modCount() {
+        return modifications.get();
+    }
+
     public void clear() {
         for (Shard shard : shards) {
             long stamp = shard.lock.writeLock();
@@ -148,6 +159,7 @@ public final class TransferRegistry {
         }
         byId.clear();
         byPosition.clear();
+        modifications.incrementAndGet();
     }
 
     private Shard shardFor(UUID anchorId) {
@@ -0,0 +1,141 @@
+package net.momo.silo.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BackupRotationTest {
+
+    private static final Duration FOREVER = ChronoUnit.FOREVER.getDuration();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void keepsTheConfiguredNumberOfGenerations() throws IOException {
+        Path file = directory.resolve("data.json");
+        BackupRotation backups = new BackupRotation(file);
+        backups.retain(3, FOREVER);
+        for (int i = 1; i <= 6; i++) {
+            save(file, backups, "v" + i);
+        }
+
+        assertEquals(List.of(5L, 4L, 3L), numbers(backups));
+        assertEquals("v6", Files.readString(file));
+        assertEquals("v5", Files.readString(backups.generations().get(0).file()));
+    }
+
+    @Test
+    void prunesExpiredGenerationsButKeepsTheNewest() throws IOException {
+        Path file = directory.resolve("data.json");
+        BackupRotation backups = new BackupRotation(file);
+        backups.retain(10, Duration.ofHours(1));
+        save(file, backups, "v1");
+        save(file, backups, "v2");
+        FileTime old = FileTime.from(Instant.now().minus(Duration.ofDays(1)));
+        for (BackupRotation.Generation generation : backups.generations()) {
+            Files.setLastModifiedTime(generation.file(), old);
+        }
+
+        save(file, backups, "v3");
+        assertEquals(List.of(2L), numbers(backups));
+
+        // The newest survives even when expired
+        Files.setLastModifiedTime(backups.generations().get(0).file(), old);
+        Files.setLastModifiedTime(file, old);
+        save(file, backups, "v4");
+        assertEquals(List.of(3L), numbers(backups));
+    }
+
+    @Test
+    void legacyBackupCountsAsGenerationZero() throws IOException {
+        Path file = directory.resolve("data.json");
+        Files.writeString(directory.resolve("data.json.backup"), "legacy");
+        BackupRotation backups = new BackupRotation(file);
+        backups.retain(5, FOREVER);
+        save(file, backups, "v1");
+        save(file, backups, "v2");
+
+        assertEquals(List.of(1L, 0L), numbers(backups));
+    }
+
+    @Test
+    void recoverPicksTheNewestGenerationThatPasses() throws IOException {
+        Path file = directory.resolve("data.json");
+        BackupRotation backups = new BackupRotation(file);
+        backups.retain(5, FOREVER);
+        save(file, backups, "good");
+        save(file, backups, "bad");
+        save(file, backups, "current");
+        Files.delete(file);
+
+        assertTrue(backups.recover(candidate -> Files.readString(candidate).equals("good")));
+        assertEquals("good", Files.readString(file));
+        assertEquals(List.of(2L, 1L), numbers(backups));
+
+        assertFalse(backups.recover(candidate -> {
+            throw new IOException("unreadable");
+        }));
+    }
+
+    @Test
+    void scheduledRestoreIsAppliedOnceAndPinsItsGeneration() throws IOException {
+        Path file = directory.resolve("data.json");
+        BackupRotation backups = new BackupRotation(file);
+        backups.retain(2, FOREVER);
+        save(file, backups, "v1");
+        save(file, backups, "v2");
+        assertFalse(backups.scheduleRestore(42));
+        assertTrue(backups.scheduleRestore(1));
+        assertEquals(1, backups.scheduledRestore());
+
+        // Rotations until the next load must not prune the pinned generation
+        save(file, backups, "v3");
+        save(file, backups, "v4");
+        assertTrue(numbers(backups).contains(1L));
+
+        assertTrue(backups.applyScheduledRestore());
+        assertEquals("v1", Files.readString(file));
+        assertEquals(-1, backups.scheduledRestore());
+        assertFalse(backups.applyScheduledRestore());
+    }
+
+    @Test
+    void indexOnlyGenerationsCannotBeRestored() throws IOException {
+        Path file = directory.resolve("index.json");
+        BackupRotation backups = new BackupRotation(file);
+        save(file, backups, "v1");
+        save(file, backups, "v2");
+        backups.markIndexOnly();
+
+        assertTrue(backups.isIndexOnly());
+        assertThrows(IllegalStateException.class, () -> backups.scheduleRestore(1));
+        assertEquals(-1, backups.scheduledRestore());
+        // Recovery from a corrupt index still works
+        assertTrue(backups.recover(candidate -> true));
+        assertEquals("v1", Files.readString(file));
+    }
+
+    private static void save(Path file, BackupRotation backups, String contents) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, contents);
+        SaveFiles.replace(temp, file, backups);
+    }
+
+    private static List<Long> numbers(BackupRotation backups) throws IOException {
+        return backups.generations().stream().map(BackupRotation.Generation::number).toList();
+    }
+}
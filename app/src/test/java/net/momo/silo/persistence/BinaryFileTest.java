@@ -0,0 +1,131 @@
+package net.momo.silo.persistence;
+
+import net.momo.silo.storage.Storage;
+import net.momo.silo.storage.StorageBackend;
+import net.momo.silo.storage.StorageRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BinaryFileTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripsSectionsThroughTheDictionary() throws IOException {
+        BinaryOutput body = new BinaryOutput();
+        BinaryOutput section = body.section();
+        section.writeItemId("Codec_Stone");
+        section.writeSignedVarLong(-42);
+        section.writeItemId("Codec_Dirt");
+        section.writeItemId("Codec_Stone");
+        body.writeString("head");
+        body.append(section);
+        body.writeUuid(new UUID(1, 2));
+
+        Path file = directory.resolve("frame.bin");
+        BinaryFile.write(file, body, 7, Compression.NONE, null);
+
+        BinaryFile.Contents contents = BinaryFile.read(file);
+        assertEquals(7, contents.journalSegment());
+        BinaryInput in = contents.body();
+        assertEquals("head", in.readString());
+        assertEquals("Codec_Stone", in.readItemId());
+        assertEquals(-42, in.readSignedVarLong());
+        assertEquals("Codec_Dirt", in.readItemId());
+        assertEquals("Codec_Stone", in.readItemId());
+        assertEquals(new UUID(1, 2), in.readUuid());
+    }
+
+    @Test
+    void compressedFilesAreRecognisedByTheirMagic() throws IOException {
+        BinaryOutput body = new BinaryOutput();
+        body.writeVarLong(Long.MAX_VALUE);
+        Path file = directory.resolve("frame.bin.gz");
+        BinaryFile.write(file, body, 0, Compression.GZIP, null);
+
+        try (InputStream in = Files.newInputStream(file)) {
+            assertEquals(0x1f, in.read());
+            assertEquals(0x8b, in.read());
+        }
+        assertEquals(Long.MAX_VALUE, BinaryFile.read(file).body().readVarLong());
+    }
+
+    @Test
+    void rejectsACorruptedFile() throws IOException {
+        BinaryOutput body = new BinaryOutput();
+        body.writeString("payload that will be damaged");
+        Path file = directory.resolve("frame.bin");
+        BinaryFile.write(file, body, 0, Compression.NONE, null);
+
+        byte[] data = Files.readAllBytes(file);
+        data[data.length / 2] ^= 0x10;
+        Files.write(file, data);
+        IOException error = assertThrows(IOException.class, () -> BinaryFile.read(file));
+        assertEquals("Checksum mismatch", error.getMessage());
+
+        Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrows(IOException.class, () -> BinaryFile.read(file));
+    }
+
+    @Test
+    void storagesRoundTripThroughBinaryPersistence() throws IOException {
+        StorageRegistry registry = new StorageRegistry(StorageBackend.HEAP);
+        Storage first = registry.getOrCreate(UUID.randomUUID(), BigInteger.valueOf(1_000_000), 64);
+        first.deposit("Codec_Stone", 120);
+        first.deposit("Codec_Dirt", 3);
+        registry.getOrCreate(UUID.randomUUID(), 500).deposit("Codec_Stone", 500);
+        registry.getOrCreate(UUID.randomUUID(), 10);
+
+        persistence(registry, "data.bin.gz").save();
+
+        StorageRegistry loaded = new StorageRegistry(StorageBackend.HEAP);
+        persistence(loaded, "data.bin.gz").load();
+        assertEquals(state(registry), state(loaded));
+    }
+
+    @Test
+    void corruptSaveFallsBackToTheBackup() throws IOException {
+        StorageRegistry registry = new StorageRegistry(StorageBackend.HEAP);
+        Storage storage = registry.getOrCreate(UUID.randomUUID(), 1_000);
+        storage.deposit("Codec_Stone", 10);
+        BinaryPersistence persistence = persistence(registry, "data.bin");
+        persistence.save();
+        Map<String, Map<String, Long>> saved = state(registry);
+        storage.deposit("Codec_Stone", 5);
+        persistence.save();
+
+        Path file = directory.resolve("data.bin");
+        byte[] data = Files.readAllBytes(file);
+        data[data.length - 1] ^= 0x01;
+        Files.write(file, data);
+
+        StorageRegistry loaded = new StorageRegistry(StorageBackend.HEAP);
+        persistence(loaded, "data.bin").load();
+        assertEquals(saved, state(loaded));
+    }
+
+    private BinaryPersistence persistence(StorageRegistry registry, String filename) {
+        return new BinaryPersistence(directory, filename).bind("storages", new StorageCodec(StorageBackend.HEAP),
+            () -> StorageCodec.entries(registry), entry -> registry.register(entry.id(), entry.storage()));
+    }
+
+    static Map<String, Map<String, Long>> state(StorageRegistry registry) {
+        Map<String, Map<String, Long>> state = new TreeMap<>();
+        registry.forEach((id, storage) -> state.put(id + "/" + storage.capacity() + "/" + storage.maxItemTypes(),
+            new TreeMap<>(storage.getItemsAsMap())));
+        return state;
+    }
+}
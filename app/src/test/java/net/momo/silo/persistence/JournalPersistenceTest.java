@@ -0,0 +1,231 @@
+package net.momo.silo.persistence;
+
+import net.momo.silo.storage.Storage;
+import net.momo.silo.storage.StorageBackend;
+import net.momo.silo.storage.StorageRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JournalPersistenceTest {
+
+    private static final UUID NETWORK = UUID.randomUUID();
+
+    @TempDir
+    Path directory;
+
+    private final List<JournalPersistence> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeAll() throws IOException {
+        for (JournalPersistence journal : opened) {
+            journal.close();
+        }
+    }
+
+    @Test
+    void replaysCommittedChangesAfterACrash() throws IOException {
+        StorageRegistry registry = new StorageRegistry(StorageBackend.HEAP);
+        JournalPersistence journal = open(registry);
+        journal.save();
+
+        Storage storage = registry.get(NETWORK).orElseThrow();
+        storage.deposit("Journal_Stone", 40);
+        storage.deposit("Journal_Dirt", 7);
+        storage.withdraw("Journal_Stone", 15);
+        assertTrue(journal.commit());
+        assertTrue(journal.journalBytes() > 0);
+
+        // No close: the changes exist only in the journal
+        StorageRegistry recovered = new StorageRegistry(StorageBackend.HEAP);
+        open(recovered);
+        assertEquals(BinaryFileTest.state(registry), BinaryFileTest.state(recovered));
+    }
+
+    @Test
+    void tornTailEndsTheReplay() throws IOException {
+        StorageRegistry registry = new StorageRegistry(StorageBackend.HEAP);
+        JournalPersistence journal = open(registry);
+        journal.save();
+        registry.get(NETWORK).orElseThrow().deposit("Journal_Stone", 12);
+        journal.commit();
+        Map<String, Map<String, Long>> committed = BinaryFileTest.state(registry);
+
+        Path newest = segments().get(segments().size() - 1);
+        Files.write(newest, new byte[] {0, 0, 0, 50, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        StorageRegistry recovered = new StorageRegistry(StorageBackend.HEAP);
+        open(recovered);
+        assertEquals(committed, BinaryFileTest.state(recovered));
+    }
+
+    @Test
+    void compactionKeepsSegmentsForOneMoreBase() throws IOException {
+        StorageRegistry registry = new StorageRegistry(StorageBackend.HEAP);
+        JournalPersistence journal = open(registry);
+        assertEquals(List.of("0"), segmentNumbers());
+
+        journal.save();
+        assertEquals(List.of("0", "1"), segmentNumbers());
+        journal.save();
+        assertEquals(List.of("1", "2"), segmentNumbers());
+        assertEquals(0, journal.journalBytes());
+    }
+
+    /** A cleared storage is journaled as a reset record, replayed as one bulk restore. */
+    @Test
+    void replaysResetsAfterAClear() throws IOException {
+        StorageRegistry registry = new StorageRegistry(StorageBackend.HEAP);
+        JournalPersistence journal = open(registry);
+        Storage storage = registry.get(NETWORK).orElseThrow();
+        storage.deposit("Journal_Stone", 40);
+        journal.save();
+        storage.clear();
+        storage.deposit("Journal_Dirt", 9);
+        storage.deposit("Journal_Sand", 2);
+        journal.commit();
+
+        StorageRegistry recovered = new StorageRegistry(StorageBackend.HEAP);
+        open(recovered);
+        assertEquals(BinaryFileTest.state(registry), BinaryFileTest.state(recovered));
+        Storage restored = recovered.get(NETWORK).orElseThrow();
+        assertEquals(11, restored.getTotalItems());
+        assertEquals(2, restored.getUniqueItemCount());
+    }
+
+    /** A record naming a handle with no definition ends its segment's replay like a corrupt one. */
+    @Test
+    void undefinedHandleEndsTheReplay() throws IOException {
+        StorageRegistry registry = new StorageRegistry(StorageBackend.HEAP);
+        JournalPersistence journal = open(registry);
+        journal.save();
+        registry.get(NETWORK).orElseThrow().deposit("Journal_Stone", 12);
+        journal.commit();
+        Map<String, Map<String, Long>> committed = BinaryFileTest.state(registry);
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(1);
+        out.writeLong(NETWORK.getMostSignificantBits());
+        out.writeLong(NETWORK.getLeastSignificantBits());
+        out.writeInt(1);
+        out.writeInt(987_654);
+        out.writeLong(5);
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream framed = new DataOutputStream(record);
+        framed.writeInt(bytes.length);
+        framed.writeInt((int) crc.getValue());
+        framed.write(bytes);
+        Path newest = segments().get(segments().size() - 1);
+        Files.write(newest, record.toByteArray(), StandardOpenOption.APPEND);
+
+        StorageRegistry recovered = new StorageRegistry(StorageBackend.HEAP);
+        open(recovered);
+        assertEquals(committed, BinaryFileTest.state(recovered));
+    }
+
+    /** A corrupt base falls back to its backup, which the segments kept since still bring up to date. */
+    @Test
+    void backupBaseReplaysTheSegmentsAfterIt() throws IOException {
+        StorageRegistry registry = new StorageRegistry(StorageBackend.HEAP);
+        JournalPersistence journal = open(registry);
+        Storage storage = registry.get(NETWORK).orElseThrow();
+        journal.save();
+        storage.deposit("Journal_Stone", 30);
+        journal.commit();
+        journal.save();
+        storage.deposit("Journal_Dirt", 4);
+        storage.withdraw("Journal_Stone", 10);
+        journal.commit();
+        Map<String, Map<String, Long>> expected = BinaryFileTest.state(registry);
+
+        Path base = directory.resolve("data.bin");
+        byte[] data = Files.readAllBytes(base);
+        data[data.length / 2] ^= 0x20;
+        Files.write(base, data);
+
+        StorageRegistry recovered = new StorageRegistry(StorageBackend.HEAP);
+        open(recovered);
+        assertEquals(expected, BinaryFileTest.state(recovered));
+    }
+
+    /**
+     * A base write that keeps failing leaves the structure unsaved, so the committer retries it.
+     * Retries back off and reuse the open segment rather than starting one per attempt.
+     */
+    @Test
+    void failingBaseWritesBackOffWithoutNewSegments() throws Exception {
+        StorageRegistry registry = new StorageRegistry(StorageBackend.HEAP);
+        JournalPersistence journal = open(registry);
+        journal.save();
+        // A directory where the temporary base goes makes every base write fail
+        Path blocker = Files.createDirectory(directory.resolve("data.bin.tmp"));
+
+        registry.get(NETWORK).orElseThrow().deposit("Journal_Stone", 5);
+        assertThrows(IOException.class, journal::save);
+        List<String> afterFailure = segmentNumbers();
+        assertThrows(IOException.class, journal::save);
+        assertEquals(afterFailure, segmentNumbers());
+
+        // The committer runs every 200 ms; without the backoff each run would start a segment
+        Thread.sleep(1_000);
+        assertEquals(afterFailure, segmentNumbers());
+
+        Files.delete(blocker);
+        registry.get(NETWORK).orElseThrow().deposit("Journal_Dirt", 3);
+        journal.save();
+        Map<String, Map<String, Long>> expected = BinaryFileTest.state(registry);
+        StorageRegistry recovered = new StorageRegistry(StorageBackend.HEAP);
+        open(recovered);
+        assertEquals(expected, BinaryFileTest.state(recovered));
+    }
+
+    private JournalPersistence open(StorageRegistry registry) throws IOException {
+        BinaryPersistence base = new BinaryPersistence(directory, "data.bin").bind("storages",
+            new StorageCodec(StorageBackend.HEAP), () -> StorageCodec.entries(registry),
+            entry -> registry.register(entry.id(), entry.storage()));
+        // Structure stays put, so the committer never compacts behind the test's back
+        JournalPersistence journal = new JournalPersistence(base, registry, () -> 0);
+        journal.load();
+        registry.getOrCreate(NETWORK, 1_000_000);
+        opened.add(journal);
+        return journal;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("data.bin.journal."))
+                .sorted((a, b) -> Long.compare(number(a), number(b)))
+                .toList();
+        }
+    }
+
+    private List<String> segmentNumbers() throws IOException {
+        return segments().stream().map(file -> Long.toString(number(file))).toList();
+    }
+
+    private static long number(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+    }
+}
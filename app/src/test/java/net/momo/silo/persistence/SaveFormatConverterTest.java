@@ -0,0 +1,56 @@
+package net.momo.silo.persistence;
+
+import net.momo.silo.storage.Storage;
+import net.momo.silo.storage.StorageBackend;
+import net.momo.silo.storage.StorageRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SaveFormatConverterTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void convertsAJsonSaveToShardsOnce() throws IOException {
+        StorageRegistry original = new StorageRegistry(StorageBackend.HEAP);
+        Storage first = original.getOrCreate(UUID.randomUUID(), BigInteger.valueOf(5_000), 40);
+        first.deposit("Convert_Stone", 1_200);
+        first.deposit("Convert_Dirt", 3);
+        original.getOrCreate(UUID.randomUUID(), 900).deposit("Convert_Stone", 17);
+        json(original).save();
+
+        StorageRegistry converted = new StorageRegistry(StorageBackend.HEAP);
+        Path jsonFile = directory.resolve("data.json");
+        Path index = ShardedPersistence.indexFile(directory.resolve("data"));
+        assertTrue(SaveFormatConverter.importIfMissing(json(converted), jsonFile, sharded(converted), index));
+        assertEquals(BinaryFileTest.state(original), BinaryFileTest.state(converted));
+        assertTrue(Files.exists(jsonFile));
+
+        StorageRegistry reloaded = new StorageRegistry(StorageBackend.HEAP);
+        ShardedPersistence shards = sharded(reloaded);
+        assertFalse(SaveFormatConverter.importIfMissing(json(reloaded), jsonFile, shards, index));
+        shards.load();
+        assertEquals(BinaryFileTest.state(original), BinaryFileTest.state(reloaded));
+    }
+
+    private JsonPersistence json(StorageRegistry registry) {
+        return new JsonPersistence(directory, "data.json").bind("storages", new StorageCodec(StorageBackend.HEAP),
+            () -> StorageCodec.entries(registry), entry -> registry.register(entry.id(), entry.storage()),
+            registry::modCount);
+    }
+
+    private ShardedPersistence sharded(StorageRegistry registry) {
+        return new ShardedPersistence(directory.resolve("data")).bindStorages("storages", registry, false);
+    }
+}
@@ -0,0 +1,106 @@
+package net.momo.silo.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CapacityLedgerTest {
+
+    @Test
+    void fillsExactlyToCapacity() {
+        CapacityLedger ledger = new CapacityLedger(10_000);
+        long reserved = 0;
+        long step;
+        while ((step = ledger.reserve(7)) > 0) {
+            reserved += step;
+        }
+        assertEquals(10_000, reserved);
+        assertEquals(10_000, ledger.used());
+        assertEquals(0, ledger.remaining());
+
+        ledger.release(3);
+        assertEquals(3, ledger.reserve(5));
+        assertEquals(0, ledger.reserve(1));
+    }
+
+    @Test
+    void ledgerSmallerThanTheStripesStillFills() {
+        CapacityLedger ledger = new CapacityLedger(3);
+        assertEquals(3, ledger.reserve(10));
+        assertEquals(0, ledger.reserve(1));
+        ledger.release(1);
+        assertEquals(1, ledger.reserve(1));
+    }
+
+    @Test
+    void forcedReservationsAreRepaidBeforeNewOnes() {
+        CapacityLedger ledger = new CapacityLedger(5);
+        ledger.forceReserve(10);
+        assertEquals(10, ledger.used());
+        assertEquals(0, ledger.remaining());
+        assertEquals(0, ledger.reserve(1));
+
+        ledger.release(7);
+        assertEquals(2, ledger.reserve(5));
+    }
+
+    @Test
+    void concurrentTrafficConservesCapacity() throws Exception {
+        long capacity = 200_000;
+        CapacityLedger ledger = new CapacityLedger(capacity, 512);
+        LongAdder mirror = new LongAdder();
+        ledger.mirrorTo(mirror);
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Long>> held = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            held.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                long mine = 0;
+                start.await();
+                for (int i = 0; i < 100_000; i++) {
+                    if (mine > 0 && random.nextInt(3) == 0) {
+                        long amount = Math.min(mine, random.nextInt(64) + 1);
+                        ledger.release(amount);
+                        mine -= amount;
+                    } else {
+                        mine += ledger.reserve(random.nextInt(64) + 1);
+                    }
+                }
+                return mine;
+            }));
+        }
+        start.countDown();
+        long total = 0;
+        for (Future<Long> future : held) {
+            total += future.get();
+        }
+        executor.shutdown();
+
+        assertTrue(total <= capacity);
+        assertEquals(total, ledger.used());
+        assertEquals(total, mirror.sum());
+
+        // Leases the workers' stripes still hold must be swept back for the last units
+        long rest = 0;
+        long step;
+        while ((step = ledger.reserve(1_000)) > 0) {
+            rest += step;
+        }
+        assertEquals(capacity - total, rest);
+        assertEquals(capacity, ledger.used());
+    }
+}
@@ -0,0 +1,137 @@
+package net.momo.silo.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChangeFeedTest {
+
+    @Test
+    void rejectsCapacityThatIsNotAPowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new ChangeFeed(1000));
+    }
+
+    @Test
+    void recordsNothingWithoutSubscribers() {
+        ChangeFeed feed = new ChangeFeed(8);
+        feed.publish(1, 5, 5);
+        try (ChangeFeed.Subscription subscription = feed.subscribe()) {
+            Recorder recorder = new Recorder();
+            assertEquals(0, subscription.poll(recorder));
+            assertEquals(0, subscription.backlog());
+        }
+    }
+
+    @Test
+    void deliversChangesInOrder() {
+        ChangeFeed feed = new ChangeFeed(16);
+        try (ChangeFeed.Subscription subscription = feed.subscribe()) {
+            feed.publish(1, 5, 5);
+            feed.publish(2, 3, 3);
+            feed.publish(1, -2, 3);
+            assertEquals(3, subscription.backlog());
+
+            Recorder recorder = new Recorder();
+            assertEquals(3, subscription.poll(recorder));
+            assertEquals(List.of("1:5=5", "2:3=3", "1:-2=3"), recorder.changes);
+            assertEquals(0, subscription.poll(recorder));
+        }
+    }
+
+    @Test
+    void subscribersKeepTheirOwnCursors() {
+        ChangeFeed feed = new ChangeFeed(16);
+        try (ChangeFeed.Subscription early = feed.subscribe()) {
+            feed.publish(1, 1, 1);
+            try (ChangeFeed.Subscription late = feed.subscribe()) {
+                feed.publish(2, 1, 1);
+                Recorder first = new Recorder();
+                Recorder second = new Recorder();
+                assertEquals(2, early.poll(first));
+                assertEquals(1, late.poll(second));
+                assertEquals(List.of("2:1=1"), second.changes);
+            }
+        }
+    }
+
+    @Test
+    void coalescesABacklogPastHalfTheRing() {
+        ChangeFeed feed = new ChangeFeed(16);
+        try (ChangeFeed.Subscription subscription = feed.subscribe()) {
+            for (int i = 1; i <= 6; i++) {
+                feed.publish(1, 1, i);
+                feed.publish(2, -1, 100 - i);
+            }
+            Recorder recorder = new Recorder();
+            assertEquals(2, subscription.poll(recorder));
+            assertEquals(List.of("1:6=6", "2:-6=94"), recorder.changes);
+        }
+    }
+
+    @Test
+    void lappedSubscriberIsToldToResync() {
+        ChangeFeed feed = new ChangeFeed(8);
+        try (ChangeFeed.Subscription subscription = feed.subscribe()) {
+            for (int i = 0; i < 9; i++) {
+                feed.publish(1, 1, i + 1);
+            }
+            Recorder recorder = new Recorder();
+            assertEquals(-1, subscription.poll(recorder));
+            assertEquals(1, recorder.resyncs);
+
+            // Polling resumes from the head
+            feed.publish(3, 4, 4);
+            assertEquals(1, subscription.poll(recorder));
+            assertEquals(List.of("3:4=4"), recorder.changes);
+        }
+    }
+
+    @Test
+    void invalidateForcesEverySubscriberToResync() {
+        ChangeFeed feed = new ChangeFeed(8);
+        try (ChangeFeed.Subscription subscription = feed.subscribe()) {
+            feed.publish(1, 1, 1);
+            feed.invalidate();
+            Recorder recorder = new Recorder();
+            assertEquals(-1, subscription.poll(recorder));
+            assertEquals(1, recorder.resyncs);
+            assertEquals(0, subscription.poll(recorder));
+        }
+    }
+
+    @Test
+    void storageWritesReachTheFeed() {
+        Storage storage = new HeapStorage(1_000);
+        int handle = ItemIds.intern("Feed_Item");
+        try (ChangeFeed.Subscription subscription = storage.changes().subscribe()) {
+            storage.deposit(handle, 10);
+            storage.withdraw(handle, 4);
+            Recorder recorder = new Recorder();
+            assertEquals(2, subscription.poll(recorder));
+            assertEquals(List.of(handle + ":10=10", handle + ":-4=6"), recorder.changes);
+
+            storage.clear();
+            assertEquals(-1, subscription.poll(recorder));
+        }
+    }
+
+    private static final class Recorder implements ChangeFeed.ChangeListener {
+        final List<String> changes = new ArrayList<>();
+        int resyncs;
+
+        @Override
+        public void onChange(int handle, long delta, long newQuantity) {
+            changes.add(handle + ":" + delta + "=" + newQuantity);
+        }
+
+        @Override
+        public void onResync() {
+            resyncs++;
+            changes.clear();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package net.momo.silo.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HandleMapTest {
+
+    @Test
+    void assignsDenseIndexesInFirstSeenOrder() {
+        HandleMap map = new HandleMap();
+        assertEquals(HandleMap.ABSENT, map.find(5_000));
+        assertEquals(0, map.indexFor(5_000));
+        assertEquals(1, map.indexFor(12));
+        assertEquals(0, map.indexFor(5_000));
+        assertEquals(1, map.find(12));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void keepsIndexesAcrossTableGrowth() {
+        HandleMap map = new HandleMap();
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(i, map.indexFor(i * 31 + 7));
+        }
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(i, map.find(i * 31 + 7));
+        }
+        assertEquals(1_000, map.size());
+    }
+
+    @Test
+    void assignAllSkipsHandlesAlreadyKnown() {
+        HandleMap map = new HandleMap();
+        map.indexFor(3);
+        map.assignAll(new int[] {1, 3, 2, 99}, 3);
+        assertEquals(0, map.find(3));
+        assertEquals(1, map.find(1));
+        assertEquals(2, map.find(2));
+        assertEquals(HandleMap.ABSENT, map.find(99));
+        assertEquals(3, map.size());
+    }
+
+    /** Slots follow the dense index, so handles far apart still land on the first pages. */
+    @Test
+    void slotsGrowAcrossPagesByDenseIndex() {
+        HandleMap map = new HandleMap();
+        ItemSlots slots = new ItemSlots(map);
+        int items = 300;
+        for (int i = 0; i < items; i++) {
+            int handle = 1_000_000 + i * 4_099;
+            assertTrue(slots.compareAndSet(handle, 0, i + 1));
+        }
+        assertEquals(items, map.size());
+        for (int i = 0; i < items; i++) {
+            assertEquals(i + 1, slots.get(1_000_000 + i * 4_099));
+        }
+        assertEquals(0, slots.get(42));
+
+        slots.clear();
+        assertEquals(0, slots.get(1_000_000));
+        // Indexes outlive a clear, so a handle keeps its slot
+        assertEquals(0, map.find(1_000_000));
+    }
+
+    @Test
+    void concurrentAssignmentGivesEachHandleOneIndex() throws Exception {
+        HandleMap map = new HandleMap();
+        int threads = 8;
+        int handles = 5_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<int[]>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            results.add(executor.submit(() -> {
+                int[] indexes = new int[handles];
+                start.await();
+                for (int i = 0; i < handles; i++) {
+                    int handle = (i + offset * 613) % handles;
+                    indexes[handle] = map.indexFor(handle);
+                }
+                return indexes;
+            }));
+        }
+        start.countDown();
+        int[] first = results.get(0).get();
+        for (Future<int[]> result : results) {
+            assertTrue(Arrays.equals(first, result.get()));
+        }
+        executor.shutdown();
+
+        Set<Integer> distinct = new HashSet<>();
+        for (int index : first) {
+            assertTrue(index >= 0 && index < handles);
+            distinct.add(index);
+        }
+        assertEquals(handles, distinct.size());
+        assertEquals(handles, map.size());
+    }
+}
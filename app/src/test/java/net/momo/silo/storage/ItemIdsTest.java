@@ -0,0 +1,103 @@
+package net.momo.silo.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ItemIdsTest {
+
+    @Test
+    void internAndLookupRoundTrip() {
+        int handle = ItemIds.intern("Ids_Round_Trip");
+        assertEquals(handle, ItemIds.intern("Ids_Round_Trip"));
+        assertEquals(handle, ItemIds.find("Ids_Round_Trip"));
+        assertEquals("Ids_Round_Trip", ItemIds.name(handle));
+        assertEquals("ids_round_trip", ItemIds.lowerName(handle));
+        assertTrue(handle < ItemIds.size());
+    }
+
+    @Test
+    void findNeverInterns() {
+        int size = ItemIds.size();
+        assertEquals(ItemIds.NONE, ItemIds.find("Ids_Never_Seen"));
+        assertEquals(ItemIds.NONE, ItemIds.find(null));
+        assertEquals(size, ItemIds.size());
+    }
+
+    @Test
+    void invalidIdsAreRejectedAndNeverInterned() {
+        assertThrows(IllegalArgumentException.class, () -> ItemIds.intern("1starts_with_digit"));
+        assertThrows(IllegalArgumentException.class, () -> ItemIds.intern(null));
+        assertEquals(ItemIds.NONE, ItemIds.find("1starts_with_digit"));
+        assertThrows(IllegalArgumentException.class, () -> ItemIds.name(-1));
+        assertThrows(IllegalArgumentException.class, () -> ItemIds.name(ItemIds.size()));
+    }
+
+    @Test
+    void validatesEachDistinctIdOnce() {
+        long misses = ItemIds.validationMisses();
+        ItemIds.requireValid("Ids_Validated_Once");
+        ItemIds.requireValid("Ids_Validated_Once");
+        ItemIds.intern("Ids_Validated_Once");
+        assertEquals(misses + 1, ItemIds.validationMisses());
+    }
+
+    @Test
+    void withdrawingAnUnknownIdValidatesItOnce() {
+        Storage storage = new HeapStorage(100);
+        long misses = ItemIds.validationMisses();
+        assertEquals(0L, storage.withdraw("Ids_Withdrawn_Unknown", 5).value());
+        assertEquals(0L, storage.withdraw("Ids_Withdrawn_Unknown", 5).value());
+        assertEquals(misses + 1, ItemIds.validationMisses());
+        assertThrows(IllegalArgumentException.class, () -> storage.withdraw("1not_valid", 5));
+    }
+
+    /** Threads racing to intern the same IDs agree on one handle each, and handles stay dense. */
+    @Test
+    void concurrentInternAssignsOneHandlePerId() throws Exception {
+        int threads = 8;
+        int ids = 2_000;
+        int before = ItemIds.size();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<int[]>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            results.add(executor.submit(() -> {
+                int[] handles = new int[ids];
+                start.await();
+                for (int i = 0; i < ids; i++) {
+                    int id = (i + offset * 97) % ids;
+                    handles[id] = ItemIds.intern("Ids_Concurrent_" + id);
+                }
+                return handles;
+            }));
+        }
+        start.countDown();
+        int[] first = results.get(0).get();
+        for (Future<int[]> result : results) {
+            assertTrue(Arrays.equals(first, result.get()));
+        }
+        executor.shutdown();
+
+        Set<Integer> distinct = new HashSet<>();
+        for (int i = 0; i < ids; i++) {
+            distinct.add(first[i]);
+            assertEquals("Ids_Concurrent_" + i, ItemIds.name(first[i]));
+        }
+        assertEquals(ids, distinct.size());
+        assertTrue(ItemIds.size() >= before + ids);
+    }
+}
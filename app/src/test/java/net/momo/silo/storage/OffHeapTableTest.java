@@ -0,0 +1,144 @@
+package net.momo.silo.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapTableTest {
+
+    @Test
+    void keepsQuantitiesAcrossResizes() {
+        OffHeapTable table = new OffHeapTable();
+        int items = 5_000;
+        for (int i = 0; i < items; i++) {
+            assertTrue(table.compareAndSet(i * 7 + 1, 0, i + 1));
+        }
+        for (int i = 0; i < items; i++) {
+            assertEquals(i + 1, table.get(i * 7 + 1));
+        }
+        assertEquals(0, table.get(2));
+        assertFalse(table.compareAndSet(2, 5, 6));
+        assertFalse(table.compareAndSet(1, 7, 8));
+    }
+
+    /** Types that emptied are dropped by the next resize and come back as fresh entries. */
+    @Test
+    void emptiedTypesAreDroppedOnResize() {
+        OffHeapTable table = new OffHeapTable();
+        for (int i = 0; i < 30; i++) {
+            table.compareAndSet(i, 0, 10);
+            table.compareAndSet(i, 10, 0);
+        }
+        // Enough new keys to force several resizes past the emptied ones
+        for (int i = 1_000; i < 1_500; i++) {
+            assertTrue(table.compareAndSet(i, 0, 1));
+        }
+        for (int i = 0; i < 30; i++) {
+            assertEquals(0, table.get(i));
+            assertTrue(table.compareAndSet(i, 0, 3));
+            assertEquals(3, table.get(i));
+        }
+        assertEquals(1, table.get(1_499));
+    }
+
+    @Test
+    void clearEmptiesEveryEntry() {
+        OffHeapTable table = new OffHeapTable();
+        for (int i = 0; i < 200; i++) {
+            table.compareAndSet(i, 0, 5);
+        }
+        table.clear();
+        for (int i = 0; i < 200; i++) {
+            assertEquals(0, table.get(i));
+        }
+        assertTrue(table.compareAndSet(7, 0, 1));
+    }
+
+    @Test
+    void presizeOnlySwapsAnUntouchedTable() {
+        OffHeapTable table = new OffHeapTable();
+        int[] handles = new int[1_000];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = i;
+        }
+        table.presize(handles, handles.length);
+        table.compareAndSet(3, 0, 9);
+        table.presize(handles, handles.length);
+        assertEquals(9, table.get(3));
+    }
+
+    /**
+     * Threads add units to their own handles and to shared ones while new keys keep forcing
+     * resizes. Updates that land on a {@code MOVED} entry retry on the new table, so none is lost.
+     */
+    @Test
+    void concurrentUpdatesSurviveResizes() throws Exception {
+        OffHeapTable table = new OffHeapTable();
+        int threads = 6;
+        int rounds = 20_000;
+        int shared = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < rounds; i++) {
+                    increment(table, i % shared);
+                    // A new key per round keeps the table growing under the other threads
+                    increment(table, 1_000 + thread * rounds + i);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        for (int h = 0; h < shared; h++) {
+            assertEquals((long) threads * rounds / shared, table.get(h));
+        }
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < rounds; i += 97) {
+                assertEquals(1, table.get(1_000 + t * rounds + i));
+            }
+        }
+    }
+
+    @Test
+    void offHeapStorageMatchesTheHeapBackend() {
+        Storage heap = new HeapStorage(1_000_000);
+        Storage offHeap = new OffHeapStorage(1_000_000);
+        for (Storage storage : List.of(heap, offHeap)) {
+            for (int i = 0; i < 150; i++) {
+                storage.deposit("OffHeap_Item_" + i, i + 1);
+            }
+            for (int i = 0; i < 150; i += 3) {
+                storage.withdraw("OffHeap_Item_" + i, i + 1);
+            }
+        }
+        assertEquals(heap.getItemsAsMap(), offHeap.getItemsAsMap());
+        assertEquals(heap.getTotalItems(), offHeap.getTotalItems());
+    }
+
+    private static void increment(OffHeapTable table, int handle) {
+        while (true) {
+            long current = table.get(handle);
+            if (table.compareAndSet(handle, current, current + 1)) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package net.momo.silo.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuantityIndexTest {
+
+    @Test
+    void fullOrderIsDescendingByQuantity() {
+        Storage storage = filled(200);
+        List<StoredItem> sorted = storage.getItemsSorted();
+        assertEquals(200, sorted.size());
+        for (int i = 1; i < sorted.size(); i++) {
+            assertTrue(sorted.get(i - 1).quantity() >= sorted.get(i).quantity());
+        }
+    }
+
+    /** Pages cut from the bucketed walk match the same window of the full order. */
+    @Test
+    void pagesMatchTheFullOrder() {
+        Storage storage = filled(300);
+        assertPagesMatch(storage);
+
+        // Moves across bucket boundaries in both directions, plus items leaving
+        storage.deposit("Index_Item_5", 1_000_000);
+        storage.withdraw("Index_Item_250", storage.getQuantity("Index_Item_250") / 2);
+        storage.withdraw("Index_Item_17", storage.getQuantity("Index_Item_17"));
+        assertEquals(299, storage.getItemsSorted().size());
+        assertPagesMatch(storage);
+    }
+
+    @Test
+    void pagesPastTheEndAreEmpty() {
+        Storage storage = filled(10);
+        assertEquals(List.of(), storage.getItemsSorted(10, 5));
+        assertEquals(List.of(), storage.getItemsSorted(0, 0));
+        assertEquals(3, storage.getItemsSorted(7, 50).size());
+        assertEquals(storage.getItemsSorted().subList(0, 4), storage.getItemsSorted(-3, 4));
+    }
+
+    /** Many items with equal quantities share one bucket, so the selection decides the page alone. */
+    @Test
+    void pagesWithinOneBucket() {
+        Storage storage = new HeapStorage(Long.MAX_VALUE / 2);
+        for (int i = 0; i < 500; i++) {
+            storage.deposit("Index_Flat_" + i, 1_000 + (i * 7) % 13);
+        }
+        assertPagesMatch(storage);
+    }
+
+    private static Storage filled(int items) {
+        Storage storage = new HeapStorage(Long.MAX_VALUE / 2);
+        for (int i = 0; i < items; i++) {
+            // Spread over many buckets with plenty of ties inside each
+            storage.deposit("Index_Item_" + i, 1 + (long) (i % 37) * (i % 11) * 997 + i % 5);
+        }
+        return storage;
+    }
+
+    private static void assertPagesMatch(Storage storage) {
+        List<StoredItem> sorted = storage.getItemsSorted();
+        for (int limit : new int[] {1, 7, 45, 1_000}) {
+            List<StoredItem> paged = new ArrayList<>();
+            for (int offset = 0; offset < sorted.size(); offset += limit) {
+                List<StoredItem> page = storage.getItemsSorted(offset, limit);
+                assertEquals(quantities(sorted.subList(offset, Math.min(sorted.size(), offset + limit))),
+                    quantities(page), "offset " + offset + " limit " + limit);
+                paged.addAll(page);
+            }
+            assertEquals(sorted.size(), paged.size());
+            assertEquals(sorted.stream().map(StoredItem::itemId).sorted().toList(),
+                paged.stream().map(StoredItem::itemId).sorted().toList());
+        }
+    }
+
+    private static List<Long> quantities(List<StoredItem> items) {
+        return items.stream().map(StoredItem::quantity).toList();
+    }
+}
@@ -0,0 +1,272 @@
+package net.momo.silo.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReservationTest {
+
+    @AfterEach
+    void closeBuffer() {
+        // A failed assertion must not leave the buffer open for the next test on this thread
+        DepositBuffer.flush();
+    }
+
+    @Test
+    void commitKeepsTheSettledPartOfADeposit() {
+        Storage storage = new HeapStorage(100);
+        int handle = ItemIds.intern("Reserve_Stone");
+        Reservation reservation = new Reservation();
+        int entry = storage.reserveCapacity(reservation, handle, 60);
+        assertEquals(60, reservation.held(entry));
+        assertEquals(40, storage.getRemainingCapacity());
+
+        reservation.settle(entry, 80);
+        assertEquals(60, reservation.settled(entry));
+        reservation.settle(entry, 25);
+        storage.commit(reservation);
+
+        assertFalse(reservation.isOpen());
+        assertEquals(25, storage.getQuantity(handle));
+        assertEquals(75, storage.getRemainingCapacity());
+        assertEquals(1, storage.getUniqueItemCount());
+    }
+
+    @Test
+    void abortReturnsHeldCapacityAndItems() {
+        Storage storage = new HeapStorage(100);
+        int stone = ItemIds.intern("Reserve_Stone");
+        int dirt = ItemIds.intern("Reserve_Dirt");
+        storage.deposit(dirt, 30);
+
+        Reservation reservation = new Reservation();
+        int deposit = storage.reserveCapacity(reservation, stone, 50);
+        int withdrawal = storage.reserveItems(reservation, dirt, 20);
+        assertTrue(reservation.holdsItems(withdrawal));
+        assertEquals(10, storage.getQuantity(dirt));
+        reservation.settle(deposit, 50);
+        reservation.settle(withdrawal, 20);
+        storage.abort(reservation);
+
+        assertEquals(0, storage.getQuantity(stone));
+        assertEquals(30, storage.getQuantity(dirt));
+        assertEquals(70, storage.getRemainingCapacity());
+        assertEquals(1, storage.getUniqueItemCount());
+    }
+
+    @Test
+    void committedWithdrawalsFreeTheirCapacity() {
+        Storage storage = new HeapStorage(100);
+        int dirt = ItemIds.intern("Reserve_Dirt");
+        storage.deposit(dirt, 30);
+        Reservation reservation = new Reservation();
+        int entry = storage.reserveItems(reservation, dirt, 50);
+        assertEquals(30, reservation.held(entry));
+        reservation.settle(entry, 12);
+        storage.commit(reservation);
+
+        assertEquals(18, storage.getQuantity(dirt));
+        assertEquals(82, storage.getRemainingCapacity());
+        assertEquals(-1, storage.reserveItems(new Reservation(), ItemIds.intern("Reserve_Absent"), 5));
+    }
+
+    @Test
+    void closedReservationsRefuseReuseUntilCleared() {
+        Storage storage = new HeapStorage(100);
+        Storage other = new HeapStorage(100);
+        int handle = ItemIds.intern("Reserve_Stone");
+        Reservation reservation = new Reservation(1);
+        storage.reserveCapacity(reservation, handle, 5);
+        assertThrows(IllegalArgumentException.class, () -> other.reserveCapacity(reservation, handle, 5));
+        storage.commit(reservation);
+        assertThrows(IllegalStateException.class, () -> storage.commit(reservation));
+        assertThrows(IllegalStateException.class, () -> reservation.settle(0, 1));
+
+        reservation.clear();
+        assertTrue(reservation.isOpen());
+        assertTrue(reservation.isEmpty());
+        assertTrue(other.reserveCapacity(reservation, handle, 5) >= 0);
+        other.abort(reservation);
+    }
+
+    /** Buffered deposits keep their capacity at commit and merge into one slot update at the flush. */
+    @Test
+    void bufferedDepositsLandAtTheFlush() {
+        Storage storage = new HeapStorage(1_000);
+        int handle = ItemIds.intern("Reserve_Buffered");
+        DepositBuffer.open();
+        for (int i = 0; i < 3; i++) {
+            Reservation reservation = new Reservation();
+            int entry = storage.reserveCapacity(reservation, handle, 100);
+            reservation.settle(entry, 40);
+            storage.commit(reservation);
+        }
+        assertEquals(0, storage.getQuantity(handle));
+        assertEquals(880, storage.getRemainingCapacity());
+        long version = storage.version();
+
+        DepositBuffer.flush();
+        assertEquals(120, storage.getQuantity(handle));
+        assertEquals(880, storage.getRemainingCapacity());
+        assertEquals(1, storage.getUniqueItemCount());
+        assertEquals(version + 1, storage.version());
+    }
+
+    /** A clear between commit and flush takes the buffered deposit's capacity with it, so the flush drops it. */
+    @Test
+    void flushDropsDepositsQueuedBeforeAClear() {
+        Storage storage = new HeapStorage(1_000);
+        int handle = ItemIds.intern("Reserve_Cleared");
+        DepositBuffer.open();
+        commitDeposit(storage, handle, 70);
+        storage.clear();
+        commitDeposit(storage, handle, 5);
+        DepositBuffer.flush();
+
+        assertEquals(5, storage.getQuantity(handle));
+        assertEquals(995, storage.getRemainingCapacity());
+        assertEquals(1, storage.getUniqueItemCount());
+
+        DepositBuffer.open();
+        commitDeposit(storage, handle, 30);
+        storage.clear();
+        DepositBuffer.flush();
+        assertEquals(0, storage.getQuantity(handle));
+        assertEquals(1_000, storage.getRemainingCapacity());
+        assertEquals(0, storage.getUniqueItemCount());
+    }
+
+    /** Deposits waiting in the buffer still count against the per-item maximum. */
+    @Test
+    void bufferedDepositsKeepThePerItemCap() {
+        Storage storage = new HeapStorage(Long.MAX_VALUE / 2);
+        int handle = ItemIds.intern("Reserve_Capped");
+        DepositBuffer.open();
+        Reservation first = new Reservation();
+        int entry = storage.reserveCapacity(first, handle, 700_000_000);
+        first.settle(entry, 700_000_000);
+        storage.commit(first);
+
+        Reservation second = new Reservation();
+        entry = storage.reserveCapacity(second, handle, 700_000_000);
+        assertEquals(300_000_000, second.held(entry));
+        second.settle(entry, 700_000_000);
+        storage.commit(second);
+        assertEquals(-1, storage.reserveCapacity(new Reservation(), handle, 1));
+        assertTrue(storage.deposit(handle, 1).isFailure());
+        DepositBuffer.flush();
+
+        assertEquals(1_000_000_000, storage.getQuantity(handle));
+        assertEquals(1_000_000_000, storage.getTotalItems());
+        assertEquals(1_000_000_000, storage.getItemsSorted().get(0).quantity());
+    }
+
+    @Test
+    void openReservationsKeepTheirRoomFromDirectDeposits() {
+        Storage storage = new HeapStorage(Long.MAX_VALUE / 2);
+        int handle = ItemIds.intern("Reserve_Room");
+        storage.deposit(handle, 400_000_000);
+        Reservation withdrawal = new Reservation();
+        int taken = storage.reserveItems(withdrawal, handle, 300_000_000);
+        Reservation deposit = new Reservation();
+        int held = storage.reserveCapacity(deposit, handle, 500_000_000);
+        assertEquals(500_000_000, deposit.held(held));
+
+        // Only the room nobody holds is left: 1e9 - 100M stored - 300M held out - 500M reserved
+        assertEquals(100_000_000, storage.tryDeposit(handle, 900_000_000));
+        deposit.settle(held, 500_000_000);
+        storage.commit(deposit);
+        storage.abort(withdrawal);
+        assertEquals(1_000_000_000, storage.getQuantity(handle));
+
+        // Everything claimed was handed back, so the room is free again once items leave
+        storage.withdraw(handle, 250_000_000);
+        assertEquals(250_000_000, storage.tryDeposit(handle, 900_000_000));
+    }
+
+    @Test
+    void clearedBufferedDepositsGiveTheirRoomBack() {
+        Storage storage = new HeapStorage(Long.MAX_VALUE / 2);
+        int handle = ItemIds.intern("Reserve_Cleared_Room");
+        DepositBuffer.open();
+        commitDeposit(storage, handle, 900_000_000);
+        storage.clear();
+        commitDeposit(storage, handle, 50_000_000);
+        assertEquals(950_000_000, storage.tryDeposit(handle, 999_000_000));
+        DepositBuffer.flush();
+        assertEquals(1_000_000_000, storage.getQuantity(handle));
+        storage.clear();
+        assertEquals(1_000_000_000, storage.tryDeposit(handle, 1_000_000_000));
+    }
+
+    /** Direct deposits, reservations and buffered commits racing for one item never push it past the cap. */
+    @Test
+    void racingWritersNeverPassTheCap() throws Exception {
+        Storage storage = new HeapStorage(Long.MAX_VALUE / 2);
+        int handle = ItemIds.intern("Reserve_Raced");
+        int threads = 6;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int mode = t % 3;
+            futures.add(executor.submit(() -> {
+                start.await();
+                Reservation reservation = new Reservation();
+                for (int i = 0; i < 2_000; i++) {
+                    if (mode == 0) {
+                        storage.tryDeposit(handle, 3_000_000);
+                    } else {
+                        if (mode == 2) {
+                            DepositBuffer.open();
+                        }
+                        reservation.clear();
+                        int entry = storage.reserveCapacity(reservation, handle, 5_000_000);
+                        if (entry >= 0) {
+                            reservation.settle(entry, 5_000_000);
+                        }
+                        storage.commit(reservation);
+                        if (mode == 2) {
+                            DepositBuffer.flush();
+                        }
+                    }
+                    if (i % 10 == 0) {
+                        storage.tryWithdraw(handle, 20_000_000);
+                    }
+                    assertTrue(storage.getQuantity(handle) <= 1_000_000_000);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertTrue(storage.getQuantity(handle) <= 1_000_000_000);
+        assertEquals(storage.getQuantity(handle), storage.getTotalItems());
+        // Every claim was handed back, so the whole room is reachable again
+        storage.tryWithdraw(handle, 100_000_000);
+        long room = 1_000_000_000 - storage.getQuantity(handle);
+        assertEquals(room, storage.tryDeposit(handle, 2_000_000_000));
+    }
+
+    private static void commitDeposit(Storage storage, int handle, long amount) {
+        Reservation reservation = new Reservation();
+        int entry = storage.reserveCapacity(reservation, handle, amount);
+        reservation.settle(entry, amount);
+        storage.commit(reservation);
+    }
+}
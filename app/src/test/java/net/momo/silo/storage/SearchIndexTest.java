@@ -0,0 +1,110 @@
+package net.momo.silo.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchIndexTest {
+
+    @Test
+    void firstQueryBuildsFromItemsAlreadyStored() {
+        Storage storage = new HeapStorage(1_000_000);
+        storage.deposit("Search_Oak_Log", 5);
+        storage.deposit("Search_Birch_Log", 50);
+        storage.deposit("Search_Oak_Plank", 8);
+
+        assertEquals(List.of("Search_Birch_Log", "Search_Oak_Log"), ids(storage.searchItems("_log")));
+        assertEquals(List.of("Search_Oak_Plank", "Search_Oak_Log"), ids(storage.searchItems("OAK")));
+        assertEquals(List.of(), ids(storage.searchItems("spruce")));
+    }
+
+    /** Once built, postings follow items arriving and leaving through every write path. */
+    @Test
+    void postingsFollowWritesAfterTheBuild() {
+        Storage storage = new HeapStorage(1_000_000);
+        storage.deposit("Search_Iron_Ore", 3);
+        assertEquals(List.of("Search_Iron_Ore"), ids(storage.searchItems("_ore")));
+
+        storage.deposit("Search_Gold_Ore", 9);
+        storage.withdraw("Search_Iron_Ore", 3);
+        assertEquals(List.of("Search_Gold_Ore"), ids(storage.searchItems("_ore")));
+
+        storage.clear();
+        assertEquals(List.of(), ids(storage.searchItems("_ore")));
+        storage.deposit("Search_Iron_Ore", 1);
+        assertEquals(List.of("Search_Iron_Ore"), ids(storage.searchItems("_ore")));
+    }
+
+    @Test
+    void shortQueriesWalkTheQuantityOrder() {
+        Storage storage = new HeapStorage(1_000_000);
+        storage.deposit("Search_Ab_One", 1);
+        storage.deposit("Search_Ab_Two", 2);
+        storage.deposit("Search_Cd", 3);
+        assertEquals(List.of("Search_Ab_Two", "Search_Ab_One"), ids(storage.searchItems("ab")));
+    }
+
+    /** Writers racing each other and the search leave the index matching a plain scan once they stop. */
+    @Test
+    void quiescentIndexMatchesABruteForceScan() throws Exception {
+        Storage storage = new HeapStorage(Long.MAX_VALUE / 2);
+        int items = 400;
+        for (int i = 0; i < items; i += 2) {
+            storage.deposit(name(i), 1);
+        }
+        storage.searchItems("toggle");
+
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int round = 0; round < 2_000; round++) {
+                    String id = name((round * 31 + seed * 101) % items);
+                    if ((round + seed) % 2 == 0) {
+                        storage.deposit(id, 1);
+                    } else {
+                        storage.withdraw(id, 1);
+                    }
+                    if (round % 100 == 0) {
+                        storage.searchItems("toggle_1");
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        for (String query : new String[] {"toggle", "toggle_1", "_3", "e_19", "99"}) {
+            String lower = query.toLowerCase(Locale.ROOT);
+            List<String> expected = storage.getItemsSorted().stream().map(StoredItem::itemId)
+                .filter(id -> id.toLowerCase(Locale.ROOT).contains(lower)).sorted().toList();
+            assertEquals(expected, ids(storage.searchItems(query)).stream().sorted().toList(), query);
+        }
+        assertTrue(storage.searchItems("toggle").size() > 0);
+    }
+
+    private static String name(int i) {
+        return "Search_Toggle_" + i;
+    }
+
+    private static List<String> ids(List<StoredItem> items) {
+        return items.stream().map(StoredItem::itemId).toList();
+    }
+}
@@ -0,0 +1,186 @@
+package net.momo.silo.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StorageRegistryTest {
+
+    @Test
+    void topByFillFollowsWritesWithoutARescan() {
+        StorageRegistry registry = new StorageRegistry();
+        UUID low = UUID.randomUUID();
+        UUID mid = UUID.randomUUID();
+        UUID high = UUID.randomUUID();
+        registry.getOrCreate(low, 1_000).deposit("Registry_Stone", 100);
+        registry.getOrCreate(mid, 1_000).deposit("Registry_Stone", 500);
+        registry.getOrCreate(high, 1_000).deposit("Registry_Stone", 900);
+        assertEquals(List.of(high, mid, low), ids(registry.topByFill(5)));
+        assertEquals(List.of(high, mid), ids(registry.topByFill(2)));
+
+        // Straight after the last ranking, with no refresh interval to wait out
+        registry.get(low).orElseThrow().deposit("Registry_Dirt", 850);
+        registry.get(high).orElseThrow().withdraw("Registry_Stone", 800);
+        assertEquals(List.of(low, mid, high), ids(registry.topByFill(5)));
+        assertEquals(0.95, registry.topByFill(1).get(0).ratio(), 1e-9);
+
+        registry.unregister(mid);
+        assertEquals(List.of(low, high), ids(registry.topByFill(5)));
+    }
+
+    @Test
+    void topByFillRanksDormantStoragesByTheirSavedTotals() {
+        StorageRegistry registry = new StorageRegistry();
+        UUID loaded = UUID.randomUUID();
+        UUID dormant = UUID.randomUUID();
+        registry.getOrCreate(loaded, 1_000).deposit("Registry_Stone", 400);
+        registry.registerDormant(dormant, 1_000, 100, 700, 1,
+            storage -> storage.deposit("Registry_Stone", 700));
+        assertEquals(List.of(dormant, loaded), ids(registry.topByFill(5)));
+
+        // Paging in swaps the saved totals for the live storage
+        registry.get(dormant).orElseThrow().withdraw("Registry_Stone", 600);
+        assertEquals(List.of(loaded, dormant), ids(registry.topByFill(5)));
+
+        // Replacing a storage ranks the new one only
+        Storage replacement = new HeapStorage(1_000);
+        replacement.deposit("Registry_Stone", 999);
+        registry.register(loaded, replacement);
+        assertEquals(List.of(loaded, dormant), ids(registry.topByFill(5)));
+        assertEquals(999, registry.topByFill(1).get(0).used());
+    }
+
+    @Test
+    void dormantStoragesPageInOnFirstLookup() {
+        StorageRegistry registry = new StorageRegistry();
+        UUID id = UUID.randomUUID();
+        registry.registerDormant(id, 1_000, 50, 30, 1, storage -> storage.deposit("Registry_Saved", 30));
+        assertTrue(registry.exists(id));
+        assertFalse(registry.isLoaded(id));
+        assertTrue(registry.getIfLoaded(id).isEmpty());
+        assertEquals(30, registry.aggregates().totalItems());
+        assertEquals(1, registry.dormantCount());
+
+        long version = registry.version(id);
+        Storage storage = registry.get(id).orElseThrow();
+        assertEquals(30, storage.getQuantity("Registry_Saved"));
+        assertTrue(registry.isLoaded(id));
+        assertEquals(0, registry.dormantCount());
+        assertEquals(30, registry.aggregates().totalItems());
+        assertEquals(version, registry.version(id));
+    }
+
+    @Test
+    void evictIdlePagesOutDurableStoragesAndBackIn() {
+        StorageRegistry registry = new StorageRegistry();
+        SavedPager pager = new SavedPager();
+        registry.setPager(pager);
+        UUID id = UUID.randomUUID();
+        Storage storage = registry.getOrCreate(id, 1_000);
+        storage.deposit("Registry_Paged", 12);
+
+        // Not durable yet, so it stays
+        assertEquals(0, registry.evictIdle(0));
+        pager.save(id, storage);
+        long modCount = registry.modCount();
+        assertEquals(1, registry.evictIdle(0));
+        assertFalse(registry.isLoaded(id));
+        assertEquals(modCount, registry.modCount());
+        assertEquals(12, registry.aggregates().totalItems());
+        // The retired copy refuses writes rather than lose them
+        assertTrue(storage.deposit("Registry_Paged", 1).isFailure());
+
+        Storage pagedIn = registry.get(id).orElseThrow();
+        assertEquals(12, pagedIn.getQuantity("Registry_Paged"));
+        assertEquals(modCount, registry.modCount());
+        pagedIn.deposit("Registry_Paged", 1);
+        assertEquals(0, registry.evictIdle(0));
+    }
+
+    /** Reservation entries and buffered deposits hold a storage in; retiring waits until they settle. */
+    @Test
+    void openHoldsKeepAStorageLoaded() {
+        StorageRegistry registry = new StorageRegistry();
+        SavedPager pager = new SavedPager();
+        registry.setPager(pager);
+        UUID id = UUID.randomUUID();
+        Storage storage = registry.getOrCreate(id, 1_000);
+        int handle = ItemIds.intern("Registry_Held");
+        pager.save(id, storage);
+
+        Reservation reservation = new Reservation();
+        storage.reserveCapacity(reservation, handle, 10);
+        assertEquals(0, registry.evictIdle(0));
+        storage.abort(reservation);
+        assertEquals(1, registry.evictIdle(0));
+
+        Storage pagedIn = registry.get(id).orElseThrow();
+        DepositBuffer.open();
+        try {
+            reservation.clear();
+            int entry = pagedIn.reserveCapacity(reservation, handle, 10);
+            reservation.settle(entry, 10);
+            pagedIn.commit(reservation);
+            pager.save(id, pagedIn);
+            // Committed, but the deposit still waits in the buffer
+            assertEquals(0, registry.evictIdle(0));
+        } finally {
+            DepositBuffer.flush();
+        }
+        assertSame(pagedIn, registry.getIfLoaded(id).orElseThrow());
+        assertEquals(10, pagedIn.getQuantity(handle));
+        pager.save(id, pagedIn);
+        assertEquals(1, registry.evictIdle(0));
+        assertEquals(10, registry.get(id).orElseThrow().getQuantity(handle));
+    }
+
+    @Test
+    void registeringOverADormantEntryReplacesIt() {
+        StorageRegistry registry = new StorageRegistry();
+        UUID id = UUID.randomUUID();
+        registry.registerDormant(id, 1_000, 50, 30, 1, storage -> storage.deposit("Registry_Saved", 30));
+        Storage replacement = new HeapStorage(500);
+        replacement.deposit("Registry_New", 4);
+        registry.register(id, replacement);
+        assertEquals(0, registry.dormantCount());
+        assertSame(replacement, registry.get(id).orElseThrow());
+        assertEquals(4, registry.aggregates().totalItems());
+        assertEquals(500, registry.aggregates().totalCapacity());
+
+        assertTrue(registry.unregister(id));
+        assertEquals(0, registry.aggregates().totalItems());
+        assertEquals(0, registry.size());
+    }
+
+    /** Pager that treats a storage as durable when its contents were saved at its current version. */
+    private static final class SavedPager implements StoragePager {
+        private final Map<UUID, Saved> saved = new ConcurrentHashMap<>();
+
+        void save(UUID id, Storage storage) {
+            saved.put(id, new Saved(((AbstractStorage) storage).logicalVersion(), storage.getItemsAsMap()));
+        }
+
+        @Override
+        public StorageSource durableSource(UUID id, Storage storage, long version) {
+            Saved entry = saved.get(id);
+            if (entry == null || entry.version() != version) {
+                return null;
+            }
+            return target -> entry.items().forEach(target::deposit);
+        }
+
+        private record Saved(long version, Map<String, Long> items) {}
+    }
+
+    private static List<UUID> ids(List<StorageRegistry.NetworkFill> fills) {
+        return fills.stream().map(StorageRegistry.NetworkFill::id).toList();
+    }
+}
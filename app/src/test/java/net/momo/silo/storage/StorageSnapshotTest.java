@@ -0,0 +1,120 @@
+package net.momo.silo.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StorageSnapshotTest {
+
+    @Test
+    void stampIsWithheldWhileAWriteIsInFlight() {
+        VersionClock clock = new VersionClock();
+        long idle = clock.stamp();
+        assertTrue(idle >= 0);
+
+        clock.begin();
+        assertEquals(-1, clock.stamp());
+        assertFalse(clock.validate(idle));
+        clock.end();
+
+        long next = clock.stamp();
+        assertEquals(idle + 1, next);
+        assertEquals(next, clock.read());
+        assertTrue(clock.validate(next));
+    }
+
+    @Test
+    void snapshotOfAQuietStorageIsConsistent() {
+        Storage storage = new HeapStorage(1_000);
+        storage.deposit("Snapshot_A", 5);
+        storage.deposit("Snapshot_B", 9);
+
+        StorageSnapshot snapshot = storage.snapshot();
+        assertTrue(snapshot.isConsistent());
+        assertEquals(storage.version(), snapshot.version());
+        assertEquals(2, snapshot.size());
+        assertEquals("Snapshot_B", snapshot.itemId(0));
+        assertEquals(14, snapshot.totalItems());
+    }
+
+    /**
+     * Every writer deposits one unit of A, then one of B. A consistent snapshot sees no write in
+     * progress, so A leads B by at most one per writer. A write that loses a race retries as a new
+     * write, so the version bounds the units from above rather than matching them.
+     */
+    @Test
+    void consistentSnapshotsNeverSeeATornWrite() throws Exception {
+        Storage storage = new HeapStorage(Long.MAX_VALUE / 2);
+        String first = "Snapshot_Lead";
+        String second = "Snapshot_Trail";
+        int handleA = ItemIds.intern(first);
+        int handleB = ItemIds.intern(second);
+        long baseVersion = storage.version();
+
+        int writers = 4;
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < writers; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 1; running.get(); i++) {
+                    storage.deposit(handleA, 1);
+                    storage.deposit(handleB, 1);
+                    // Writers that never pause may starve snapshots into the inconsistent fallback
+                    if (i % 256 == 0) {
+                        LockSupport.parkNanos(20_000);
+                    }
+                }
+            }));
+        }
+
+        int consistent = 0;
+        long lastVersion = baseVersion;
+        try {
+            for (int i = 0; i < 2_000; i++) {
+                StorageSnapshot snapshot = storage.snapshot();
+                assertTrue(snapshot.version() >= lastVersion);
+                lastVersion = snapshot.version();
+
+                long a = 0;
+                long b = 0;
+                long sum = 0;
+                for (int entry = 0; entry < snapshot.size(); entry++) {
+                    sum += snapshot.quantity(entry);
+                    if (snapshot.handle(entry) == handleA) {
+                        a = snapshot.quantity(entry);
+                    } else if (snapshot.handle(entry) == handleB) {
+                        b = snapshot.quantity(entry);
+                    }
+                }
+                assertEquals(sum, snapshot.totalItems());
+                if (snapshot.isConsistent()) {
+                    consistent++;
+                    assertTrue(a - b >= 0 && a - b <= writers, "A=" + a + " B=" + b);
+                    assertTrue(a + b <= snapshot.version() - baseVersion);
+                }
+            }
+        } finally {
+            running.set(false);
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+        }
+        assertTrue(consistent > 0);
+
+        StorageSnapshot settled = storage.snapshot();
+        assertTrue(settled.isConsistent());
+        assertEquals(storage.getQuantity(first) + storage.getQuantity(second), settled.totalItems());
+    }
+}